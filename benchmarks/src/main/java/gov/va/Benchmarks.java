@@ -0,0 +1,77 @@
+package gov.va;
+
+import gov.va.legoEdit.model.schemaModel.Lego;
+import gov.va.legoEdit.storage.sim.util.SchemaToSimConversions;
+import gov.va.sim.lego.LegoBI;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import au.csiro.ontology.classification.IReasoner;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Runs the benchmarks, always with the gc profiler, so allocation regressions in conversion show up next to the timings.
+ *
+ * Usage: java -jar benchmarks.jar [JMH options] - for example, -p stateFile=classifier_uuid.state ClassificationBenchmark
+ */
+public class Benchmarks
+{
+	/**
+	 * The Legos the benchmarks convert, when no -p legoFile= is given - the classifier's own test Legos, which include nested
+	 * expressions, relation groups and bounded measurements.
+	 */
+	static final String DEFAULT_LEGO_FILE = "../src/test/resources/Pressure ulcer observables.xml";
+
+	static List<Lego> readLegos(String legoFile) throws Exception
+	{
+		File f = new File(legoFile);
+		if (!f.isFile())
+		{
+			throw new IOException("No Lego file " + f.getAbsolutePath() + " - pass one with -p legoFile=<file>");
+		}
+		return LegoXMLReader.read(f).getLego();
+	}
+
+	static LegoBI[] toSIM(List<Lego> legos) throws Exception
+	{
+		LegoBI[] result = new LegoBI[legos.size()];
+		for (int i = 0; i < result.length; i++)
+		{
+			result[i] = SchemaToSimConversions.convert(legos.get(i));
+		}
+		return result;
+	}
+
+	static File stateFile(String stateFile) throws IOException
+	{
+		File f = new File(stateFile);
+		if (!f.isFile())
+		{
+			throw new IOException("No classifier state file " + f.getAbsolutePath() + " - pass one with -p stateFile=<file>");
+		}
+		return f;
+	}
+
+	@SuppressWarnings("unchecked")
+	static IReasoner<String> loadState(String stateFile) throws IOException
+	{
+		try (InputStream is = new BufferedInputStream(new FileInputStream(stateFile(stateFile)), 1 << 20))
+		{
+			return SnorocketReasoner.load(is);
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		Options options = new OptionsBuilder().parent(new CommandLineOptions(args)).addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+}
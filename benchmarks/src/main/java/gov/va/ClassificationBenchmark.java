@@ -0,0 +1,94 @@
+package gov.va;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.axioms.IConceptInclusion;
+import au.csiro.ontology.model.INamedConcept;
+
+/**
+ * Incremental classification of the Legos' axioms on the preloaded base state.
+ *
+ * The reasoner keeps everything it is given, and classifying the same axioms twice is a no-op - so before each invocation, the concepts
+ * the Legos define are given fresh names (as {@link WhatIfClassifier} does), and every invocation classifies new definitions.  The
+ * reasoner grows a little with each invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx3G"})
+public class ClassificationBenchmark
+{
+	@Param(Benchmarks.DEFAULT_LEGO_FILE)
+	public String legoFile;
+
+	@Param("classifier_uuid.state")
+	public String stateFile;
+
+	private SIMClassifier classifier;
+	private List<IAxiom> axioms;
+	private List<String> defined;
+	private long invocation = 0;
+
+	@Setup(Level.Trial)
+	public void loadBase() throws Exception
+	{
+		classifier = new SIMClassifier(Benchmarks.loadState(stateFile));
+		SIMClassifier converter = new SIMClassifier(null, classifier.getFactory());
+		converter.convertToAxioms(Benchmarks.toSIM(Benchmarks.readLegos(legoFile)));
+		axioms = new ArrayList<>(converter.getUnclassifiedAxioms());
+		defined = new ArrayList<>();
+		for (IAxiom a : axioms)
+		{
+			if (a instanceof IConceptInclusion && ((IConceptInclusion) a).lhs() instanceof INamedConcept)
+			{
+				defined.add((String) ((INamedConcept<?>) ((IConceptInclusion) a).lhs()).getId());
+			}
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void freshDefinitions()
+	{
+		invocation++;
+		Map<String, String> renamed = new HashMap<>();
+		for (String id : defined)
+		{
+			renamed.put(id, id + "#bench-" + invocation);
+		}
+		InterningFactory f = classifier.getFactory();
+		for (IAxiom a : axioms)
+		{
+			if (a instanceof IConceptInclusion)
+			{
+				IConceptInclusion ci = (IConceptInclusion) a;
+				a = f.createConceptInclusion(WhatIfClassifier.rename(ci.lhs(), renamed, f), WhatIfClassifier.rename(ci.rhs(), renamed, f));
+			}
+			classifier.getUnclassifiedAxioms().add(a);
+		}
+	}
+
+	@Benchmark
+	public long classifyAxioms() throws Exception
+	{
+		classifier.classifyAxioms();
+		return classifier.getClassificationCount();
+	}
+}
@@ -0,0 +1,75 @@
+package gov.va;
+
+import gov.va.legoEdit.model.schemaModel.Lego;
+import gov.va.sim.lego.LegoBI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of Legos to axioms, from the SIM-API ({@link SIMClassifier}) and from the schema model ({@link LegoClassifier}).  No
+ * reasoner is involved - the axioms are returned, so they aren't optimized away.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ConversionBenchmark
+{
+	@Param(Benchmarks.DEFAULT_LEGO_FILE)
+	public String legoFile;
+
+	private Lego[] legos;
+	private LegoBI[] simLegos;
+	private InterningFactory factory;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		List<Lego> l = Benchmarks.readLegos(legoFile);
+		legos = l.toArray(new Lego[l.size()]);
+		simLegos = Benchmarks.toSIM(l);
+		// shared across invocations, as in a long running classifier - so the benchmark measures conversion, not interning misses
+		factory = new InterningFactory();
+	}
+
+	@Benchmark
+	public Object simConvertToAxioms() throws Exception
+	{
+		SIMClassifier sc = new SIMClassifier(null, factory);
+		sc.convertToAxioms(simLegos);
+		return sc.getUnclassifiedAxioms();
+	}
+
+	@Benchmark
+	public Object schemaConvertToAxioms()
+	{
+		LegoClassifier lc = new LegoClassifier(null);
+		lc.convertToAxioms(legos);
+		return lc.getUnclassifiedAxioms();
+	}
+
+	/**
+	 * Includes the schema to SIM-API step, as the pipeline does it
+	 */
+	@Benchmark
+	public Object schemaToSIMConvertToAxioms() throws Exception
+	{
+		SIMClassifier sc = new SIMClassifier(null, factory);
+		sc.convertToAxioms(Benchmarks.toSIM(Arrays.asList(legos)));
+		return sc.getUnclassifiedAxioms();
+	}
+}
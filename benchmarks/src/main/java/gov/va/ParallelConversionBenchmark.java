@@ -0,0 +1,79 @@
+package gov.va;
+
+import gov.va.legoEdit.model.schemaModel.Lego;
+import gov.va.sim.lego.LegoBI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parallel conversion of Legos to axioms ({@link SIMClassifier#convertToAxioms(ExecutorService, LegoBI...)}), for each number of
+ * threads - compare against threads=1 for the scaling.  The Lego file is repeated copies times (each copy converted to the SIM-API
+ * separately), so there is enough work to split.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ParallelConversionBenchmark
+{
+	@Param(Benchmarks.DEFAULT_LEGO_FILE)
+	public String legoFile;
+
+	@Param({"1", "4", "8", "16", "32"})
+	public int threads;
+
+	@Param("512")
+	public int copies;
+
+	private LegoBI[] simLegos;
+	private InterningFactory factory;
+	private ExecutorService executor;
+
+	@Setup
+	public void setup() throws Exception
+	{
+		List<Lego> l = Benchmarks.readLegos(legoFile);
+		List<LegoBI> all = new ArrayList<>();
+		for (int i = 0; i < copies; i++)
+		{
+			for (LegoBI lego : Benchmarks.toSIM(l))
+			{
+				all.add(lego);
+			}
+		}
+		simLegos = all.toArray(new LegoBI[all.size()]);
+		factory = new InterningFactory();
+		executor = Executors.newFixedThreadPool(threads);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		executor.shutdown();
+	}
+
+	@Benchmark
+	public Object parallelConvertToAxioms() throws Exception
+	{
+		SIMClassifier sc = new SIMClassifier(null, factory);
+		sc.convertToAxioms(executor, simLegos);
+		return sc.getUnclassifiedAxioms();
+	}
+}
@@ -0,0 +1,64 @@
+package gov.va;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading the base state - {@link #snorocketLoad()} from the classifier state file, as the tests do, and {@link #snapshotLoad()} from
+ * the {@link ReasonerSnapshot} form of the same state, for comparison.  Each load takes seconds, so every invocation is timed on its own.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx3G"})
+public class StateLoadBenchmark
+{
+	@Param("classifier_uuid.state")
+	public String stateFile;
+
+	private File snapshot;
+
+	@Setup
+	public void writeSnapshot() throws Exception
+	{
+		snapshot = File.createTempFile("benchmark", ".snapshot");
+		try (InputStream is = new FileInputStream(Benchmarks.stateFile(stateFile)))
+		{
+			ReasonerSnapshot.convert(is, snapshot);
+		}
+	}
+
+	@TearDown
+	public void deleteSnapshot()
+	{
+		snapshot.delete();
+	}
+
+	@Benchmark
+	public Object snorocketLoad() throws Exception
+	{
+		return Benchmarks.loadState(stateFile);
+	}
+
+	@Benchmark
+	public Object snapshotLoad() throws Exception
+	{
+		return ReasonerSnapshot.load(snapshot);
+	}
+}
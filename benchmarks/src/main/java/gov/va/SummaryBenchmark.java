@@ -0,0 +1,48 @@
+package gov.va;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link SIMClassifier#getClassificationSummary()}, after the Legos are classified on the base state.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx3G"})
+public class SummaryBenchmark
+{
+	@Param(Benchmarks.DEFAULT_LEGO_FILE)
+	public String legoFile;
+
+	@Param("classifier_uuid.state")
+	public String stateFile;
+
+	private SIMClassifier classifier;
+
+	@Setup
+	public void classify() throws Exception
+	{
+		classifier = new SIMClassifier(Benchmarks.loadState(stateFile));
+		classifier.convertToAxioms(Benchmarks.toSIM(Benchmarks.readLegos(legoFile)));
+		classifier.classifyAxioms();
+	}
+
+	@Benchmark
+	public String getClassificationSummary()
+	{
+		return classifier.getClassificationSummary();
+	}
+}
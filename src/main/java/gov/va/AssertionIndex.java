@@ -0,0 +1,274 @@
+package gov.va;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An inverted index from taxonomy concepts to the Lego assertion components they stand for - the defined concept (assertion component
+ * UUID) of each discernible, qualifier or value with an expression, or the concept itself, for a component that is just a concept.
+ * Set on a {@link SIMClassifier} (see {@link SIMClassifier#setAssertionIndex(AssertionIndex)}), it is filled as Legos are converted.
+ *
+ * With a {@link SubsumptionIndex}, {@link #find(String, Role, SubsumptionIndex)} answers "every assertion whose discernible (qualifier,
+ * value) falls under concept Y" from Y's descendants, without scanning the assertions.
+ *
+ * Converting a Lego again replaces its entries.  Save the index alongside the reasoner state it describes (see
+ * {@link ClassifierCheckpoint}).
+ *
+ * Thread safe.
+ */
+public class AssertionIndex
+{
+	private static final int MAGIC = 0x4C434149; // "LCAI"
+	private static final int FORMAT_VERSION = 1;
+
+	public enum Role
+	{
+		DISCERNIBLE, QUALIFIER, VALUE
+	}
+
+	/**
+	 * One assertion component - the Lego it is in (null if the assertion was converted without its Lego), the position of the assertion
+	 * in the Lego, the role of the component, and the concept that stands for it.
+	 */
+	public static class Entry
+	{
+		private final String legoUuid;
+		private final int assertion;
+		private final Role role;
+		private final String conceptId;
+
+		public Entry(String legoUuid, int assertion, Role role, String conceptId)
+		{
+			this.legoUuid = legoUuid;
+			this.assertion = assertion;
+			this.role = role;
+			this.conceptId = conceptId;
+		}
+
+		public String getLegoUuid()
+		{
+			return legoUuid;
+		}
+
+		public int getAssertion()
+		{
+			return assertion;
+		}
+
+		public Role getRole()
+		{
+			return role;
+		}
+
+		public String getConceptId()
+		{
+			return conceptId;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Entry))
+			{
+				return false;
+			}
+			Entry e = (Entry) o;
+			return assertion == e.assertion && role == e.role && conceptId.equals(e.conceptId)
+					&& (legoUuid == null ? e.legoUuid == null : legoUuid.equals(e.legoUuid));
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return ((legoUuid == null ? 0 : legoUuid.hashCode()) * 31 + assertion) * 31 + role.hashCode() * 7 + conceptId.hashCode();
+		}
+
+		@Override
+		public String toString()
+		{
+			return legoUuid + "[" + assertion + "]." + role + "=" + conceptId;
+		}
+	}
+
+	private final HashMap<String, List<Entry>> byConcept = new HashMap<>();
+	private final HashMap<String, List<Entry>> byLego = new HashMap<>();
+	private int size = 0;
+
+	public synchronized void add(Entry e)
+	{
+		add(byConcept, e.conceptId, e);
+		if (e.legoUuid != null)
+		{
+			add(byLego, e.legoUuid, e);
+		}
+		size++;
+	}
+
+	private static void add(Map<String, List<Entry>> map, String key, Entry e)
+	{
+		List<Entry> entries = map.get(key);
+		if (entries == null)
+		{
+			// most concepts stand for one component
+			entries = new ArrayList<>(1);
+			map.put(key, entries);
+		}
+		entries.add(e);
+	}
+
+	/**
+	 * Drop every entry of the Lego - before it is converted again.
+	 */
+	public synchronized void removeLego(String legoUuid)
+	{
+		List<Entry> entries = byLego.remove(legoUuid);
+		if (entries == null)
+		{
+			return;
+		}
+		for (Entry e : entries)
+		{
+			List<Entry> same = byConcept.get(e.conceptId);
+			same.remove(e);
+			if (same.isEmpty())
+			{
+				byConcept.remove(e.conceptId);
+			}
+			size--;
+		}
+	}
+
+	/**
+	 * The components the concept itself stands for
+	 */
+	public synchronized List<Entry> get(String conceptId)
+	{
+		List<Entry> entries = byConcept.get(conceptId);
+		return entries == null ? Collections.<Entry> emptyList() : new ArrayList<>(entries);
+	}
+
+	/**
+	 * The components of the Lego
+	 */
+	public synchronized List<Entry> getLego(String legoUuid)
+	{
+		List<Entry> entries = byLego.get(legoUuid);
+		return entries == null ? Collections.<Entry> emptyList() : new ArrayList<>(entries);
+	}
+
+	/**
+	 * The components (of the role, or any role, if null) whose concept is the concept, or any of its descendants.
+	 */
+	public List<Entry> find(String conceptId, Role role, SubsumptionIndex subsumption)
+	{
+		Set<String> concepts = subsumption.getDescendants(conceptId);
+		List<Entry> result = new ArrayList<>();
+		synchronized (this)
+		{
+			collect(conceptId, role, result);
+			for (String c : concepts)
+			{
+				collect(c, role, result);
+			}
+		}
+		return result;
+	}
+
+	private void collect(String conceptId, Role role, List<Entry> result)
+	{
+		List<Entry> entries = byConcept.get(conceptId);
+		if (entries != null)
+		{
+			for (Entry e : entries)
+			{
+				if (role == null || e.role == role)
+				{
+					result.add(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The UUIDs of the Legos with a component (of the role, or any role, if null) that falls under the concept
+	 */
+	public Set<String> findLegos(String conceptId, Role role, SubsumptionIndex subsumption)
+	{
+		Set<String> result = new LinkedHashSet<>();
+		for (Entry e : find(conceptId, role, subsumption))
+		{
+			if (e.legoUuid != null)
+			{
+				result.add(e.legoUuid);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The number of components indexed
+	 */
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	public synchronized void save(File file) throws IOException
+	{
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+		{
+			dos.writeInt(MAGIC);
+			dos.writeInt(FORMAT_VERSION);
+			dos.writeInt(size);
+			for (List<Entry> entries : byConcept.values())
+			{
+				for (Entry e : entries)
+				{
+					dos.writeBoolean(e.legoUuid != null);
+					if (e.legoUuid != null)
+					{
+						dos.writeUTF(e.legoUuid);
+					}
+					dos.writeInt(e.assertion);
+					dos.writeByte(e.role.ordinal());
+					dos.writeUTF(e.conceptId);
+				}
+			}
+		}
+	}
+
+	public static AssertionIndex load(File file) throws IOException
+	{
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION)
+			{
+				throw new IOException("Not an assertion index: " + file.getAbsolutePath());
+			}
+			AssertionIndex index = new AssertionIndex();
+			int count = dis.readInt();
+			Role[] roles = Role.values();
+			for (int i = 0; i < count; i++)
+			{
+				String legoUuid = dis.readBoolean() ? dis.readUTF() : null;
+				int assertion = dis.readInt();
+				Role role = roles[dis.readUnsignedByte()];
+				index.add(new Entry(legoUuid, assertion, role, dis.readUTF()));
+			}
+			return index;
+		}
+	}
+}
@@ -0,0 +1,330 @@
+package gov.va;
+
+import gov.va.legoEdit.model.schemaModel.Lego;
+import gov.va.legoEdit.model.schemaModel.LegoList;
+import gov.va.legoEdit.storage.sim.util.SchemaToSimConversions;
+import gov.va.sim.lego.LegoBI;
+import java.beans.PropertyVetoException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.bind.JAXBException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+import au.csiro.ontology.axioms.IAxiom;
+
+/**
+ * A persistent cache of the result of converting each Lego file, so that unchanged files skip parsing and SIM conversion entirely.
+ *
+ * An entry holds, for each Lego in the file, everything {@link SIMClassifier#convertToAxioms(LegoBI...)} would have recorded - the
+ * axioms, the defined concepts, and the {@link AssertionIndex} entries - and a cache hit replays them into the classifier (with the
+ * same metrics and flight recorder events as a conversion), so the classifier can't tell the difference.
+ *
+ * Entries are keyed by the SHA-256 of the file content, combined with {@link SIMClassifier#CONVERTER_VERSION},
+ * {@link AxiomCodec#FORMAT_VERSION}, the entry format, and the lego-editor schema to SIM conversion (the implementation version and the
+ * class file of SchemaToSimConversions, as lego-editor is usually a SNAPSHOT) - so changing either converter invalidates every entry.
+ * Entries are stored (one file per entry) with the axioms in the {@link AxiomCodec} binary form.
+ *
+ * Stale entries are never read again, but are not removed - clear the folder to reclaim the space.
+ *
+ * Safe for use from multiple threads (and processes) - entries are written to a temp file, and renamed into place.
+ */
+public class AxiomCache
+{
+	static Logger logger = LoggerFactory.getLogger(AxiomCache.class);
+
+	private static final int MAGIC = 0x4C434143; // "LCAC"
+	// 2 - per Lego axioms, defined concepts and assertion index entries
+	private static final int FORMAT_VERSION = 2;
+	private static final String SUFFIX = ".axioms";
+	private static final byte[] SIM_CONVERSION = simConversionDigest();
+
+	private File cacheDir;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong corrupt = new AtomicLong();
+
+	/**
+	 * The result of converting one Lego
+	 */
+	private static class Converted
+	{
+		final String legoUuid;
+		final Collection<IAxiom> axioms;
+		final Collection<String> definedConcepts;
+		final List<AssertionIndex.Entry> entries;
+
+		Converted(String legoUuid, Collection<IAxiom> axioms, Collection<String> definedConcepts, List<AssertionIndex.Entry> entries)
+		{
+			this.legoUuid = legoUuid;
+			this.axioms = axioms;
+			this.definedConcepts = definedConcepts;
+			this.entries = entries;
+		}
+	}
+
+	public AxiomCache(File cacheDir) throws IOException
+	{
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+		{
+			throw new IOException("Could not create the cache folder " + cacheDir.getAbsolutePath());
+		}
+		this.cacheDir = cacheDir;
+	}
+
+	/**
+	 * Convert the Legos in the file into the classifier - from the cache, if the file is unchanged, otherwise, by reading and converting
+	 * the file (and caching the result).
+	 *
+	 * @return true if the conversion came from the cache
+	 */
+	public boolean convertToAxioms(File legoFile, SIMClassifier classifier) throws IOException, SAXException, JAXBException, PropertyVetoException,
+			NoSuchAlgorithmException
+	{
+		String key = key(legoFile);
+		File entry = new File(cacheDir, key + SUFFIX);
+
+		if (entry.isFile())
+		{
+			List<Converted> cached = null;
+			try
+			{
+				cached = read(entry, classifier.getFactory());
+			}
+			catch (IOException e)
+			{
+				corrupt.incrementAndGet();
+				logger.warn("Discarding unreadable cache entry " + entry.getName(), e);
+				entry.delete();
+			}
+			if (cached != null)
+			{
+				for (Converted c : cached)
+				{
+					long start = ClassifierMetrics.start();
+					Object event = ClassifierEvents.begin(ClassifierEvents.Kind.LEGO_CONVERSION);
+					classifier.addConverted(c.legoUuid, c.axioms, c.definedConcepts, c.entries);
+					ClassifierEvents.commit(event, c.legoUuid, c.axioms.size());
+					ClassifierMetrics.stop(ClassifierMetrics.Phase.PROCESS, start);
+					ClassifierMetrics.legoConverted(c.axioms.size());
+				}
+				hits.incrementAndGet();
+				return true;
+			}
+		}
+
+		misses.incrementAndGet();
+
+		// convert each Lego in a scratch classifier (which records the metrics and events), so we capture just what it produces
+		List<Converted> converted = new ArrayList<>();
+		LegoList ll = LegoXMLReader.read(legoFile);
+		for (Lego l : ll.getLego())
+		{
+			LegoBI sim = SIMClassifier.toSIM(l);
+			String legoUuid = String.valueOf(sim.getInstanceUuid());
+			SIMClassifier scratch = new SIMClassifier(null, classifier.getFactory());
+			scratch.setAssertionIndex(new AssertionIndex());
+			scratch.convertToAxioms(sim);
+			converted.add(new Converted(legoUuid, scratch.getUnclassifiedAxioms(), scratch.getDefinedConcepts(), scratch.getAssertionIndex()
+					.getLego(legoUuid)));
+		}
+		write(entry, converted);
+		for (Converted c : converted)
+		{
+			classifier.addConverted(c.legoUuid, c.axioms, c.definedConcepts, c.entries);
+		}
+		return false;
+	}
+
+	private List<Converted> read(File entry, InterningFactory f) throws IOException
+	{
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(entry))))
+		{
+			if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION || dis.readInt() != SIMClassifier.CONVERTER_VERSION
+					|| dis.readInt() != AxiomCodec.FORMAT_VERSION)
+			{
+				throw new IOException("Not a current cache entry");
+			}
+			AssertionIndex.Role[] roles = AssertionIndex.Role.values();
+			int legos = readCount(dis);
+			List<Converted> result = new ArrayList<>(Math.min(legos, 1024));
+			for (int i = 0; i < legos; i++)
+			{
+				String legoUuid = dis.readUTF();
+				List<IAxiom> axioms = AxiomCodec.read(dis, f);
+				int count = readCount(dis);
+				List<String> defined = new ArrayList<>(Math.min(count, 1024));
+				for (int j = 0; j < count; j++)
+				{
+					defined.add(dis.readUTF());
+				}
+				count = readCount(dis);
+				List<AssertionIndex.Entry> entries = new ArrayList<>(Math.min(count, 1024));
+				for (int j = 0; j < count; j++)
+				{
+					int assertion = dis.readInt();
+					int role = dis.readUnsignedByte();
+					if (role >= roles.length)
+					{
+						throw new IOException("Unexpected assertion role " + role);
+					}
+					entries.add(new AssertionIndex.Entry(legoUuid, assertion, roles[role], dis.readUTF()));
+				}
+				result.add(new Converted(legoUuid, axioms, defined, entries));
+			}
+			return result;
+		}
+	}
+
+	private static int readCount(DataInputStream dis) throws IOException
+	{
+		int count = dis.readInt();
+		if (count < 0)
+		{
+			throw new IOException("Negative count " + count);
+		}
+		return count;
+	}
+
+	private void write(File entry, List<Converted> converted) throws IOException
+	{
+		File temp = File.createTempFile(entry.getName(), ".tmp", cacheDir);
+		try
+		{
+			try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+			{
+				dos.writeInt(MAGIC);
+				dos.writeInt(FORMAT_VERSION);
+				dos.writeInt(SIMClassifier.CONVERTER_VERSION);
+				dos.writeInt(AxiomCodec.FORMAT_VERSION);
+				dos.writeInt(converted.size());
+				for (Converted c : converted)
+				{
+					dos.writeUTF(c.legoUuid);
+					AxiomCodec.write(c.axioms, dos);
+					dos.writeInt(c.definedConcepts.size());
+					for (String id : c.definedConcepts)
+					{
+						dos.writeUTF(id);
+					}
+					dos.writeInt(c.entries.size());
+					for (AssertionIndex.Entry e : c.entries)
+					{
+						dos.writeInt(e.getAssertion());
+						dos.writeByte(e.getRole().ordinal());
+						dos.writeUTF(e.getConceptId());
+					}
+				}
+			}
+			// another thread / process may have created the same entry - either copy is fine
+			if (!temp.renameTo(entry) && !entry.isFile())
+			{
+				throw new IOException("Could not create cache entry " + entry.getAbsolutePath());
+			}
+		}
+		finally
+		{
+			temp.delete();
+		}
+	}
+
+	static String key(File legoFile) throws IOException, NoSuchAlgorithmException
+	{
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		md.update(ByteBuffer.allocate(12).putInt(FORMAT_VERSION).putInt(SIMClassifier.CONVERTER_VERSION).putInt(AxiomCodec.FORMAT_VERSION)
+				.array());
+		md.update(SIM_CONVERSION);
+		byte[] buffer = new byte[1 << 16];
+		try (InputStream is = new FileInputStream(legoFile))
+		{
+			int read;
+			while ((read = is.read(buffer)) != -1)
+			{
+				md.update(buffer, 0, read);
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest())
+		{
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * A digest of the lego-editor schema to SIM conversion - its implementation version (if the jar has one) and its class file.
+	 */
+	private static byte[] simConversionDigest()
+	{
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			String version = SchemaToSimConversions.class.getPackage() == null ? null : SchemaToSimConversions.class.getPackage()
+					.getImplementationVersion();
+			md.update(String.valueOf(version).getBytes(StandardCharsets.UTF_8));
+			try (InputStream is = SchemaToSimConversions.class.getResourceAsStream(SchemaToSimConversions.class.getSimpleName() + ".class"))
+			{
+				if (is == null)
+				{
+					logger.warn("Could not read the SchemaToSimConversions class file - cache entries only track its version " + version);
+				}
+				else
+				{
+					byte[] buffer = new byte[1 << 16];
+					int read;
+					while ((read = is.read(buffer)) != -1)
+					{
+						md.update(buffer, 0, read);
+					}
+				}
+			}
+			return md.digest();
+		}
+		catch (NoSuchAlgorithmException | IOException e)
+		{
+			throw new RuntimeException("Could not identify the lego-editor conversion", e);
+		}
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * Entries that could not be read, and were rebuilt.  These are also counted as misses.
+	 */
+	public long getCorrupt()
+	{
+		return corrupt.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		long total = getHits() + getMisses();
+		return "AxiomCache " + cacheDir.getAbsolutePath() + " - " + getHits() + " hits, " + getMisses() + " misses, " + getCorrupt() + " corrupt"
+				+ (total > 0 ? " (" + (getHits() * 100 / total) + "% hit rate)" : "");
+	}
+}
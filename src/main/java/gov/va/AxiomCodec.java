@@ -0,0 +1,537 @@
+package gov.va;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.axioms.IConceptInclusion;
+import au.csiro.ontology.axioms.IRoleInclusion;
+import au.csiro.ontology.model.BooleanLiteral;
+import au.csiro.ontology.model.DoubleLiteral;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.ontology.model.IConjunction;
+import au.csiro.ontology.model.IDatatype;
+import au.csiro.ontology.model.IExistential;
+import au.csiro.ontology.model.ILiteral;
+import au.csiro.ontology.model.INamedConcept;
+import au.csiro.ontology.model.INamedFeature;
+import au.csiro.ontology.model.INamedRole;
+import au.csiro.ontology.model.IRole;
+import au.csiro.ontology.model.LongLiteral;
+import au.csiro.ontology.model.Operator;
+import au.csiro.ontology.model.StringLiteral;
+
+/**
+ * A compact binary encoding for the axioms produced by {@link SIMClassifier} and {@link LegoClassifier} - concept inclusions built
+ * from named concepts, conjunctions, existentials and datatypes (with boolean, double, long and string literals).  Role inclusions
+ * between named roles are also supported, so a base ontology can be dumped in this form.
+ *
+ * The identifiers are written once, up front, in a table - identifiers that are UUIDs take 16 bytes rather than 36 characters.
+ * The axioms then refer to identifiers by their (variable length) index in the table.
+ *
+ * Any other kind of axiom or concept causes an IOException.
+ */
+public class AxiomCodec
+{
+	/** Bump whenever the encoding changes */
+	public static final int FORMAT_VERSION = 1;
+
+	private static final byte ID_UUID = 0;
+	private static final byte ID_STRING = 1;
+
+	private static final byte CONCEPT_INCLUSION = 1;
+	private static final byte ROLE_INCLUSION = 2;
+
+	private static final byte NAMED = 1;
+	private static final byte CONJUNCTION = 2;
+	private static final byte EXISTENTIAL = 3;
+	private static final byte DATATYPE = 4;
+
+	private static final byte LITERAL_BOOLEAN = 1;
+	private static final byte LITERAL_DOUBLE = 2;
+	private static final byte LITERAL_LONG = 3;
+	private static final byte LITERAL_STRING = 4;
+
+	private static final Operator[] operators = Operator.values();
+	//Deeper nesting than any converter produces - a corrupt input must not overflow the stack
+	private static final int MAX_DEPTH = 1000;
+
+	public static void write(Collection<IAxiom> axioms, DataOutput out) throws IOException
+	{
+		// first pass - collect the identifiers
+		Map<String, Integer> ids = new HashMap<>();
+		List<String> idTable = new ArrayList<>();
+		for (IAxiom axiom : axioms)
+		{
+			if (axiom instanceof IRoleInclusion)
+			{
+				IRoleInclusion ri = (IRoleInclusion) axiom;
+				for (IRole r : ri.lhs())
+				{
+					collectId(roleId(r), ids, idTable);
+				}
+				collectId(roleId(ri.rhs()), ids, idTable);
+			}
+			else
+			{
+				IConceptInclusion ci = asConceptInclusion(axiom);
+				collectIds(ci.lhs(), ids, idTable);
+				collectIds(ci.rhs(), ids, idTable);
+			}
+		}
+
+		writeVarInt(out, idTable.size());
+		for (String id : idTable)
+		{
+			UUID uuid = parseUUID(id);
+			if (uuid != null)
+			{
+				out.writeByte(ID_UUID);
+				out.writeLong(uuid.getMostSignificantBits());
+				out.writeLong(uuid.getLeastSignificantBits());
+			}
+			else
+			{
+				out.writeByte(ID_STRING);
+				out.writeUTF(id);
+			}
+		}
+
+		writeVarInt(out, axioms.size());
+		for (IAxiom axiom : axioms)
+		{
+			if (axiom instanceof IRoleInclusion)
+			{
+				IRoleInclusion ri = (IRoleInclusion) axiom;
+				out.writeByte(ROLE_INCLUSION);
+				writeVarInt(out, ri.lhs().length);
+				for (IRole r : ri.lhs())
+				{
+					writeVarInt(out, ids.get(roleId(r)));
+				}
+				writeVarInt(out, ids.get(roleId(ri.rhs())));
+			}
+			else
+			{
+				IConceptInclusion ci = asConceptInclusion(axiom);
+				out.writeByte(CONCEPT_INCLUSION);
+				writeConcept(ci.lhs(), ids, out);
+				writeConcept(ci.rhs(), ids, out);
+			}
+		}
+	}
+
+	/**
+	 * Read axioms written by {@link #write(Collection, DataOutput)}.  Corrupt input (an index, type or count out of range) throws an
+	 * IOException, never a runtime exception.
+	 */
+	public static List<IAxiom> read(DataInput in, InterningFactory f) throws IOException
+	{
+		int idCount = readCount(in);
+		// grown as ids are read - a corrupt count can't allocate more than the input holds
+		List<String> ids = new ArrayList<>(Math.min(idCount, 1024));
+		for (int i = 0; i < idCount; i++)
+		{
+			byte type = in.readByte();
+			if (type == ID_UUID)
+			{
+				ids.add(new UUID(in.readLong(), in.readLong()).toString());
+			}
+			else if (type == ID_STRING)
+			{
+				ids.add(in.readUTF());
+			}
+			else
+			{
+				throw new IOException("Unexpected identifier type " + type);
+			}
+		}
+		String[] idTable = ids.toArray(new String[ids.size()]);
+
+		int axiomCount = readCount(in);
+		List<IAxiom> axioms = new ArrayList<>(Math.min(axiomCount, 1024));
+		for (int i = 0; i < axiomCount; i++)
+		{
+			byte type = in.readByte();
+			if (type == CONCEPT_INCLUSION)
+			{
+				IConcept lhs = readConcept(in, idTable, f, 0);
+				IConcept rhs = readConcept(in, idTable, f, 0);
+				axioms.add(f.createConceptInclusion(lhs, rhs));
+			}
+			else if (type == ROLE_INCLUSION)
+			{
+				int count = readCount(in);
+				List<IRole> lhs = new ArrayList<>(Math.min(count, 16));
+				for (int j = 0; j < count; j++)
+				{
+					lhs.add(f.createRole(readId(in, idTable)));
+				}
+				axioms.add(f.createRoleInclusion(lhs.toArray(new IRole[lhs.size()]), f.createRole(readId(in, idTable))));
+			}
+			else
+			{
+				throw new IOException("Unexpected axiom type " + type);
+			}
+		}
+		return axioms;
+	}
+
+	/**
+	 * A SHA-256 digest of the structure of the concept, which ignores the order of conjuncts (the reasoner treats a conjunction as a
+	 * set, but the converters don't always build them in the same order).  Equal digests mean equal definitions.
+	 */
+	public static byte[] fingerprint(IConcept c) throws IOException
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(canonicalForm(c));
+			return digest.digest();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	private static byte[] canonicalForm(IConcept c) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(baos);
+		if (c instanceof INamedConcept)
+		{
+			out.writeByte(NAMED);
+			out.writeUTF(id(((INamedConcept<?>) c).getId()));
+		}
+		else if (c instanceof IConjunction)
+		{
+			IConcept[] children = ((IConjunction) c).getConcepts();
+			byte[][] forms = new byte[children.length][];
+			for (int i = 0; i < children.length; i++)
+			{
+				forms[i] = canonicalForm(children[i]);
+			}
+			Arrays.sort(forms, UNSIGNED_BYTES);
+			out.writeByte(CONJUNCTION);
+			writeVarInt(out, forms.length);
+			for (byte[] form : forms)
+			{
+				writeVarInt(out, form.length);
+				out.write(form);
+			}
+		}
+		else if (c instanceof IExistential)
+		{
+			IExistential<?> e = (IExistential<?>) c;
+			out.writeByte(EXISTENTIAL);
+			out.writeUTF(roleId(e.getRole()));
+			out.write(canonicalForm(e.getConcept()));
+		}
+		else if (c instanceof IDatatype)
+		{
+			IDatatype<?> d = (IDatatype<?>) c;
+			out.writeByte(DATATYPE);
+			out.writeUTF(id(((INamedFeature<?>) d.getFeature()).getId()));
+			out.writeByte(d.getOperator().ordinal());
+			writeLiteral(d.getLiteral(), out);
+		}
+		else
+		{
+			throw new IOException("Unsupported concept type " + c.getClass().getName());
+		}
+		out.flush();
+		return baos.toByteArray();
+	}
+
+	static final Comparator<byte[]> UNSIGNED_BYTES = new Comparator<byte[]>()
+	{
+		@Override
+		public int compare(byte[] a, byte[] b)
+		{
+			for (int i = 0; i < Math.min(a.length, b.length); i++)
+			{
+				int c = (a[i] & 0xff) - (b[i] & 0xff);
+				if (c != 0)
+				{
+					return c;
+				}
+			}
+			return a.length - b.length;
+		}
+	};
+
+	private static IConceptInclusion asConceptInclusion(IAxiom axiom) throws IOException
+	{
+		if (axiom instanceof IConceptInclusion)
+		{
+			return (IConceptInclusion) axiom;
+		}
+		throw new IOException("Unsupported axiom type " + axiom.getClass().getName());
+	}
+
+	private static void collectId(String id, Map<String, Integer> ids, List<String> idTable)
+	{
+		if (!ids.containsKey(id))
+		{
+			ids.put(id, idTable.size());
+			idTable.add(id);
+		}
+	}
+
+	private static void collectIds(IConcept c, Map<String, Integer> ids, List<String> idTable) throws IOException
+	{
+		if (c instanceof INamedConcept)
+		{
+			collectId(id(((INamedConcept<?>) c).getId()), ids, idTable);
+		}
+		else if (c instanceof IConjunction)
+		{
+			for (IConcept child : ((IConjunction) c).getConcepts())
+			{
+				collectIds(child, ids, idTable);
+			}
+		}
+		else if (c instanceof IExistential)
+		{
+			IExistential<?> e = (IExistential<?>) c;
+			collectId(roleId(e.getRole()), ids, idTable);
+			collectIds(e.getConcept(), ids, idTable);
+		}
+		else if (c instanceof IDatatype)
+		{
+			IDatatype<?> d = (IDatatype<?>) c;
+			collectId(id(((INamedFeature<?>) d.getFeature()).getId()), ids, idTable);
+		}
+		else
+		{
+			throw new IOException("Unsupported concept type " + c.getClass().getName());
+		}
+	}
+
+	private static void writeConcept(IConcept c, Map<String, Integer> ids, DataOutput out) throws IOException
+	{
+		if (c instanceof INamedConcept)
+		{
+			out.writeByte(NAMED);
+			writeVarInt(out, ids.get(id(((INamedConcept<?>) c).getId())));
+		}
+		else if (c instanceof IConjunction)
+		{
+			IConcept[] children = ((IConjunction) c).getConcepts();
+			out.writeByte(CONJUNCTION);
+			writeVarInt(out, children.length);
+			for (IConcept child : children)
+			{
+				writeConcept(child, ids, out);
+			}
+		}
+		else if (c instanceof IExistential)
+		{
+			IExistential<?> e = (IExistential<?>) c;
+			out.writeByte(EXISTENTIAL);
+			writeVarInt(out, ids.get(roleId(e.getRole())));
+			writeConcept(e.getConcept(), ids, out);
+		}
+		else if (c instanceof IDatatype)
+		{
+			IDatatype<?> d = (IDatatype<?>) c;
+			out.writeByte(DATATYPE);
+			writeVarInt(out, ids.get(id(((INamedFeature<?>) d.getFeature()).getId())));
+			out.writeByte(d.getOperator().ordinal());
+			writeLiteral(d.getLiteral(), out);
+		}
+		else
+		{
+			throw new IOException("Unsupported concept type " + c.getClass().getName());
+		}
+	}
+
+	private static IConcept readConcept(DataInput in, String[] idTable, InterningFactory f, int depth) throws IOException
+	{
+		if (depth > MAX_DEPTH)
+		{
+			throw new IOException("Concept nested deeper than " + MAX_DEPTH);
+		}
+		byte type = in.readByte();
+		switch (type)
+		{
+			case NAMED:
+				return f.createConcept(readId(in, idTable));
+			case CONJUNCTION:
+			{
+				int count = readCount(in);
+				List<IConcept> children = new ArrayList<>(Math.min(count, 16));
+				for (int i = 0; i < count; i++)
+				{
+					children.add(readConcept(in, idTable, f, depth + 1));
+				}
+				return f.createConjunction(children.toArray(new IConcept[children.size()]));
+			}
+			case EXISTENTIAL:
+			{
+				INamedRole<String> role = f.createRole(readId(in, idTable));
+				return f.createExistential(role, readConcept(in, idTable, f, depth + 1));
+			}
+			case DATATYPE:
+			{
+				INamedFeature<String> feature = f.createFeature(readId(in, idTable));
+				int operator = in.readUnsignedByte();
+				if (operator >= operators.length)
+				{
+					throw new IOException("Unexpected operator " + operator);
+				}
+				return f.createDatatype(feature, operators[operator], readLiteral(in, f));
+			}
+			default:
+				throw new IOException("Unexpected concept type " + type);
+		}
+	}
+
+	private static void writeLiteral(ILiteral l, DataOutput out) throws IOException
+	{
+		if (l instanceof BooleanLiteral)
+		{
+			out.writeByte(LITERAL_BOOLEAN);
+			out.writeBoolean(((BooleanLiteral) l).getValue());
+		}
+		else if (l instanceof DoubleLiteral)
+		{
+			out.writeByte(LITERAL_DOUBLE);
+			out.writeDouble(((DoubleLiteral) l).getValue());
+		}
+		else if (l instanceof LongLiteral)
+		{
+			out.writeByte(LITERAL_LONG);
+			out.writeLong(((LongLiteral) l).getValue());
+		}
+		else if (l instanceof StringLiteral)
+		{
+			out.writeByte(LITERAL_STRING);
+			out.writeUTF(((StringLiteral) l).getValue());
+		}
+		else
+		{
+			throw new IOException("Unsupported literal type " + l.getClass().getName());
+		}
+	}
+
+	private static ILiteral readLiteral(DataInput in, InterningFactory f) throws IOException
+	{
+		byte type = in.readByte();
+		switch (type)
+		{
+			case LITERAL_BOOLEAN:
+				return f.createBooleanLiteral(in.readBoolean());
+			case LITERAL_DOUBLE:
+				return f.createDoubleLiteral(in.readDouble());
+			case LITERAL_LONG:
+				return f.createLongLiteral(in.readLong());
+			case LITERAL_STRING:
+				return f.createStringLiteral(in.readUTF());
+			default:
+				throw new IOException("Unexpected literal type " + type);
+		}
+	}
+
+	private static String roleId(IRole role) throws IOException
+	{
+		if (role instanceof INamedRole)
+		{
+			return id(((INamedRole<?>) role).getId());
+		}
+		throw new IOException("Unsupported role type " + role.getClass().getName());
+	}
+
+	private static String id(Object id) throws IOException
+	{
+		if (id instanceof String)
+		{
+			return (String) id;
+		}
+		throw new IOException("Only String identifiers are supported");
+	}
+
+	/**
+	 * Returns the UUID, if the id is a UUID in its canonical (lower case) string form, otherwise, null.
+	 */
+	static UUID parseUUID(String id)
+	{
+		if (id.length() != 36 || id.charAt(8) != '-' || id.charAt(13) != '-' || id.charAt(18) != '-' || id.charAt(23) != '-')
+		{
+			return null;
+		}
+		try
+		{
+			UUID uuid = UUID.fromString(id);
+			return uuid.toString().equals(id) ? uuid : null;
+		}
+		catch (IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * An index into the id table, checked against its size
+	 */
+	private static String readId(DataInput in, String[] idTable) throws IOException
+	{
+		int index = readVarInt(in);
+		if (index < 0 || index >= idTable.length)
+		{
+			throw new IOException("Identifier index " + index + " out of range (" + idTable.length + " identifiers)");
+		}
+		return idTable[index];
+	}
+
+	/**
+	 * A count of things to follow, which a corrupt input could make negative
+	 */
+	private static int readCount(DataInput in) throws IOException
+	{
+		int count = readVarInt(in);
+		if (count < 0)
+		{
+			throw new IOException("Negative count " + count);
+		}
+		return count;
+	}
+
+	static void writeVarInt(DataOutput out, int value) throws IOException
+	{
+		while ((value & ~0x7F) != 0)
+		{
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	static int readVarInt(DataInput in) throws IOException
+	{
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7)
+		{
+			byte b = in.readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+			{
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable length int");
+	}
+}
@@ -0,0 +1,444 @@
+package gov.va;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.csiro.ontology.axioms.IAxiom;
+
+/**
+ * An append only log of the batches of axioms classified by {@link SIMClassifier#classifyAxioms()}, so a crashed process can be
+ * recovered (see {@link #recover(File, File, AxiomLog, int)}) by replaying the logged axioms onto the last checkpoint (or the base
+ * state) - with no XML parsing or SIM conversion.
+ *
+ * Classified then logged: a batch is appended only after the reasoner has classified it, so every record is a batch that classified,
+ * and replay never repeats a failed one.  A crash between the classification and the append loses that batch - its caller never saw
+ * classifyAxioms return, so it has to be submitted again.
+ *
+ * The log is a folder of segment files, wal-&lt;first sequence&gt;.log, each a header followed by records of
+ * <pre>
+ *   length (int), crc32 of the rest (int), sequence (long), batch of axioms in the {@link AxiomCodec} form
+ * </pre>
+ * A record that is cut short, or fails its CRC, marks the end of the log - it can only be the tail of a write that crashed - and is
+ * truncated away when the log is opened.
+ *
+ * Segments entirely covered by a checkpoint are deleted by {@link #compact(long)} - {@link ClassifierCheckpoint} does this after each
+ * checkpoint.
+ *
+ * Thread safe.
+ */
+public class AxiomLog implements Closeable
+{
+	static Logger logger = LoggerFactory.getLogger(AxiomLog.class);
+
+	private static final int MAGIC = 0x4C43574C; // "LCWL"
+	private static final int FORMAT_VERSION = 1;
+	private static final int SEGMENT_HEADER = 4 + 4 + 4;
+	private static final int RECORD_HEADER = 4 + 4 + 8;
+	private static final String PREFIX = "wal-";
+	private static final String SUFFIX = ".log";
+
+	/**
+	 * When appended records are forced to disk.
+	 */
+	public enum FsyncPolicy
+	{
+		/** after every record - nothing acknowledged is ever lost */
+		ALWAYS,
+		/** once syncEvery records, or syncIntervalMillis, have passed since the last sync - a crash can lose the records since then */
+		BATCH,
+		/** never - the OS writes the records back when it chooses */
+		NEVER
+	}
+
+	private final File dir;
+	private final FsyncPolicy policy;
+	private final int syncEvery;
+	private final long syncIntervalMillis;
+	private final long maxSegmentBytes;
+
+	private long lastSequence;
+	private RandomAccessFile segment;
+	private int unsynced = 0;
+	private long lastSync = System.currentTimeMillis();
+
+	/**
+	 * Open (or create) the log in the folder.
+	 *
+	 * @param syncEvery - for {@link FsyncPolicy#BATCH}, the number of records between syncs
+	 * @param syncIntervalMillis - for {@link FsyncPolicy#BATCH}, the longest time between syncs
+	 * @param maxSegmentBytes - a new segment is started once the current one is larger than this
+	 */
+	public AxiomLog(File dir, FsyncPolicy policy, int syncEvery, long syncIntervalMillis, long maxSegmentBytes) throws IOException
+	{
+		this.dir = dir;
+		this.policy = policy;
+		this.syncEvery = Math.max(1, syncEvery);
+		this.syncIntervalMillis = syncIntervalMillis;
+		this.maxSegmentBytes = maxSegmentBytes;
+		dir.mkdirs();
+		open();
+	}
+
+	/**
+	 * A log with the BATCH policy (every 64 records or 1 second), and 64MB segments.
+	 */
+	public AxiomLog(File dir) throws IOException
+	{
+		this(dir, FsyncPolicy.BATCH, 64, 1000, 64L << 20);
+	}
+
+	/**
+	 * Find the last good record, and truncate anything after it.
+	 */
+	private void open() throws IOException
+	{
+		File[] segments = segments();
+		lastSequence = 0;
+		if (segments.length == 0)
+		{
+			return;
+		}
+		File last = segments[segments.length - 1];
+		lastSequence = firstSequence(last) - 1;
+		long goodLength = SEGMENT_HEADER;
+		try (RandomAccessFile raf = new RandomAccessFile(last, "rw"))
+		{
+			if (raf.length() >= SEGMENT_HEADER)
+			{
+				checkHeader(raf, last);
+				try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(last), 1 << 16)))
+				{
+					dis.skipBytes(SEGMENT_HEADER);
+					Record r;
+					while ((r = readRecord(dis, last)) != null)
+					{
+						lastSequence = r.sequence;
+						goodLength += RECORD_HEADER + r.payload.length;
+					}
+				}
+			}
+			if (raf.length() != goodLength)
+			{
+				logger.warn("Truncating " + (raf.length() - goodLength) + " bytes of incomplete record from " + last.getName());
+				if (raf.length() < SEGMENT_HEADER)
+				{
+					writeHeader(raf);
+				}
+				raf.setLength(goodLength);
+				raf.getFD().sync();
+			}
+		}
+		segment = new RandomAccessFile(last, "rw");
+		segment.seek(segment.length());
+	}
+
+	/**
+	 * Append a batch, and sync according to the policy.
+	 *
+	 * @return the sequence number of the batch
+	 */
+	public synchronized long append(Collection<IAxiom> axioms) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(64 + axioms.size() * 32);
+		DataOutputStream dos = new DataOutputStream(baos);
+		AxiomCodec.write(axioms, dos);
+		dos.flush();
+		byte[] payload = baos.toByteArray();
+
+		long sequence = lastSequence + 1;
+		if (segment == null || segment.length() > maxSegmentBytes)
+		{
+			roll(sequence);
+		}
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length);
+		record.putInt(payload.length);
+		record.putInt(crc(sequence, payload));
+		record.putLong(sequence);
+		record.put(payload);
+		record.flip();
+		FileChannel channel = segment.getChannel();
+		while (record.hasRemaining())
+		{
+			channel.write(record);
+		}
+		lastSequence = sequence;
+		unsynced++;
+
+		if (policy == FsyncPolicy.ALWAYS
+				|| (policy == FsyncPolicy.BATCH && (unsynced >= syncEvery || System.currentTimeMillis() - lastSync >= syncIntervalMillis)))
+		{
+			sync();
+		}
+		return sequence;
+	}
+
+	/**
+	 * Force everything appended so far to disk, whatever the policy.
+	 */
+	public synchronized void sync() throws IOException
+	{
+		if (segment != null && unsynced > 0)
+		{
+			segment.getChannel().force(false);
+		}
+		unsynced = 0;
+		lastSync = System.currentTimeMillis();
+	}
+
+	private void roll(long firstSequence) throws IOException
+	{
+		if (segment != null)
+		{
+			sync();
+			segment.close();
+		}
+		File f = new File(dir, name(firstSequence));
+		segment = new RandomAccessFile(f, "rw");
+		segment.setLength(0);
+		writeHeader(segment);
+		segment.getFD().sync();
+		logger.debug("Started log segment " + f.getName());
+	}
+
+	/**
+	 * The sequence number of the last batch appended (0 if none ever was)
+	 */
+	public synchronized long getLastSequence()
+	{
+		return lastSequence;
+	}
+
+	/**
+	 * Delete the segments that only hold batches up to (and including) the sequence number - which are covered by a checkpoint.
+	 */
+	public synchronized void compact(long checkpointSequence) throws IOException
+	{
+		if (segment != null && lastSequence <= checkpointSequence)
+		{
+			// the current segment is covered too - start an empty one, which also carries the sequence number forward
+			roll(lastSequence + 1);
+		}
+		File[] segments = segments();
+		for (int i = 0; i + 1 < segments.length; i++)
+		{
+			// everything in segment i comes before the first record of segment i + 1
+			if (firstSequence(segments[i + 1]) - 1 <= checkpointSequence)
+			{
+				if (segments[i].delete())
+				{
+					logger.debug("Deleted log segment " + segments[i].getName());
+				}
+				else
+				{
+					logger.warn("Could not delete log segment " + segments[i].getAbsolutePath());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Replay every batch after the sequence number into the classifier, merging batches until at least batchAxioms axioms are pending
+	 * before each classification.  The classifier must not have this log set (or the replayed batches would be logged again).
+	 *
+	 * @return the number of batches replayed
+	 */
+	public synchronized long replay(long afterSequence, SIMClassifier classifier, int batchAxioms) throws IOException
+	{
+		if (classifier.getAxiomLog() == this)
+		{
+			throw new IllegalArgumentException("Replaying into a classifier that logs to this log");
+		}
+		sync();
+		long replayed = 0;
+		long start = System.currentTimeMillis();
+		for (File f : segments())
+		{
+			try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 20)))
+			{
+				checkHeader(dis, f);
+				Record r;
+				while ((r = readRecord(dis, f)) != null)
+				{
+					if (r.sequence <= afterSequence)
+					{
+						continue;
+					}
+					classifier.getUnclassifiedAxioms().addAll(AxiomCodec.read(new DataInputStream(new ByteArrayInputStream(r.payload)),
+							classifier.getFactory()));
+					replayed++;
+					if (classifier.getUnclassifiedAxioms().size() >= batchAxioms)
+					{
+						classifier.classifyAxioms();
+					}
+				}
+			}
+		}
+		if (!classifier.getUnclassifiedAxioms().isEmpty())
+		{
+			classifier.classifyAxioms();
+		}
+		logger.info("Replayed " + replayed + " logged batches in " + (System.currentTimeMillis() - start) + "ms");
+		return replayed;
+	}
+
+	/**
+	 * Recover a classifier after a crash - resume from the newest checkpoint in the checkpoint folder (or load the base snapshot, if
+	 * there is none), replay the batches logged after it, and set the log on the classifier, so new batches are logged.
+	 */
+	public static SIMClassifier recover(File checkpointDir, File baseSnapshot, AxiomLog log, int batchAxioms) throws IOException
+	{
+		SIMClassifier classifier = ClassifierCheckpoint.resume(checkpointDir);
+		long after = 0;
+		if (classifier == null)
+		{
+			classifier = new SIMClassifier(ReasonerSnapshot.load(baseSnapshot));
+			// so the replayed definitions can be checkpointed
+			classifier.setSubmissionRegistry(new SubmissionRegistry());
+		}
+		else
+		{
+			Properties manifest = ClassifierCheckpoint.readManifest(ClassifierCheckpoint.latest(checkpointDir));
+			after = Long.parseLong(manifest.getProperty("logSequence", "0"));
+		}
+		log.replay(after, classifier, batchAxioms);
+		classifier.setAxiomLog(log);
+		return classifier;
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (segment != null)
+		{
+			sync();
+			segment.close();
+			segment = null;
+		}
+	}
+
+	private static class Record
+	{
+		final long sequence;
+		final byte[] payload;
+
+		Record(long sequence, byte[] payload)
+		{
+			this.sequence = sequence;
+			this.payload = payload;
+		}
+	}
+
+	/**
+	 * The next record, or null at the end of the segment, or at an incomplete or corrupt record.
+	 */
+	private static Record readRecord(DataInputStream dis, File f) throws IOException
+	{
+		try
+		{
+			int length = dis.readInt();
+			int crc = dis.readInt();
+			long sequence = dis.readLong();
+			if (length < 0 || length > (1 << 30))
+			{
+				logger.warn("Bad record length in " + f.getName());
+				return null;
+			}
+			byte[] payload = new byte[length];
+			dis.readFully(payload);
+			if (crc(sequence, payload) != crc)
+			{
+				logger.warn("Bad record checksum in " + f.getName() + " at sequence " + sequence);
+				return null;
+			}
+			return new Record(sequence, payload);
+		}
+		catch (EOFException e)
+		{
+			return null;
+		}
+	}
+
+	private static int crc(long sequence, byte[] payload)
+	{
+		CRC32 crc = new CRC32();
+		for (int shift = 56; shift >= 0; shift -= 8)
+		{
+			crc.update((int) (sequence >>> shift) & 0xff);
+		}
+		crc.update(payload);
+		return (int) crc.getValue();
+	}
+
+	private static void writeHeader(RandomAccessFile raf) throws IOException
+	{
+		raf.seek(0);
+		raf.writeInt(MAGIC);
+		raf.writeInt(FORMAT_VERSION);
+		raf.writeInt(AxiomCodec.FORMAT_VERSION);
+	}
+
+	private static void checkHeader(DataInput in, File f) throws IOException
+	{
+		if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+		{
+			throw new IOException("Not an axiom log segment: " + f.getAbsolutePath());
+		}
+		int codecVersion = in.readInt();
+		if (codecVersion != AxiomCodec.FORMAT_VERSION)
+		{
+			throw new IOException("Unsupported axiom encoding version " + codecVersion + " in " + f.getAbsolutePath());
+		}
+	}
+
+	private static String name(long firstSequence)
+	{
+		return PREFIX + String.format("%020d", firstSequence) + SUFFIX;
+	}
+
+	private static long firstSequence(File segment)
+	{
+		String name = segment.getName();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+
+	/**
+	 * The segment files, oldest first (the zero padded names sort by sequence)
+	 */
+	private File[] segments()
+	{
+		List<File> result = new ArrayList<>();
+		File[] files = dir.listFiles();
+		if (files != null)
+		{
+			for (File f : files)
+			{
+				if (f.isFile() && f.getName().startsWith(PREFIX) && f.getName().endsWith(SUFFIX))
+				{
+					result.add(f);
+				}
+			}
+		}
+		File[] sorted = result.toArray(new File[result.size()]);
+		Arrays.sort(sorted);
+		return sorted;
+	}
+}
@@ -0,0 +1,253 @@
+package gov.va;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import au.csiro.ontology.Node;
+
+/**
+ * The classification of one concept - its equivalent concepts, and the equivalent concepts of each of its direct parents and
+ * children.  A concept the reasoner has no node for is "not found", with no equivalents, parents or children.
+ *
+ * Immutable - a copy of the node at the time it was read, so it can be kept, or handed to another thread, while classification
+ * continues.  See {@link ClassificationResults} for paging through, and exporting, many of them.
+ */
+public class ClassificationResult
+{
+	private final String id;
+	private final boolean found;
+	private final Set<String> equivalents;
+	private final List<Set<String>> parents;
+	private final List<Set<String>> children;
+
+	public ClassificationResult(String id, boolean found, Set<String> equivalents, List<Set<String>> parents, List<Set<String>> children)
+	{
+		this.id = id;
+		this.found = found;
+		this.equivalents = Collections.unmodifiableSet(equivalents);
+		this.parents = Collections.unmodifiableList(parents);
+		this.children = Collections.unmodifiableList(children);
+	}
+
+	/**
+	 * The result for a concept from its node in the classified ontology - which may be null, if it has none.
+	 */
+	public static ClassificationResult of(String id, Node<String> node)
+	{
+		if (node == null)
+		{
+			return notFound(id);
+		}
+		return new ClassificationResult(id, true, new LinkedHashSet<>(node.getEquivalentConcepts()), equivalentsOf(node.getParents()),
+				equivalentsOf(node.getChildren()));
+	}
+
+	public static ClassificationResult notFound(String id)
+	{
+		return new ClassificationResult(id, false, Collections.<String> emptySet(), Collections.<Set<String>> emptyList(),
+				Collections.<Set<String>> emptyList());
+	}
+
+	private static List<Set<String>> equivalentsOf(Collection<Node<String>> nodes)
+	{
+		List<Set<String>> result = new ArrayList<>(nodes.size());
+		for (Node<String> n : nodes)
+		{
+			result.add(Collections.unmodifiableSet(new LinkedHashSet<>(n.getEquivalentConcepts())));
+		}
+		return result;
+	}
+
+	/**
+	 * The id of the concept the result is for
+	 */
+	public String getId()
+	{
+		return id;
+	}
+
+	/**
+	 * Does the reasoner have a node for the concept?
+	 */
+	public boolean isFound()
+	{
+		return found;
+	}
+
+	public Set<String> getEquivalents()
+	{
+		return equivalents;
+	}
+
+	/**
+	 * The equivalent concepts of each direct parent
+	 */
+	public List<Set<String>> getParents()
+	{
+		return parents;
+	}
+
+	/**
+	 * The equivalent concepts of each direct child
+	 */
+	public List<Set<String>> getChildren()
+	{
+		return children;
+	}
+
+	/**
+	 * Append the result as a JSON object:
+	 * <pre>
+	 *   {"id":"...","found":true,"equivalents":["..."],"parents":[["..."]],"children":[["..."]]}
+	 * </pre>
+	 * or, for a concept that isn't found, {"id":"...","found":false}.
+	 */
+	public StringBuilder appendJson(StringBuilder sb)
+	{
+		sb.append("{\"id\":");
+		appendJsonString(sb, id);
+		if (!found)
+		{
+			return sb.append(",\"found\":false}");
+		}
+		sb.append(",\"found\":true,\"equivalents\":");
+		appendJsonIds(sb, equivalents);
+		sb.append(",\"parents\":");
+		appendJsonNodes(sb, parents);
+		sb.append(",\"children\":");
+		appendJsonNodes(sb, children);
+		return sb.append('}');
+	}
+
+	private static void appendJsonNodes(StringBuilder sb, List<Set<String>> nodes)
+	{
+		sb.append('[');
+		for (int i = 0; i < nodes.size(); i++)
+		{
+			if (i > 0)
+			{
+				sb.append(',');
+			}
+			appendJsonIds(sb, nodes.get(i));
+		}
+		sb.append(']');
+	}
+
+	private static void appendJsonIds(StringBuilder sb, Collection<String> ids)
+	{
+		sb.append('[');
+		boolean first = true;
+		for (String id : ids)
+		{
+			if (!first)
+			{
+				sb.append(',');
+			}
+			first = false;
+			appendJsonString(sb, id);
+		}
+		sb.append(']');
+	}
+
+	static void appendJsonString(StringBuilder sb, String s)
+	{
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+			{
+				sb.append('\\').append(c);
+			}
+			else if (c < 0x20)
+			{
+				sb.append(String.format("\\u%04x", (int) c));
+			}
+			else
+			{
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	/**
+	 * Write the result in the binary form read by {@link #readBinary(DataInput)} - a found flag, the id, and then (if found) the
+	 * equivalents, parents and children, each set as a count followed by its ids.
+	 */
+	public void writeBinary(DataOutput out) throws IOException
+	{
+		out.writeBoolean(found);
+		out.writeUTF(id);
+		if (found)
+		{
+			writeIds(out, equivalents);
+			writeNodes(out, parents);
+			writeNodes(out, children);
+		}
+	}
+
+	private static void writeNodes(DataOutput out, List<Set<String>> nodes) throws IOException
+	{
+		out.writeInt(nodes.size());
+		for (Set<String> n : nodes)
+		{
+			writeIds(out, n);
+		}
+	}
+
+	private static void writeIds(DataOutput out, Set<String> ids) throws IOException
+	{
+		out.writeInt(ids.size());
+		for (String id : ids)
+		{
+			out.writeUTF(id);
+		}
+	}
+
+	public static ClassificationResult readBinary(DataInput in) throws IOException
+	{
+		boolean found = in.readBoolean();
+		String id = in.readUTF();
+		if (!found)
+		{
+			return notFound(id);
+		}
+		Set<String> equivalents = readIds(in);
+		return new ClassificationResult(id, true, equivalents, readNodes(in), readNodes(in));
+	}
+
+	private static List<Set<String>> readNodes(DataInput in) throws IOException
+	{
+		int count = in.readInt();
+		List<Set<String>> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			result.add(Collections.unmodifiableSet(readIds(in)));
+		}
+		return result;
+	}
+
+	private static Set<String> readIds(DataInput in) throws IOException
+	{
+		int count = in.readInt();
+		Set<String> result = new LinkedHashSet<>(count * 2);
+		for (int i = 0; i < count; i++)
+		{
+			result.add(in.readUTF());
+		}
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		return appendJson(new StringBuilder()).toString();
+	}
+}
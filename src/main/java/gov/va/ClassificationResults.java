@@ -0,0 +1,212 @@
+package gov.va;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import au.csiro.ontology.IOntology;
+
+/**
+ * The classification results for a list of concepts, read lazily from the classified ontology - each {@link ClassificationResult} is
+ * built when it is asked for (by index, by page, or while iterating or exporting), so a large batch never needs to be in memory at
+ * once.
+ *
+ * The list of ids is fixed when this is created, but the results are read from the live ontology - don't classify while reading them
+ * (for a shared {@link SIMClassifier}, hold its monitor).
+ *
+ * Exports:
+ * <ul>
+ * <li>{@link #writeJsonLines(OutputStream)} - one JSON object per line, as {@link ClassificationResult#appendJson(StringBuilder)}</li>
+ * <li>{@link #writeBinary(OutputStream)} - a header (magic, version, count), followed by each result as
+ * {@link ClassificationResult#writeBinary(java.io.DataOutput)}.  Read it back with {@link BinaryReader}.</li>
+ * </ul>
+ */
+public class ClassificationResults implements Iterable<ClassificationResult>
+{
+	public static final int MAGIC = 0x4C434352; // "LCCR"
+	public static final int FORMAT_VERSION = 1;
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final IOntology<String> ontology;
+	private final String[] ids;
+
+	public ClassificationResults(IOntology<String> ontology, Collection<String> ids)
+	{
+		this.ontology = ontology;
+		this.ids = ids.toArray(new String[ids.size()]);
+	}
+
+	public int size()
+	{
+		return ids.length;
+	}
+
+	public ClassificationResult get(int index)
+	{
+		return ClassificationResult.of(ids[index], ontology.getNode(ids[index]));
+	}
+
+	/**
+	 * The results of one page (numbered from 0) - empty past the last page.
+	 */
+	public List<ClassificationResult> getPage(int page, int pageSize)
+	{
+		if (page < 0 || pageSize < 1)
+		{
+			throw new IllegalArgumentException("Bad page " + page + " of size " + pageSize);
+		}
+		long from = (long) page * pageSize;
+		if (from >= ids.length)
+		{
+			return Collections.emptyList();
+		}
+		int to = (int) Math.min(ids.length, from + pageSize);
+		List<ClassificationResult> result = new ArrayList<>(to - (int) from);
+		for (int i = (int) from; i < to; i++)
+		{
+			result.add(get(i));
+		}
+		return result;
+	}
+
+	public int getPageCount(int pageSize)
+	{
+		return (ids.length + pageSize - 1) / pageSize;
+	}
+
+	@Override
+	public Iterator<ClassificationResult> iterator()
+	{
+		return new Iterator<ClassificationResult>()
+		{
+			private int next = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				return next < ids.length;
+			}
+
+			@Override
+			public ClassificationResult next()
+			{
+				if (next >= ids.length)
+				{
+					throw new NoSuchElementException();
+				}
+				return get(next++);
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Write every result as a line of JSON, in UTF-8.  The stream is flushed, not closed.
+	 *
+	 * @return the number of results written
+	 */
+	public int writeJsonLines(OutputStream os) throws IOException
+	{
+		Writer out = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), BUFFER_SIZE);
+		// one builder for every line, so nothing per result outlives the line
+		StringBuilder sb = new StringBuilder(1024);
+		for (int i = 0; i < ids.length; i++)
+		{
+			sb.setLength(0);
+			get(i).appendJson(sb).append('\n');
+			out.append(sb);
+		}
+		out.flush();
+		return ids.length;
+	}
+
+	/**
+	 * Write every result in the binary form.  The stream is flushed, not closed.
+	 *
+	 * @return the number of results written
+	 */
+	public int writeBinary(OutputStream os) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(ids.length);
+		for (int i = 0; i < ids.length; i++)
+		{
+			get(i).writeBinary(out);
+		}
+		out.flush();
+		return ids.length;
+	}
+
+	/**
+	 * Reads the results written by {@link ClassificationResults#writeBinary(OutputStream)}, one at a time.
+	 */
+	public static class BinaryReader implements Closeable
+	{
+		private final DataInputStream in;
+		private final int count;
+		private int read = 0;
+
+		public BinaryReader(InputStream is) throws IOException
+		{
+			in = new DataInputStream(new BufferedInputStream(is, BUFFER_SIZE));
+			if (in.readInt() != MAGIC)
+			{
+				throw new IOException("Not a classification result file");
+			}
+			int version = in.readInt();
+			if (version != FORMAT_VERSION)
+			{
+				throw new IOException("Unsupported classification result version " + version);
+			}
+			count = in.readInt();
+		}
+
+		/**
+		 * The number of results in the file
+		 */
+		public int getCount()
+		{
+			return count;
+		}
+
+		/**
+		 * The next result, or null after the last one
+		 */
+		public ClassificationResult next() throws IOException
+		{
+			if (read >= count)
+			{
+				return null;
+			}
+			read++;
+			return ClassificationResult.readBinary(in);
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			in.close();
+		}
+	}
+}
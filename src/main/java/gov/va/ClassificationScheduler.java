@@ -0,0 +1,487 @@
+package gov.va;
+
+import gov.va.legoEdit.model.schemaModel.Lego;
+import gov.va.sim.act.AssertionBI;
+import gov.va.sim.lego.LegoBI;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.csiro.ontology.IOntology;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.axioms.IConceptInclusion;
+import au.csiro.ontology.classification.IReasoner;
+import au.csiro.ontology.model.INamedConcept;
+
+/**
+ * A micro-batching front end for {@link SIMClassifier#classifyAxioms()}.  Callers submit Legos (or assertions) continuously, from any
+ * number of threads; the scheduler coalesces them into batches, runs one incremental classification per batch, and completes the
+ * Future of every submission in the batch when it finishes.
+ *
+ * A batch is closed when it holds maxBatchSize submissions, or when the oldest submission in it has waited maxWaitMillis - whichever
+ * comes first.  Larger values give more throughput (fewer incremental passes), smaller values give lower latency.
+ *
+ * Conversion to axioms happens on the submitting thread (so conversion errors are thrown straight back to the caller, and conversion
+ * runs in parallel), into a private classifier that shares the interning factory of the target classifier.  Only the scheduler thread
+ * touches the target classifier, and it holds the classifier's monitor while it does.
+ */
+public class ClassificationScheduler implements Closeable
+{
+	static Logger logger = LoggerFactory.getLogger(ClassificationScheduler.class);
+
+	private final SIMClassifier classifier;
+	private final int maxBatchSize;
+	private final long maxWaitNanos;
+	private final LinkedBlockingQueue<Ticket> queue = new LinkedBlockingQueue<>();
+	private final Thread worker;
+	// held while submitting and closing, so nothing is queued once the worker may have seen closed
+	private final Object submitLock = new Object();
+	private volatile boolean closed = false;
+
+	private final Histogram batchSizes = new Histogram("batch size", "");
+	private final Histogram batchAxioms = new Histogram("batch axioms", "");
+	private final Histogram waitTimes = new Histogram("wait time", "ms");
+	private final Histogram classifyTimes = new Histogram("classify time", "ms");
+	private final AtomicLong batchIds = new AtomicLong();
+
+	/**
+	 * The result of one submission.
+	 */
+	public static class Result
+	{
+		private final long batchId;
+		private final int batchSize;
+		private final Map<String, Node<String>> nodes;
+
+		Result(long batchId, int batchSize, Map<String, Node<String>> nodes)
+		{
+			this.batchId = batchId;
+			this.batchSize = batchSize;
+			this.nodes = nodes;
+		}
+
+		/**
+		 * The batch this submission was classified in
+		 */
+		public long getBatchId()
+		{
+			return batchId;
+		}
+
+		/**
+		 * The number of submissions classified together in the batch
+		 */
+		public int getBatchSize()
+		{
+			return batchSize;
+		}
+
+		/**
+		 * The classified node for each concept the submission defined (the assertion components that were expressions) - parents,
+		 * children and equivalents can be read from the nodes.  A null value means the reasoner has no node for the concept.
+		 */
+		public Map<String, Node<String>> getNodes()
+		{
+			return nodes;
+		}
+	}
+
+	public ClassificationScheduler(SIMClassifier classifier, int maxBatchSize, long maxWaitMillis)
+	{
+		if (maxBatchSize < 1 || maxWaitMillis < 0)
+		{
+			throw new IllegalArgumentException("maxBatchSize must be positive, and maxWaitMillis not negative");
+		}
+		this.classifier = classifier;
+		this.maxBatchSize = maxBatchSize;
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+		worker = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				schedule();
+			}
+		}, "ClassificationScheduler");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Uses the system properties classificationScheduler.maxBatchSize and classificationScheduler.maxWaitMillis when set, otherwise
+	 * batches of up to 64 submissions, waiting at most 200ms.
+	 */
+	public ClassificationScheduler(SIMClassifier classifier)
+	{
+		this(classifier, Integer.getInteger("classificationScheduler.maxBatchSize", 64), Long.getLong("classificationScheduler.maxWaitMillis",
+				200));
+	}
+
+	public Future<Result> submit(LegoBI... legos) throws Exception
+	{
+		SIMClassifier converter = new SIMClassifier(null, classifier.getFactory());
+		converter.convertToAxioms(legos);
+		return submit(converter.getUnclassifiedAxioms());
+	}
+
+	public Future<Result> submit(AssertionBI... assertions) throws Exception
+	{
+		SIMClassifier converter = new SIMClassifier(null, classifier.getFactory());
+		converter.convertToAxioms(assertions);
+		return submit(converter.getUnclassifiedAxioms());
+	}
+
+	/**
+	 * Submit already converted axioms.
+	 */
+	public Future<Result> submit(Set<IAxiom> axioms)
+	{
+		Ticket t = new Ticket(axioms);
+		synchronized (submitLock)
+		{
+			if (closed)
+			{
+				throw new IllegalStateException("The scheduler is closed");
+			}
+			queue.add(t);
+		}
+		return t;
+	}
+
+	private void schedule()
+	{
+		List<Ticket> batch = new ArrayList<>(maxBatchSize);
+		while (true)
+		{
+			try
+			{
+				Ticket first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null)
+				{
+					if (closed && queue.isEmpty())
+					{
+						return;
+					}
+					continue;
+				}
+				batch.add(first);
+				long deadline = first.submitted + maxWaitNanos;
+				while (batch.size() < maxBatchSize)
+				{
+					long remaining = deadline - System.nanoTime();
+					Ticket next = remaining > 0 && !closed ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null)
+					{
+						break;
+					}
+					batch.add(next);
+				}
+				classify(batch);
+			}
+			catch (InterruptedException e)
+			{
+				logger.warn("Scheduler interrupted, failing outstanding submissions");
+				fail(batch, e);
+				List<Ticket> rest = new ArrayList<>();
+				queue.drainTo(rest);
+				fail(rest, e);
+				return;
+			}
+			finally
+			{
+				batch.clear();
+			}
+		}
+	}
+
+	private void classify(List<Ticket> batch)
+	{
+		long batchId = batchIds.incrementAndGet();
+		long start = System.nanoTime();
+		batchSizes.record(batch.size());
+		for (Ticket t : batch)
+		{
+			waitTimes.record(TimeUnit.NANOSECONDS.toMillis(start - t.submitted));
+		}
+
+		try
+		{
+			List<Map<String, Node<String>>> results = new ArrayList<>(batch.size());
+			synchronized (classifier)
+			{
+				Set<IAxiom> pending = classifier.getUnclassifiedAxioms();
+				Set<IAxiom> added = new HashSet<>();
+				for (Ticket t : batch)
+				{
+					for (IAxiom a : t.axioms)
+					{
+						if (pending.add(a))
+						{
+							added.add(a);
+						}
+					}
+				}
+				batchAxioms.record(added.size());
+				try
+				{
+					classifier.classifyAxioms();
+				}
+				catch (RuntimeException | IOException e)
+				{
+					// don't leave the failed batch for the next classification to pick up
+					pending.removeAll(added);
+					throw e;
+				}
+
+				IOntology<String> ontology = classifier.getReasoner().getClassifiedOntology();
+				for (Ticket t : batch)
+				{
+					Map<String, Node<String>> nodes = new HashMap<>();
+					for (String id : definedConcepts(t.axioms))
+					{
+						nodes.put(id, ontology.getNode(id));
+					}
+					results.add(Collections.unmodifiableMap(nodes));
+				}
+			}
+			classifyTimes.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			for (int i = 0; i < batch.size(); i++)
+			{
+				batch.get(i).complete(new Result(batchId, batch.size(), results.get(i)), null);
+			}
+		}
+		catch (RuntimeException | IOException e)
+		{
+			logger.error("Classification of batch " + batchId + " failed", e);
+			fail(batch, e);
+		}
+	}
+
+	private void fail(List<Ticket> tickets, Throwable cause)
+	{
+		for (Ticket t : tickets)
+		{
+			t.complete(null, cause);
+		}
+	}
+
+	/**
+	 * The named concepts on the left hand side of the concept inclusions - the concepts a Lego conversion defines.
+	 */
+	static Set<String> definedConcepts(Set<IAxiom> axioms)
+	{
+		Set<String> result = new HashSet<>();
+		for (IAxiom a : axioms)
+		{
+			if (a instanceof IConceptInclusion && ((IConceptInclusion) a).lhs() instanceof INamedConcept)
+			{
+				result.add((String) ((INamedConcept<?>) ((IConceptInclusion) a).lhs()).getId());
+			}
+		}
+		return result;
+	}
+
+	public Histogram getBatchSizes()
+	{
+		return batchSizes;
+	}
+
+	public Histogram getBatchAxioms()
+	{
+		return batchAxioms;
+	}
+
+	public Histogram getWaitTimes()
+	{
+		return waitTimes;
+	}
+
+	public Histogram getClassifyTimes()
+	{
+		return classifyTimes;
+	}
+
+	/**
+	 * Stop accepting submissions, classify everything already submitted, and wait for the scheduler thread to finish.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (submitLock)
+		{
+			closed = true;
+		}
+		try
+		{
+			worker.join();
+		}
+		catch (InterruptedException e)
+		{
+			worker.interrupt();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return batchSizes + eol() + batchAxioms + eol() + waitTimes + eol() + classifyTimes;
+	}
+
+	private static String eol()
+	{
+		return System.getProperty("line.separator");
+	}
+
+	private static class Ticket implements Future<Result>
+	{
+		final Set<IAxiom> axioms;
+		final long submitted = System.nanoTime();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Result result;
+		private volatile Throwable error;
+
+		Ticket(Set<IAxiom> axioms)
+		{
+			this.axioms = axioms;
+		}
+
+		void complete(Result result, Throwable error)
+		{
+			this.result = result;
+			this.error = error;
+			done.countDown();
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning)
+		{
+			// once submitted, the axioms will be classified with their batch
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled()
+		{
+			return false;
+		}
+
+		@Override
+		public boolean isDone()
+		{
+			return done.getCount() == 0;
+		}
+
+		@Override
+		public Result get() throws InterruptedException, ExecutionException
+		{
+			done.await();
+			return report();
+		}
+
+		@Override
+		public Result get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+		{
+			if (!done.await(timeout, unit))
+			{
+				throw new TimeoutException();
+			}
+			return report();
+		}
+
+		private Result report() throws ExecutionException
+		{
+			if (error != null)
+			{
+				throw new ExecutionException(error);
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Usage: ClassificationScheduler &lt;snapshot file&gt; &lt;lego folder&gt; [submitting threads]
+	 *
+	 * Submits every Lego in the folder, one Lego per submission, from several threads at once, and reports the batch histograms.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: ClassificationScheduler <snapshot file> <lego folder> [submitting threads]");
+			System.exit(1);
+		}
+		IReasoner<String> reasoner = ReasonerSnapshot.load(new File(args[0]));
+		final SIMClassifier sc = new SIMClassifier(reasoner);
+		final List<LegoBI> legos = Collections.synchronizedList(new ArrayList<LegoBI>());
+		new LegoPipeline<>(new LegoPipeline.Converter<LegoBI>()
+		{
+			@Override
+			public LegoBI convert(Lego lego) throws Exception
+			{
+				return SIMClassifier.toSIM(lego);
+			}
+		}, new LegoPipeline.Collector<LegoBI>()
+		{
+			@Override
+			public void collect(LegoBI item)
+			{
+				legos.add(item);
+			}
+		}).run(new File(args[1]).listFiles());
+
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		try (final ClassificationScheduler scheduler = new ClassificationScheduler(sc))
+		{
+			List<Thread> submitters = new ArrayList<>();
+			final AtomicLong next = new AtomicLong();
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < threads; i++)
+			{
+				Thread t = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						long index;
+						while ((index = next.getAndIncrement()) < legos.size())
+						{
+							try
+							{
+								scheduler.submit(legos.get((int) index)).get();
+							}
+							catch (Exception e)
+							{
+								logger.error("Submission failed", e);
+							}
+						}
+					}
+				});
+				t.start();
+				submitters.add(t);
+			}
+			for (Thread t : submitters)
+			{
+				t.join();
+			}
+			System.out.println("Classified " + legos.size() + " Legos in " + (System.currentTimeMillis() - start) + "ms");
+			System.out.println(scheduler);
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package gov.va;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import au.csiro.ontology.IOntology;
+import au.csiro.ontology.Node;
+
+/**
+ * Writes the classification summary of {@link SIMClassifier} and {@link LegoClassifier} - the equivalents, parents and children of
+ * each concept - straight to a Writer, so memory use doesn't grow with the number of concepts.
+ *
+ * Large summaries are rendered in parallel - the ids are taken a window at a time, each window is split across a fork-join pool into
+ * chunks of {@link #LEAF_SIZE} concepts, and the chunks are written in order, so the output is the same as a sequential walk.  Only one
+ * window of text is held at once.  The classified ontology is only read, and must not be classified while the summary is written.  The
+ * pool's parallelism is the classificationSummary.parallelism system property, which defaults to the number of processors; set it to 1
+ * to turn parallel rendering off.
+ */
+class ClassificationSummary
+{
+	static final String SEPARATOR = "=====================================";
+
+	static final int PARALLELISM = Integer.getInteger("classificationSummary.parallelism", Runtime.getRuntime().availableProcessors());
+	static final int LEAF_SIZE = 256;
+	private static final int PARALLEL_THRESHOLD = 2 * LEAF_SIZE;
+	private static ForkJoinPool pool;
+
+	private static synchronized ForkJoinPool pool()
+	{
+		if (pool == null)
+		{
+			// worker threads are daemons, so the pool never holds up exit
+			pool = new ForkJoinPool(PARALLELISM);
+		}
+		return pool;
+	}
+
+	static void write(IOntology<String> t, Collection<String> ids, Writer out, String eol) throws IOException
+	{
+		long start = ClassifierMetrics.start();
+		if (PARALLELISM < 2 || ids.size() < PARALLEL_THRESHOLD)
+		{
+			for (String s : ids)
+			{
+				appendConcept(t, s, out, eol);
+			}
+		}
+		else
+		{
+			String[] all = ids.toArray(new String[ids.size()]);
+			int window = LEAF_SIZE * PARALLELISM * 4;
+			String[] chunks = new String[window / LEAF_SIZE];
+			for (int from = 0; from < all.length; from += window)
+			{
+				int to = Math.min(all.length, from + window);
+				pool().invoke(new Render(t, all, from, to, from, chunks, eol));
+				int count = (to - from + LEAF_SIZE - 1) / LEAF_SIZE;
+				for (int i = 0; i < count; i++)
+				{
+					out.write(chunks[i]);
+					chunks[i] = null;
+				}
+			}
+		}
+		out.flush();
+		ClassifierMetrics.stop(ClassifierMetrics.Phase.SUMMARY, start);
+	}
+
+	/**
+	 * Renders the ids from - to into chunks, one per {@link ClassificationSummary#LEAF_SIZE} ids from the window start.
+	 */
+	private static class Render extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final IOntology<String> t;
+		private final String[] ids;
+		private final int from, to, windowStart;
+		private final String[] chunks;
+		private final String eol;
+
+		Render(IOntology<String> t, String[] ids, int from, int to, int windowStart, String[] chunks, String eol)
+		{
+			this.t = t;
+			this.ids = ids;
+			this.from = from;
+			this.to = to;
+			this.windowStart = windowStart;
+			this.chunks = chunks;
+			this.eol = eol;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (to - from <= LEAF_SIZE)
+			{
+				StringBuilder sb = new StringBuilder((to - from) * 256);
+				try
+				{
+					for (int i = from; i < to; i++)
+					{
+						appendConcept(t, ids[i], sb, eol);
+					}
+				}
+				catch (IOException e)
+				{
+					// not from a StringBuilder
+					throw new IllegalStateException(e);
+				}
+				chunks[(from - windowStart) / LEAF_SIZE] = sb.toString();
+			}
+			else
+			{
+				// split on a chunk boundary
+				int mid = from + ((to - from + LEAF_SIZE - 1) / LEAF_SIZE / 2) * LEAF_SIZE;
+				invokeAll(new Render(t, ids, from, mid, windowStart, chunks, eol), new Render(t, ids, mid, to, windowStart, chunks, eol));
+			}
+		}
+	}
+
+	private static void appendConcept(IOntology<String> t, String s, Appendable out, String eol) throws IOException
+	{
+		// We can look for nodes using the concept ids.
+		Node<String> newNode = t.getNode(s);
+		if (newNode == null)
+		{
+			out.append("No Node ").append(s).append(eol);
+		}
+		else
+		{
+			out.append("Equivalent Concepts ");
+			appendIds(newNode.getEquivalentConcepts(), out);
+			out.append(eol);
+
+			// We can now look for the parent and child nodes
+			out.append("Parents:").append(eol);
+			for (Node<String> parentNode : newNode.getParents())
+			{
+				out.append("  ");
+				appendIds(parentNode.getEquivalentConcepts(), out);
+				out.append(eol);
+			}
+
+			out.append("Children:").append(eol);
+			for (Node<String> childNode : newNode.getChildren())
+			{
+				out.append("  ");
+				appendIds(childNode.getEquivalentConcepts(), out);
+				out.append(eol);
+			}
+		}
+		out.append(SEPARATOR).append(eol);
+	}
+
+	/**
+	 * The same form as Set.toString, without building the string
+	 */
+	private static void appendIds(Set<String> ids, Appendable out) throws IOException
+	{
+		out.append('[');
+		for (Iterator<String> it = ids.iterator(); it.hasNext();)
+		{
+			out.append(it.next());
+			if (it.hasNext())
+			{
+				out.append(", ");
+			}
+		}
+		out.append(']');
+	}
+}
@@ -0,0 +1,354 @@
+package gov.va;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.csiro.ontology.classification.IReasoner;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checkpoints of a {@link SIMClassifier} after classification - the reasoner (in the {@link ReasonerSnapshot} format), the
+ * {@link SubmissionRegistry} of the definitions it contains, and a manifest - so a later process can resume from the classified state,
+ * rather than reclassifying every Lego onto the base state.
+ *
+ * Each checkpoint is a folder, checkpoint-&lt;sequence&gt;, in the checkpoint folder.  It is written as checkpoint-&lt;sequence&gt;.tmp,
+ * with every file synced, and then renamed into place - a folder without the .tmp suffix is always complete.  Once a checkpoint is
+ * written, all but the newest retainCount checkpoints are deleted.
+ *
+ * Checkpoints are taken on demand ({@link #checkpoint()}) or on a schedule ({@link #schedule(long, TimeUnit)}), while holding the
+ * classifier's monitor, so no classification runs while the reasoner is being written.  A scheduled checkpoint is skipped if nothing has
+ * been classified since the last one.
+ *
+ * If the classifier has an {@link AssertionIndex}, it is checkpointed too, and restored on {@link #resume(File)}.
+ *
+ * If the classifier has an {@link AxiomLog}, the manifest records the last logged sequence number, and the log segments covered by the
+ * checkpoint are deleted once it is written.
+ */
+public class ClassifierCheckpoint
+{
+	static Logger logger = LoggerFactory.getLogger(ClassifierCheckpoint.class);
+
+	private static final String PREFIX = "checkpoint-";
+	private static final String TEMP_SUFFIX = ".tmp";
+	static final String SNAPSHOT_FILE = "reasoner.snapshot";
+	static final String REGISTRY_FILE = "registry.bin";
+	static final String ASSERTION_INDEX_FILE = "assertions.bin";
+	static final String MANIFEST_FILE = "manifest.properties";
+
+	private final File dir;
+	private final SIMClassifier classifier;
+	private final int retainCount;
+	private long lastClassificationCount;
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * The classifier must already have a {@link SubmissionRegistry} (see {@link SIMClassifier#setSubmissionRegistry(SubmissionRegistry)}),
+	 * set before anything was classified - the registry is checkpointed with the reasoner, and must describe all of it.  A resumed
+	 * classifier already has one.
+	 *
+	 * @param retainCount - the number of checkpoints to keep
+	 */
+	public ClassifierCheckpoint(File dir, SIMClassifier classifier, int retainCount)
+	{
+		if (retainCount < 1)
+		{
+			throw new IllegalArgumentException("retainCount must be positive");
+		}
+		if (classifier.getSubmissionRegistry() == null)
+		{
+			throw new IllegalArgumentException("The classifier has no submission registry");
+		}
+		this.dir = dir;
+		this.classifier = classifier;
+		this.retainCount = retainCount;
+		dir.mkdirs();
+		synchronized (classifier)
+		{
+			// a freshly loaded (or resumed) classifier has nothing that isn't already on disk - anything else needs a checkpoint
+			lastClassificationCount = classifier.getClassificationCount() == 0 ? 0 : -1;
+		}
+	}
+
+	/**
+	 * Write a checkpoint now.
+	 *
+	 * @return the checkpoint folder
+	 */
+	public File checkpoint() throws IOException
+	{
+		synchronized (classifier)
+		{
+			IReasoner<String> reasoner = classifier.getReasoner();
+			if (!(reasoner instanceof SnorocketReasoner))
+			{
+				throw new IOException("Only a SnorocketReasoner can be checkpointed");
+			}
+			long start = System.currentTimeMillis();
+			long sequence = latestSequence(dir) + 1;
+			File temp = new File(dir, PREFIX + sequence + TEMP_SUFFIX);
+			deleteRecursive(temp);
+			if (!temp.mkdirs())
+			{
+				throw new IOException("Could not create " + temp.getAbsolutePath());
+			}
+
+			ReasonerSnapshot.write((SnorocketReasoner<?>) reasoner, new File(temp, SNAPSHOT_FILE));
+			File registryFile = new File(temp, REGISTRY_FILE);
+			classifier.getSubmissionRegistry().save(registryFile);
+			sync(registryFile);
+			AssertionIndex assertionIndex = classifier.getAssertionIndex();
+			if (assertionIndex != null)
+			{
+				File assertionFile = new File(temp, ASSERTION_INDEX_FILE);
+				assertionIndex.save(assertionFile);
+				sync(assertionFile);
+			}
+
+			Properties manifest = new Properties();
+			manifest.setProperty("sequence", Long.toString(sequence));
+			manifest.setProperty("created", new Date().toString());
+			manifest.setProperty("converterVersion", Integer.toString(SIMClassifier.CONVERTER_VERSION));
+			manifest.setProperty("snapshotFormatVersion", Integer.toString(ReasonerSnapshot.FORMAT_VERSION));
+			manifest.setProperty("nodes", Integer.toString(reasoner.getClassifiedOntology().getNodeMap().size()));
+			manifest.setProperty("definitions", Integer.toString(classifier.getSubmissionRegistry().size()));
+			manifest.setProperty("classifications", Long.toString(classifier.getClassificationCount()));
+			if (assertionIndex != null)
+			{
+				manifest.setProperty("assertionComponents", Integer.toString(assertionIndex.size()));
+			}
+			AxiomLog log = classifier.getAxiomLog();
+			if (log != null)
+			{
+				// everything logged so far is in the checkpoint
+				manifest.setProperty("logSequence", Long.toString(log.getLastSequence()));
+			}
+			File manifestFile = new File(temp, MANIFEST_FILE);
+			try (OutputStream os = new FileOutputStream(manifestFile))
+			{
+				manifest.store(os, "Classifier checkpoint");
+			}
+			sync(manifestFile);
+
+			File checkpoint = new File(dir, PREFIX + sequence);
+			if (!temp.renameTo(checkpoint))
+			{
+				throw new IOException("Could not rename " + temp.getAbsolutePath() + " to " + checkpoint.getAbsolutePath());
+			}
+			lastClassificationCount = classifier.getClassificationCount();
+			logger.info("Wrote checkpoint " + checkpoint.getName() + " in " + (System.currentTimeMillis() - start) + "ms");
+
+			applyRetention();
+			if (log != null)
+			{
+				log.compact(log.getLastSequence());
+			}
+			return checkpoint;
+		}
+	}
+
+	/**
+	 * Write a checkpoint, if anything has been classified since the last one.
+	 *
+	 * @return the checkpoint folder, or null, if no checkpoint was needed
+	 */
+	public File checkpointIfChanged() throws IOException
+	{
+		synchronized (classifier)
+		{
+			return classifier.getClassificationCount() == lastClassificationCount ? null : checkpoint();
+		}
+	}
+
+	/**
+	 * Checkpoint every period, on a daemon thread, whenever something has been classified since the last checkpoint.
+	 */
+	public synchronized void schedule(long period, TimeUnit unit)
+	{
+		if (scheduler != null)
+		{
+			throw new IllegalStateException("Already scheduled");
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable r)
+			{
+				Thread t = new Thread(r, "ClassifierCheckpoint");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					checkpointIfChanged();
+				}
+				catch (Exception e)
+				{
+					// keep the schedule going - the next attempt may succeed
+					logger.error("Scheduled checkpoint failed", e);
+				}
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stop the schedule (a checkpoint in progress is completed).
+	 */
+	public synchronized void stop()
+	{
+		if (scheduler != null)
+		{
+			scheduler.shutdown();
+			scheduler = null;
+		}
+	}
+
+	/**
+	 * Resume from the newest complete checkpoint in the folder - a classifier over the checkpointed reasoner, with the checkpointed
+	 * submission registry (and assertion index, if there is one).  Returns null if there is no checkpoint.
+	 */
+	public static SIMClassifier resume(File dir) throws IOException
+	{
+		File latest = latest(dir);
+		if (latest == null)
+		{
+			return null;
+		}
+		Properties manifest = readManifest(latest);
+		logger.info("Resuming from checkpoint " + latest.getName() + " of " + manifest.getProperty("created") + ", " + manifest.getProperty("definitions")
+				+ " definitions");
+		IReasoner<String> reasoner = ReasonerSnapshot.load(new File(latest, SNAPSHOT_FILE));
+		SIMClassifier classifier = new SIMClassifier(reasoner);
+		classifier.setSubmissionRegistry(SubmissionRegistry.load(new File(latest, REGISTRY_FILE)));
+		File assertionFile = new File(latest, ASSERTION_INDEX_FILE);
+		if (assertionFile.isFile())
+		{
+			classifier.setAssertionIndex(AssertionIndex.load(assertionFile));
+		}
+		return classifier;
+	}
+
+	/**
+	 * The newest complete checkpoint folder, or null
+	 */
+	public static File latest(File dir)
+	{
+		long sequence = latestSequence(dir);
+		return sequence < 0 ? null : new File(dir, PREFIX + sequence);
+	}
+
+	public static Properties readManifest(File checkpoint) throws IOException
+	{
+		Properties manifest = new Properties();
+		try (InputStream is = new FileInputStream(new File(checkpoint, MANIFEST_FILE)))
+		{
+			manifest.load(is);
+		}
+		return manifest;
+	}
+
+	private static long latestSequence(File dir)
+	{
+		long latest = -1;
+		for (long sequence : sequences(dir))
+		{
+			latest = Math.max(latest, sequence);
+		}
+		return latest;
+	}
+
+	/**
+	 * The sequence numbers of the complete checkpoints in the folder, oldest first
+	 */
+	private static long[] sequences(File dir)
+	{
+		File[] files = dir.listFiles();
+		List<Long> result = new ArrayList<>();
+		if (files != null)
+		{
+			for (File f : files)
+			{
+				String name = f.getName();
+				if (f.isDirectory() && name.startsWith(PREFIX) && !name.endsWith(TEMP_SUFFIX) && new File(f, MANIFEST_FILE).isFile())
+				{
+					try
+					{
+						result.add(Long.parseLong(name.substring(PREFIX.length())));
+					}
+					catch (NumberFormatException e)
+					{
+						// not one of ours
+					}
+				}
+			}
+		}
+		long[] sorted = new long[result.size()];
+		for (int i = 0; i < sorted.length; i++)
+		{
+			sorted[i] = result.get(i);
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	private void applyRetention()
+	{
+		long[] sequences = sequences(dir);
+		for (int i = 0; i < sequences.length - retainCount; i++)
+		{
+			File old = new File(dir, PREFIX + sequences[i]);
+			// rename first, so a half deleted checkpoint is never taken for a complete one
+			File doomed = new File(dir, PREFIX + sequences[i] + TEMP_SUFFIX);
+			if (old.renameTo(doomed))
+			{
+				deleteRecursive(doomed);
+				logger.debug("Deleted old checkpoint " + old.getName());
+			}
+			else
+			{
+				logger.warn("Could not delete old checkpoint " + old.getAbsolutePath());
+			}
+		}
+	}
+
+	private static void sync(File f) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(f, "rw"))
+		{
+			raf.getFD().sync();
+		}
+	}
+
+	private static void deleteRecursive(File f)
+	{
+		File[] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+			{
+				deleteRecursive(c);
+			}
+		}
+		f.delete();
+	}
+}
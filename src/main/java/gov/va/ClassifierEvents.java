@@ -0,0 +1,104 @@
+package gov.va;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Java Flight Recorder events around each Lego conversion, each classification and each state load - so a flight recording lines up
+ * GC pauses and allocation spikes with specific Legos.
+ *
+ * The event classes need jdk.jfr (JDK 11 and later), which this Java 7 build can't refer to directly - they are in src/main/jfr,
+ * compiled by the jfr profile (active on JDK 11 and later), and found by name at runtime.  Without them (an older JDK, or a build
+ * without the profile) every call here is a no-op.  With them, an event that isn't being recorded costs a check of its enabled flag,
+ * and no allocation - so they can stay on in continuous recording.
+ *
+ * Usage:
+ * <pre>
+ *   Object event = ClassifierEvents.begin(ClassifierEvents.Kind.LEGO_CONVERSION);
+ *   ... convert ...
+ *   ClassifierEvents.commit(event, legoUuid, axiomCount);
+ * </pre>
+ */
+public class ClassifierEvents
+{
+	static Logger logger = LoggerFactory.getLogger(ClassifierEvents.class);
+
+	static final String RECORDER_CLASS = "gov.va.JfrRecorder";
+
+	public enum Kind
+	{
+		/** a Lego converted to axioms - the subject is the Lego UUID, the count is the axioms produced */
+		LEGO_CONVERSION,
+		/** a classifyAxioms call - the subject is the classifier type, the count is the axioms classified */
+		CLASSIFICATION,
+		/** a reasoner state loaded - the subject is the file, the count is the nodes loaded */
+		STATE_LOAD
+	}
+
+	/**
+	 * Implemented by {@link #RECORDER_CLASS}.
+	 */
+	interface Recorder
+	{
+		/**
+		 * A started event, or null if the kind isn't being recorded
+		 */
+		Object begin(Kind kind);
+
+		void commit(Object event, String subject, long count);
+	}
+
+	private static final Recorder recorder = loadRecorder();
+
+	private static Recorder loadRecorder()
+	{
+		try
+		{
+			return (Recorder) Class.forName(RECORDER_CLASS).getDeclaredConstructor().newInstance();
+		}
+		catch (ClassNotFoundException e)
+		{
+			logger.debug("Flight recorder events not built in");
+		}
+		catch (Throwable e)
+		{
+			// built in, but the JDK has no jdk.jfr
+			logger.debug("Flight recorder events not available: " + e);
+		}
+		return null;
+	}
+
+	private ClassifierEvents()
+	{
+		// static only
+	}
+
+	/**
+	 * @return true if the flight recorder events are built in, and the JDK supports them
+	 */
+	public static boolean isAvailable()
+	{
+		return recorder != null;
+	}
+
+	/**
+	 * Start timing an event.
+	 *
+	 * @return the event, to pass to {@link #commit(Object, String, long)} - null if it isn't being recorded
+	 */
+	public static Object begin(Kind kind)
+	{
+		return recorder == null ? null : recorder.begin(kind);
+	}
+
+	/**
+	 * End the event, and commit it to the recording (if it passes the recording's threshold).  Does nothing for a null event.
+	 */
+	public static void commit(Object event, String subject, long count)
+	{
+		if (event != null)
+		{
+			recorder.commit(event, subject, count);
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package gov.va;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process wide timers, counters and gauges for the phases of classification, published over JMX as gov.va:type=ClassifierMetrics
+ * (the counters and gauges) and gov.va:type=ClassifierMetrics,phase=&lt;phase&gt; (a latency histogram per {@link Phase}).
+ *
+ * Off unless the classifierMetrics.enabled system property is true, or {@link #setEnabled(boolean)} is called - when off, timing a
+ * phase costs one volatile read, and nothing is recorded.  The MBeans are registered the first time metrics are enabled, and the
+ * Enabled attribute can then be switched over JMX.
+ *
+ * Latencies are recorded in microseconds, in {@link Histogram}s, so percentiles are accurate to a factor of 2.  The node count is
+ * recorded by the classifier at the end of each classification, so reading the gauge never waits on a classifier's lock.
+ */
+public class ClassifierMetrics
+{
+	static Logger logger = LoggerFactory.getLogger(ClassifierMetrics.class);
+
+	public static final String OBJECT_NAME = "gov.va:type=ClassifierMetrics";
+
+	public enum Phase
+	{
+		/** reading and validating Lego XML */
+		PARSE,
+		/** converting schema model Legos to the SIM-API */
+		SIM_CONVERT,
+		/** converting SIM-API Legos to axioms */
+		PROCESS,
+		/** classifying a batch of axioms with the reasoner */
+		CLASSIFY,
+		/** building the classification summary */
+		SUMMARY
+	}
+
+	private static volatile boolean enabled = false;
+	private static boolean registered = false;
+	private static final Histogram[] timers = new Histogram[Phase.values().length];
+	private static final Histogram axiomsPerLego = new Histogram("axioms per Lego", "");
+	private static final AtomicLong legos = new AtomicLong();
+	private static final AtomicLong axioms = new AtomicLong();
+	private static final AtomicLong classifications = new AtomicLong();
+	private static final AtomicLong classifiedNodes = new AtomicLong(-1);
+	private static volatile WeakReference<SIMClassifier> lastClassifier = new WeakReference<>(null);
+
+	static
+	{
+		for (Phase p : Phase.values())
+		{
+			timers[p.ordinal()] = new Histogram(p.name().toLowerCase(), "us");
+		}
+		if (Boolean.getBoolean("classifierMetrics.enabled"))
+		{
+			setEnabled(true);
+		}
+	}
+
+	/**
+	 * The latency of one phase.
+	 */
+	public interface PhaseMBean
+	{
+		public long getCount();
+
+		public double getMeanMicros();
+
+		public long getP50Micros();
+
+		public long getP90Micros();
+
+		public long getP99Micros();
+
+		public long getMaxMicros();
+	}
+
+	/**
+	 * The counters and gauges.
+	 */
+	public interface ClassifierMBean
+	{
+		public boolean isEnabled();
+
+		public void setEnabled(boolean enabled);
+
+		public long getLegosConverted();
+
+		public long getAxiomsProduced();
+
+		public double getMeanAxiomsPerLego();
+
+		public long getP99AxiomsPerLego();
+
+		public long getMaxAxiomsPerLego();
+
+		public long getClassifications();
+
+		/**
+		 * The axioms waiting to be classified by the last classifier to classify, or -1
+		 */
+		public long getUnclassifiedAxioms();
+
+		/**
+		 * The nodes of the classified ontology of the last classifier to classify, or -1
+		 */
+		public long getClassifiedNodes();
+	}
+
+	private static class PhaseView implements PhaseMBean
+	{
+		private final Histogram h;
+
+		PhaseView(Histogram h)
+		{
+			this.h = h;
+		}
+
+		@Override
+		public long getCount()
+		{
+			return h.getCount();
+		}
+
+		@Override
+		public double getMeanMicros()
+		{
+			return h.getMean();
+		}
+
+		@Override
+		public long getP50Micros()
+		{
+			return h.getPercentile(50);
+		}
+
+		@Override
+		public long getP90Micros()
+		{
+			return h.getPercentile(90);
+		}
+
+		@Override
+		public long getP99Micros()
+		{
+			return h.getPercentile(99);
+		}
+
+		@Override
+		public long getMaxMicros()
+		{
+			return h.getMax();
+		}
+	}
+
+	private static class ClassifierView implements ClassifierMBean
+	{
+		@Override
+		public boolean isEnabled()
+		{
+			return ClassifierMetrics.isEnabled();
+		}
+
+		@Override
+		public void setEnabled(boolean enabled)
+		{
+			ClassifierMetrics.setEnabled(enabled);
+		}
+
+		@Override
+		public long getLegosConverted()
+		{
+			return legos.get();
+		}
+
+		@Override
+		public long getAxiomsProduced()
+		{
+			return axioms.get();
+		}
+
+		@Override
+		public double getMeanAxiomsPerLego()
+		{
+			return axiomsPerLego.getMean();
+		}
+
+		@Override
+		public long getP99AxiomsPerLego()
+		{
+			return axiomsPerLego.getPercentile(99);
+		}
+
+		@Override
+		public long getMaxAxiomsPerLego()
+		{
+			return axiomsPerLego.getMax();
+		}
+
+		@Override
+		public long getClassifications()
+		{
+			return classifications.get();
+		}
+
+		@Override
+		public long getUnclassifiedAxioms()
+		{
+			SIMClassifier c = lastClassifier.get();
+			// a racy read of a set size - fine for a gauge
+			return c == null ? -1 : c.getUnclassifiedAxioms().size();
+		}
+
+		@Override
+		public long getClassifiedNodes()
+		{
+			return classifiedNodes.get();
+		}
+	}
+
+	private ClassifierMetrics()
+	{
+		// static only
+	}
+
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+
+	/**
+	 * Turn recording on or off - the first time it is turned on, the MBeans are registered with the platform MBean server.
+	 */
+	public static synchronized void setEnabled(boolean enable)
+	{
+		if (enable && !registered)
+		{
+			register();
+		}
+		enabled = enable;
+	}
+
+	private static void register()
+	{
+		registered = true;
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(new StandardMBean(new ClassifierView(), ClassifierMBean.class), new ObjectName(OBJECT_NAME));
+			for (Phase p : Phase.values())
+			{
+				server.registerMBean(new StandardMBean(new PhaseView(timers[p.ordinal()]), PhaseMBean.class),
+						new ObjectName(OBJECT_NAME + ",phase=" + p.name().toLowerCase()));
+			}
+		}
+		catch (JMException e)
+		{
+			// the metrics are still recorded, and readable through getTimer
+			logger.warn("Could not register the classifier metrics MBeans", e);
+		}
+	}
+
+	/**
+	 * Start timing a phase - pass the result to {@link #stop(Phase, long)}.
+	 *
+	 * @return the start time, or 0 if metrics are off
+	 */
+	public static long start()
+	{
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the time since {@link #start()}, unless metrics were off at the start.
+	 */
+	public static void stop(Phase phase, long start)
+	{
+		if (start != 0)
+		{
+			timers[phase.ordinal()].record((System.nanoTime() - start) / 1000);
+		}
+	}
+
+	/**
+	 * Count a converted Lego, and the axioms it produced.
+	 */
+	public static void legoConverted(int axiomCount)
+	{
+		if (enabled)
+		{
+			legos.incrementAndGet();
+			axioms.addAndGet(axiomCount);
+			axiomsPerLego.record(axiomCount);
+		}
+	}
+
+	/**
+	 * Count a classification, record the node count of the classified ontology, and make the classifier the source of the unclassified
+	 * axioms gauge.
+	 */
+	public static void classified(SIMClassifier classifier, long nodes)
+	{
+		if (enabled)
+		{
+			classified(nodes);
+			if (lastClassifier.get() != classifier)
+			{
+				lastClassifier = new WeakReference<>(classifier);
+			}
+		}
+	}
+
+	/**
+	 * Count a classification, and record the node count of the classified ontology.
+	 */
+	public static void classified(long nodes)
+	{
+		if (enabled)
+		{
+			classifications.incrementAndGet();
+			classifiedNodes.set(nodes);
+		}
+	}
+
+	public static Histogram getTimer(Phase phase)
+	{
+		return timers[phase.ordinal()];
+	}
+
+	public static Histogram getAxiomsPerLego()
+	{
+		return axiomsPerLego;
+	}
+}
@@ -0,0 +1,439 @@
+package gov.va;
+
+import gov.va.legoEdit.model.schemaModel.Lego;
+import gov.va.legoEdit.model.schemaModel.LegoList;
+import gov.va.sim.lego.LegoBI;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.classification.IReasoner;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A long running classification daemon.  The base state is loaded once, at startup, and Legos are then classified incrementally
+ * against it, over a local HTTP API:
+ * <pre>
+ *   POST /classify        body: LegoList XML (as accepted by LEGO.xsd)
+ *                         returns the equivalents, parents and children of each concept the Legos define
+ *   POST /preview         body: LegoList XML - as /classify, but the Legos are classified tentatively, and discarded afterwards
+ *                         (see {@link WhatIfClassifier})
+ *   GET  /concept?id=...  returns the equivalents, parents and children of one concept (UUID)
+ *   GET  /stats           returns the batching statistics, as text
+ * </pre>
+ * Requests are served by a fixed pool of threads.  Classification goes through a {@link ClassificationScheduler}, so concurrent
+ * requests are classified together, in one incremental pass.  Every classified Lego stays in the reasoner - later requests see it.
+ *
+ * The server binds to the loopback address only - there is no authentication.
+ */
+public class ClassifierServer
+{
+	static Logger logger = LoggerFactory.getLogger(ClassifierServer.class);
+
+	private final SIMClassifier classifier;
+	private final ClassificationScheduler scheduler;
+	private final WhatIfClassifier whatIf;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final long timeoutMillis;
+
+	/**
+	 * @param port - the local port to listen on (0 picks a free port, see {@link #getPort()})
+	 * @param threads - the number of request threads
+	 * @param timeoutMillis - how long a request waits for its classification before failing
+	 */
+	public ClassifierServer(IReasoner<String> reasoner, int port, int threads, long timeoutMillis) throws IOException
+	{
+		this(new SIMClassifier(reasoner), port, threads, timeoutMillis);
+	}
+
+	/**
+	 * Serve an existing classifier - such as one resumed from a {@link ClassifierCheckpoint}.
+	 */
+	public ClassifierServer(SIMClassifier classifier, int port, int threads, long timeoutMillis) throws IOException
+	{
+		this.classifier = classifier;
+		this.scheduler = new ClassificationScheduler(classifier);
+		this.whatIf = new WhatIfClassifier(classifier);
+		this.timeoutMillis = timeoutMillis;
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.createContext("/classify", new Handler()
+		{
+			@Override
+			String handle(HttpExchange exchange) throws Exception
+			{
+				requireMethod(exchange, "POST");
+				return classify(exchange.getRequestBody());
+			}
+		});
+		server.createContext("/preview", new Handler()
+		{
+			@Override
+			String handle(HttpExchange exchange) throws Exception
+			{
+				requireMethod(exchange, "POST");
+				return preview(exchange.getRequestBody());
+			}
+		});
+		server.createContext("/concept", new Handler()
+		{
+			@Override
+			String handle(HttpExchange exchange) throws Exception
+			{
+				requireMethod(exchange, "GET");
+				String id = queryParameter(exchange, "id");
+				if (id == null)
+				{
+					throw new RequestException(400, "Missing id parameter");
+				}
+				return concept(id);
+			}
+		});
+		server.createContext("/stats", new Handler()
+		{
+			@Override
+			String handle(HttpExchange exchange) throws Exception
+			{
+				requireMethod(exchange, "GET");
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				String eol = System.getProperty("line.separator");
+				return scheduler.toString() + eol + classifier.getFactory().getStatistics() + eol + "tentative concepts retained: "
+						+ whatIf.getRetainedConcepts();
+			}
+		});
+	}
+
+	public void start()
+	{
+		server.start();
+		logger.info("Classifier server listening on " + server.getAddress());
+	}
+
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stop accepting requests, finish the classifications in progress, and release the request threads.
+	 */
+	public void stop()
+	{
+		server.stop(1);
+		scheduler.close();
+		executor.shutdown();
+	}
+
+	/**
+	 * Parse, convert and classify the Legos in the stream, and return the classification of each concept they define, as JSON.
+	 */
+	String classify(InputStream legoXml) throws Exception
+	{
+		LegoBI[] legos = readLegos(legoXml);
+		ClassificationScheduler.Result result;
+		try
+		{
+			result = scheduler.submit(legos).get(timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		catch (TimeoutException e)
+		{
+			throw new RequestException(503, "Classification did not finish within " + timeoutMillis + "ms");
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"batch\":").append(result.getBatchId()).append(",\"batchSize\":").append(result.getBatchSize()).append(",\"concepts\":[");
+		boolean first = true;
+		// the nodes are live - a later batch must not change them while they are read
+		synchronized (classifier)
+		{
+			for (Map.Entry<String, Node<String>> e : result.getNodes().entrySet())
+			{
+				if (!first)
+				{
+					sb.append(',');
+				}
+				first = false;
+				appendNode(sb, e.getKey(), e.getValue(), null);
+			}
+		}
+		sb.append("]}");
+		return sb.toString();
+	}
+
+	/**
+	 * Parse, convert and tentatively classify the Legos in the stream, and return the classification of each concept they define, as
+	 * JSON.  Nothing is kept.
+	 */
+	String preview(InputStream legoXml) throws Exception
+	{
+		LegoBI[] legos = readLegos(legoXml);
+		StringBuilder sb = new StringBuilder();
+		try (WhatIfClassifier.Preview p = whatIf.preview(legos))
+		{
+			sb.append("{\"preview\":").append(p.getId()).append(",\"concepts\":[");
+			boolean first = true;
+			// other previews classify into the same sandbox - hold its lock, not the classifier's
+			synchronized (p.getLock())
+			{
+				for (String id : p.getDefinedConcepts())
+				{
+					if (!first)
+					{
+						sb.append(',');
+					}
+					first = false;
+					appendNode(sb, id, p.getNode(id), p);
+				}
+			}
+			sb.append("]}");
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new RequestException(400, e.getMessage());
+		}
+		return sb.toString();
+	}
+
+	private static LegoBI[] readLegos(InputStream legoXml) throws Exception
+	{
+		LegoList ll;
+		try
+		{
+			ll = LegoXMLReader.read(legoXml, "request");
+		}
+		catch (SAXException e)
+		{
+			throw new RequestException(400, "Invalid Lego XML: " + e.getMessage());
+		}
+		List<LegoBI> legos = new ArrayList<>(ll.getLego().size());
+		for (Lego l : ll.getLego())
+		{
+			legos.add(SIMClassifier.toSIM(l));
+		}
+		return legos.toArray(new LegoBI[legos.size()]);
+	}
+
+	String concept(String id)
+	{
+		StringBuilder sb = new StringBuilder();
+		// a batch must not change the taxonomy while the node is read
+		synchronized (classifier)
+		{
+			appendNode(sb, id, whatIf.getNode(id), null);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Tentative concepts are only shown to their own preview (which may be null) - see {@link WhatIfClassifier}.
+	 */
+	private void appendNode(StringBuilder sb, String id, Node<String> node, WhatIfClassifier.Preview preview)
+	{
+		if (node == null)
+		{
+			ClassificationResult.notFound(id).appendJson(sb);
+			return;
+		}
+		new ClassificationResult(id, true, whatIf.visibleEquivalents(node, preview), visibleEquivalents(whatIf.visibleParents(node, preview),
+				preview), visibleEquivalents(whatIf.visibleChildren(node, preview), preview)).appendJson(sb);
+	}
+
+	private List<Set<String>> visibleEquivalents(Collection<Node<String>> nodes, WhatIfClassifier.Preview preview)
+	{
+		List<Set<String>> result = new ArrayList<>(nodes.size());
+		for (Node<String> n : nodes)
+		{
+			result.add(whatIf.visibleEquivalents(n, preview));
+		}
+		return result;
+	}
+
+	private static void requireMethod(HttpExchange exchange, String method) throws RequestException
+	{
+		if (!exchange.getRequestMethod().equalsIgnoreCase(method))
+		{
+			throw new RequestException(405, "Use " + method);
+		}
+	}
+
+	private static String queryParameter(HttpExchange exchange, String name) throws IOException
+	{
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null)
+		{
+			return null;
+		}
+		for (String pair : query.split("&"))
+		{
+			int eq = pair.indexOf('=');
+			if (eq > 0 && pair.substring(0, eq).equals(name))
+			{
+				return URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+			}
+		}
+		return null;
+	}
+
+	private static class RequestException extends Exception
+	{
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		RequestException(int status, String message)
+		{
+			super(message);
+			this.status = status;
+		}
+	}
+
+	/**
+	 * Turns the String (JSON unless the handler says otherwise) returned by handle into the response, and exceptions into error
+	 * responses.
+	 */
+	private abstract static class Handler implements HttpHandler
+	{
+		abstract String handle(HttpExchange exchange) throws Exception;
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			int status = 200;
+			String body;
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			try
+			{
+				body = handle(exchange);
+			}
+			catch (RequestException e)
+			{
+				status = e.status;
+				body = error(e.getMessage());
+			}
+			catch (Exception e)
+			{
+				logger.error("Request " + exchange.getRequestURI() + " failed", e);
+				status = 500;
+				body = error(e.toString());
+			}
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(status, bytes.length);
+			try (OutputStream os = exchange.getResponseBody())
+			{
+				os.write(bytes);
+			}
+		}
+
+		private static String error(String message)
+		{
+			StringBuilder sb = new StringBuilder("{\"error\":");
+			ClassificationResult.appendJsonString(sb, message == null ? "" : message);
+			return sb.append('}').toString();
+		}
+	}
+
+	/**
+	 * Usage: ClassifierServer &lt;snapshot file&gt; [port]
+	 *
+	 * The snapshot is the {@link ReasonerSnapshot} form of the base state.  The number of request threads, and the request timeout,
+	 * can be set with the classifierServer.threads and classifierServer.timeoutMillis system properties.
+	 *
+	 * If classifierServer.checkpointDir is set, the server resumes from the newest checkpoint in that folder (if there is one - otherwise
+	 * it starts from the snapshot), checkpoints every classifierServer.checkpointMinutes (default 10) when something has been classified,
+	 * keeps classifierServer.checkpointRetain (default 3) checkpoints, and checkpoints on shutdown (again, if anything changed).
+	 *
+	 * If classifierServer.logDir is also set, every batch is written to an {@link AxiomLog} in that folder once it is classified (and
+	 * before it is acknowledged), and on start the batches logged since the newest checkpoint are replayed - so a crash loses nothing
+	 * that was acknowledged.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length < 1)
+		{
+			System.err.println("Usage: ClassifierServer <snapshot file> [port]");
+			System.exit(1);
+		}
+		String checkpointDir = System.getProperty("classifierServer.checkpointDir");
+		String logDir = System.getProperty("classifierServer.logDir");
+		final AxiomLog log = checkpointDir == null || logDir == null ? null : new AxiomLog(new File(logDir));
+		SIMClassifier classifier;
+		if (log != null)
+		{
+			classifier = AxiomLog.recover(new File(checkpointDir), new File(args[0]), log, 100000);
+		}
+		else
+		{
+			classifier = checkpointDir == null ? null : ClassifierCheckpoint.resume(new File(checkpointDir));
+		}
+		if (classifier == null)
+		{
+			classifier = new SIMClassifier(ReasonerSnapshot.load(new File(args[0])));
+			if (checkpointDir != null)
+			{
+				classifier.setSubmissionRegistry(new SubmissionRegistry());
+			}
+		}
+		final ClassifierCheckpoint checkpoint = checkpointDir == null ? null : new ClassifierCheckpoint(new File(checkpointDir), classifier,
+				Integer.getInteger("classifierServer.checkpointRetain", 3));
+		if (checkpoint != null)
+		{
+			checkpoint.schedule(Long.getLong("classifierServer.checkpointMinutes", 10), TimeUnit.MINUTES);
+		}
+
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+		final ClassifierServer server = new ClassifierServer(classifier, port, Integer.getInteger("classifierServer.threads",
+				Runtime.getRuntime().availableProcessors() * 4), Long.getLong("classifierServer.timeoutMillis", 60000));
+		Runtime.getRuntime().addShutdownHook(new Thread()
+		{
+			@Override
+			public void run()
+			{
+				server.stop();
+				if (checkpoint != null)
+				{
+					checkpoint.stop();
+					try
+					{
+						checkpoint.checkpointIfChanged();
+					}
+					catch (IOException e)
+					{
+						logger.error("Final checkpoint failed", e);
+					}
+				}
+				if (log != null)
+				{
+					try
+					{
+						log.close();
+					}
+					catch (IOException e)
+					{
+						logger.error("Closing the axiom log failed", e);
+					}
+				}
+			}
+		});
+		server.start();
+	}
+}
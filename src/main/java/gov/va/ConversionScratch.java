@@ -0,0 +1,108 @@
+package gov.va;
+
+import java.util.Arrays;
+import au.csiro.ontology.model.IConcept;
+
+/**
+ * Per thread scratch stacks for converting expressions to concepts (in {@link SIMClassifier} and {@link LegoClassifier}), in place of
+ * a list of conjuncts, and a map of sets of relations, for every expression node.  Each node pushes its conjuncts (and relations) above
+ * those of the nodes enclosing it, and releases them before it returns - so a conversion allocates nothing but the concepts it makes,
+ * once the stacks have grown to the deepest expression.
+ *
+ * Take the stacks with {@link #get()}, note the {@link #mark()}, and release back to it in a finally block.  The arrays may be replaced
+ * as they grow - fetch {@link #concepts()} after any nested conversion, never hold it across one.
+ */
+final class ConversionScratch
+{
+	private static final ThreadLocal<ConversionScratch> scratch = new ThreadLocal<ConversionScratch>()
+	{
+		@Override
+		protected ConversionScratch initialValue()
+		{
+			return new ConversionScratch();
+		}
+	};
+
+	private IConcept[] concepts = new IConcept[64];
+	private int conceptCount = 0;
+	private Object[] relations = new Object[64];
+	private int relationCount = 0;
+
+	static ConversionScratch get()
+	{
+		return scratch.get();
+	}
+
+	/**
+	 * The number of concepts on the stack - the start of the caller's concepts
+	 */
+	int mark()
+	{
+		return conceptCount;
+	}
+
+	void push(IConcept concept)
+	{
+		if (conceptCount == concepts.length)
+		{
+			concepts = Arrays.copyOf(concepts, conceptCount * 2);
+		}
+		concepts[conceptCount++] = concept;
+	}
+
+	IConcept get(int index)
+	{
+		return concepts[index];
+	}
+
+	/**
+	 * The concept stack itself - the caller's concepts are from its mark to {@link #mark()}
+	 */
+	IConcept[] concepts()
+	{
+		return concepts;
+	}
+
+	/**
+	 * A copy of the concepts from the mark to the top of the stack
+	 */
+	IConcept[] copy(int from)
+	{
+		return Arrays.copyOfRange(concepts, from, conceptCount);
+	}
+
+	/**
+	 * Pop back to the mark
+	 */
+	void release(int mark)
+	{
+		// cleared, so the stack doesn't keep concepts alive after they are cleared from the factory
+		Arrays.fill(concepts, mark, conceptCount, null);
+		conceptCount = mark;
+	}
+
+	int relationMark()
+	{
+		return relationCount;
+	}
+
+	void pushRelation(Object relation)
+	{
+		if (relationCount == relations.length)
+		{
+			relations = Arrays.copyOf(relations, relationCount * 2);
+		}
+		relations[relationCount++] = relation;
+	}
+
+	Object relation(int index)
+	{
+		return relations[index];
+	}
+
+	void releaseRelations(int mark)
+	{
+		Arrays.fill(relations, mark, relationCount, null);
+		relationCount = mark;
+	}
+}
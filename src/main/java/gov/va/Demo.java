@@ -11,16 +11,13 @@ import gov.va.legoEdit.model.schemaModel.LegoList;
 import gov.va.legoEdit.storage.sim.util.SchemaToSimConversions;
 import gov.va.sim.lego.LegoBI;
 import java.beans.PropertyVetoException;
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.nio.charset.StandardCharsets;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 import javax.xml.bind.JAXBException;
 import au.csiro.ontology.IOntology;
@@ -48,33 +45,30 @@ public Demo() {
     @SuppressWarnings("unchecked")
     public void start() throws JAXBException, PropertyVetoException, UnsupportedEncodingException, NoSuchAlgorithmException, IOException {
         
-        // 1. Load the base state
-    	System.out.println("Loading base state from classifier_uuid.state");
-        IReasoner<String> reasoner = SnorocketReasoner.load(
-                this.getClass().getResourceAsStream("/classifier_uuid.state"));
+        // 1. Load the base state - prefer the fast-start snapshot if one has 
+        // been converted (see ReasonerSnapshot)
+        IReasoner<String> reasoner;
+        File snapshot = new File("classifier_uuid.snapshot");
+        if (snapshot.isFile()) {
+            System.out.println("Loading base state from " + snapshot.getName());
+            reasoner = ReasonerSnapshot.load(snapshot);
+        } else {
+            System.out.println("Loading base state from classifier_uuid.state");
+            reasoner = SnorocketReasoner.load(new BufferedInputStream(
+                    this.getClass().getResourceAsStream("/classifier_uuid.state"), 
+                    1 << 20));
+        }
         
-        // 2. Load SCT to UUID map
-        System.out.println("Loading uuid description map");
-        Map<String, String> sctToUuidMap = new HashMap<>();
-        Map<String, String> uuidToDescMap = new HashMap<>();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
-                this.getClass().getResourceAsStream("/nid_sctid_uuid_map.txt"), 
-                StandardCharsets.UTF_8))) {
-            String line = null;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split("[,]");
-                String desc = "";
-                if(parts.length == 4) {
-                    desc = parts[3];
-                }
-                if(parts[1].equals("NA")) continue;
-                sctToUuidMap.put(parts[1], parts[2]);
-                uuidToDescMap.put(parts[2], desc);
-            }      
-        } catch (IOException e) {
-            e.printStackTrace();
-            return;
+        // 2. Load the SCT / UUID / description dictionary - built once from
+        // nid_sctid_uuid_map.txt, then memory mapped on each start
+        File dictionaryFile = new File("nid_sctid_uuid_map.dict");
+        if (!dictionaryFile.isFile()) {
+            System.out.println("Building uuid description dictionary");
+            SnomedDictionary.build(this.getClass().getResourceAsStream(
+                    "/nid_sctid_uuid_map.txt"), dictionaryFile);
         }
+        System.out.println("Loading uuid description dictionary");
+        SnomedDictionary dictionary = SnomedDictionary.open(dictionaryFile);
         
         // 2. Load Lego
         System.out.println(
@@ -118,7 +112,7 @@ public Demo() {
         		Utils.printTaxonomy(
         			node, 
         			ont.getBottomNode(), 
-        			uuidToDescMap
+        			dictionary.asDescriptionMap()
         		);
         	}
         }
@@ -0,0 +1,112 @@
+package gov.va;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non negative long values, with power of 2 buckets - bucket 0 holds 0, and bucket i holds
+ * [2^(i-1), 2^i).  Percentiles are reported as the upper bound of the bucket they fall in, so they are accurate to a factor of 2,
+ * which is plenty for batch sizes and latencies.
+ *
+ * Thread safe.
+ */
+public class Histogram
+{
+	private final String name;
+	private final String unit;
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	public Histogram(String name, String unit)
+	{
+		this.name = name;
+		this.unit = unit;
+	}
+
+	public void record(long value)
+	{
+		if (value < 0)
+		{
+			value = 0;
+		}
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long m;
+		while (value > (m = max.get()) && !max.compareAndSet(m, value))
+		{
+			// retry
+		}
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public long getCount()
+	{
+		return count.get();
+	}
+
+	public long getMax()
+	{
+		return max.get();
+	}
+
+	public double getMean()
+	{
+		long c = count.get();
+		return c == 0 ? 0 : (double) sum.get() / c;
+	}
+
+	/**
+	 * The upper bound of the bucket holding the given percentile (0 - 100), or 0 if nothing has been recorded.
+	 */
+	public long getPercentile(double percentile)
+	{
+		long[] snapshot = getBuckets();
+		long total = 0;
+		for (long b : snapshot)
+		{
+			total += b;
+		}
+		if (total == 0)
+		{
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++)
+		{
+			seen += snapshot[i];
+			if (seen >= Math.max(rank, 1))
+			{
+				return i == 0 ? 0 : Math.min((1L << i) - 1, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * A copy of the bucket counts
+	 */
+	public long[] getBuckets()
+	{
+		long[] result = new long[buckets.length()];
+		for (int i = 0; i < result.length; i++)
+		{
+			result[i] = buckets.get(i);
+		}
+		return result;
+	}
+
+	@Override
+	public String toString()
+	{
+		return name + ": count " + getCount() + ", mean " + String.format("%.1f", getMean()) + unit + ", p50 " + getPercentile(50) + unit
+				+ ", p90 " + getPercentile(90) + unit + ", p99 " + getPercentile(99) + unit + ", max " + getMax() + unit;
+	}
+}
@@ -0,0 +1,244 @@
+package gov.va;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * A bidirectional dictionary between the String identifiers used by the classifier API (UUIDs, and a few fixed names such as
+ * "RoleGroup") and dense numeric identifiers (0, 1, 2...).
+ *
+ * UUIDs are held as pairs of longs in parallel arrays, with an open addressing hash table over them, so the dictionary costs about 40
+ * bytes per UUID, rather than the ~150 bytes of a HashMap entry keyed by a UUID String.
+ *
+ * Thread safe.
+ */
+public class IdDictionary
+{
+	private static final int MAGIC = 0x4C434944; // "LCID"
+	private static final int FORMAT_VERSION = 1;
+
+	// by dense id
+	private long[] msb = new long[1024];
+	private long[] lsb = new long[1024];
+	private String[] names = new String[1024];
+	private int size = 0;
+
+	// open addressing hash table of (dense id + 1), 0 is empty
+	private int[] table = new int[2048];
+	private HashMap<String, Long> nameIds = new HashMap<>();
+
+	/**
+	 * Returns the dense id for the identifier, assigning the next id if it has not been seen before.
+	 */
+	public synchronized long getId(String id)
+	{
+		long result = lookup(id);
+		if (result >= 0)
+		{
+			return result;
+		}
+		return add(id);
+	}
+
+	/**
+	 * Returns the dense id for the identifier, or -1, if it is not in the dictionary.
+	 */
+	public synchronized long lookup(String id)
+	{
+		if (!isUUID(id))
+		{
+			Long l = nameIds.get(id);
+			return l == null ? -1 : l.longValue();
+		}
+		long m = hexBits(id, 0, 18);
+		long l = hexBits(id, 19, 36);
+		int mask = table.length - 1;
+		for (int slot = hash(m, l) & mask; table[slot] != 0; slot = (slot + 1) & mask)
+		{
+			int candidate = table[slot] - 1;
+			if (msb[candidate] == m && lsb[candidate] == l && names[candidate] == null)
+			{
+				return candidate;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the String identifier for the dense id.
+	 */
+	public synchronized String getIdentifier(long id)
+	{
+		if (id < 0 || id >= size)
+		{
+			throw new IllegalArgumentException("Unknown id " + id);
+		}
+		int i = (int) id;
+		return names[i] != null ? names[i] : new UUID(msb[i], lsb[i]).toString();
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	private long add(String id)
+	{
+		if (size == msb.length)
+		{
+			msb = Arrays.copyOf(msb, size * 2);
+			lsb = Arrays.copyOf(lsb, size * 2);
+			names = Arrays.copyOf(names, size * 2);
+		}
+		int dense = size;
+		if (!isUUID(id))
+		{
+			names[dense] = id;
+			nameIds.put(id, Long.valueOf(dense));
+		}
+		else
+		{
+			// keep the table at most half full
+			if ((dense + 1) * 2 > table.length)
+			{
+				rehash();
+			}
+			msb[dense] = hexBits(id, 0, 18);
+			lsb[dense] = hexBits(id, 19, 36);
+			insert(dense);
+		}
+		size++;
+		return dense;
+	}
+
+	private void insert(int dense)
+	{
+		int mask = table.length - 1;
+		int slot = hash(msb[dense], lsb[dense]) & mask;
+		while (table[slot] != 0)
+		{
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = dense + 1;
+	}
+
+	private void rehash()
+	{
+		table = new int[table.length * 2];
+		for (int i = 0; i < size; i++)
+		{
+			if (names[i] == null)
+			{
+				insert(i);
+			}
+		}
+	}
+
+	/**
+	 * Is the id a UUID in its canonical (lower case) string form?  The same test as {@link AxiomCodec#parseUUID(String)}, without
+	 * building a UUID, and its String again, on every lookup.
+	 */
+	static boolean isUUID(String id)
+	{
+		if (id.length() != 36)
+		{
+			return false;
+		}
+		for (int i = 0; i < 36; i++)
+		{
+			char c = id.charAt(i);
+			if (i == 8 || i == 13 || i == 18 || i == 23)
+			{
+				if (c != '-')
+				{
+					return false;
+				}
+			}
+			else if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f'))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The 64 bits of the hex digits in id[from, to), skipping dashes - call after {@link #isUUID(String)}
+	 */
+	private static long hexBits(String id, int from, int to)
+	{
+		long result = 0;
+		for (int i = from; i < to; i++)
+		{
+			char c = id.charAt(i);
+			if (c != '-')
+			{
+				result = (result << 4) | (c <= '9' ? c - '0' : c - 'a' + 10);
+			}
+		}
+		return result;
+	}
+
+	private static int hash(long m, long l)
+	{
+		long h = m * 0x9E3779B97F4A7C15L ^ l;
+		h ^= (h >>> 32);
+		return (int) (h ^ (h >>> 16));
+	}
+
+	public synchronized void save(File file) throws IOException
+	{
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+		{
+			dos.writeInt(MAGIC);
+			dos.writeInt(FORMAT_VERSION);
+			dos.writeInt(size);
+			for (int i = 0; i < size; i++)
+			{
+				if (names[i] == null)
+				{
+					dos.writeBoolean(true);
+					dos.writeLong(msb[i]);
+					dos.writeLong(lsb[i]);
+				}
+				else
+				{
+					dos.writeBoolean(false);
+					dos.writeUTF(names[i]);
+				}
+			}
+		}
+	}
+
+	public static IdDictionary load(File file) throws IOException
+	{
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION)
+			{
+				throw new IOException("Not an id dictionary: " + file.getAbsolutePath());
+			}
+			int count = dis.readInt();
+			IdDictionary d = new IdDictionary();
+			for (int i = 0; i < count; i++)
+			{
+				String id = dis.readBoolean() ? new UUID(dis.readLong(), dis.readLong()).toString() : dis.readUTF();
+				if (d.lookup(id) >= 0)
+				{
+					throw new IOException("Duplicate identifier " + id + " in " + file.getAbsolutePath());
+				}
+				d.add(id);
+			}
+			return d;
+		}
+	}
+}
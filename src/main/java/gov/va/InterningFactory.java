@@ -0,0 +1,366 @@
+package gov.va;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.csiro.ontology.Factory;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.ontology.model.ILiteral;
+import au.csiro.ontology.model.INamedFeature;
+import au.csiro.ontology.model.INamedRole;
+import au.csiro.ontology.model.IRole;
+import au.csiro.ontology.model.Operator;
+
+/**
+ * A hash-consing front end to the ontology {@link Factory}.  Each distinct concept, role, feature, literal and (structurally equal)
+ * sub-expression is created once, and the same instance is handed back on every later request - so a large Lego batch that refers to
+ * the same SNOMED concept thousands of times holds one object for it, rather than thousands.
+ *
+ * Named concepts, roles and features each have a table of their own, keyed by the id String itself, so the commonest lookup allocates
+ * nothing.  Sub-expressions are keyed on the (already canonical) instances of their parts, so a lookup never has to walk or hash a
+ * whole expression tree.  Conjunctions are keyed on their parts in order.
+ *
+ * Also canonicalizes the UUID to String conversion, see {@link #id(UUID)}.
+ *
+ * The tables are bounded - once they hold more than maxEntries objects (the interningFactory.maxEntries system property, by default
+ * 1M), they are dropped and start filling again.  Objects already handed out stay valid; later requests for them just get new
+ * instances, so a long running classifier (see {@link ClassifierServer}) holds at most one batch worth of duplicates, rather than
+ * every expression it has ever converted.  {@link #clear()} drops them on demand.
+ *
+ * Thread safe.
+ */
+public class InterningFactory
+{
+	static Logger logger = LoggerFactory.getLogger(InterningFactory.class);
+
+	private static final int CONCEPT = 0;
+	private static final int ROLE = 1;
+	private static final int FEATURE = 2;
+	private static final int EXISTENTIAL = 3;
+	private static final int CONJUNCTION = 4;
+	private static final int DATATYPE = 5;
+	private static final int LITERAL = 6;
+	private static final int ID = 7;
+	private static final String[] KIND_NAMES = new String[] {"concepts", "roles", "features", "existentials", "conjunctions", "datatypes",
+			"literals", "ids"};
+
+	private final Factory<String> f = new Factory<>();
+	private final ConcurrentHashMap<String, IConcept> concepts = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, INamedRole<String>> roles = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, INamedFeature<String>> features = new ConcurrentHashMap<>();
+	// everything else
+	private final ConcurrentHashMap<Key, Object> canonical = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<UUID, String> ids = new ConcurrentHashMap<>();
+	private final AtomicLongArray requested = new AtomicLongArray(KIND_NAMES.length);
+	private final AtomicLongArray created = new AtomicLongArray(KIND_NAMES.length);
+	private final int maxEntries;
+	private final AtomicInteger entries = new AtomicInteger();
+	private final AtomicLong trims = new AtomicLong();
+
+	public InterningFactory()
+	{
+		this(Integer.getInteger("interningFactory.maxEntries", 1 << 20));
+	}
+
+	/**
+	 * @param maxEntries - the number of interned objects (and ids) held before the tables are dropped
+	 */
+	public InterningFactory(int maxEntries)
+	{
+		if (maxEntries < 1)
+		{
+			throw new IllegalArgumentException("maxEntries must be positive");
+		}
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * The String form of the UUID - the same String instance every time for the same UUID.
+	 */
+	public String id(UUID uuid)
+	{
+		requested.incrementAndGet(ID);
+		String id = ids.get(uuid);
+		if (id == null)
+		{
+			String candidate = uuid.toString();
+			id = ids.putIfAbsent(uuid, candidate);
+			if (id == null)
+			{
+				created.incrementAndGet(ID);
+				added();
+				id = candidate;
+			}
+		}
+		return id;
+	}
+
+	public IConcept createConcept(String id)
+	{
+		requested.incrementAndGet(CONCEPT);
+		IConcept result = concepts.get(id);
+		return result != null ? result : put(concepts, CONCEPT, id, f.createConcept(id));
+	}
+
+	public INamedRole<String> createRole(String id)
+	{
+		requested.incrementAndGet(ROLE);
+		INamedRole<String> result = roles.get(id);
+		return result != null ? result : put(roles, ROLE, id, f.createRole(id));
+	}
+
+	public INamedFeature<String> createFeature(String id)
+	{
+		requested.incrementAndGet(FEATURE);
+		INamedFeature<String> result = features.get(id);
+		return result != null ? result : put(features, FEATURE, id, f.createFeature(id));
+	}
+
+	public IConcept createExistential(INamedRole<String> role, IConcept filler)
+	{
+		Key key = new Key(EXISTENTIAL, role, filler);
+		IConcept result = get(key);
+		return result != null ? result : put(key, f.createExistential(role, filler));
+	}
+
+	public IConcept createConjunction(IConcept... concepts)
+	{
+		return createConjunction(concepts, 0, concepts.length);
+	}
+
+	/**
+	 * The conjunction of concepts[from] to concepts[to - 1] - so a caller can pass its scratch array (see {@link ConversionScratch}),
+	 * which is only copied if the conjunction is new.
+	 */
+	public IConcept createConjunction(IConcept[] concepts, int from, int to)
+	{
+		IConcept result = get(new Key(CONJUNCTION, concepts, from, to - from));
+		if (result != null)
+		{
+			return result;
+		}
+		// the caller may reuse its array, so the key (and the conjunction) get a copy
+		IConcept[] copy = Arrays.copyOfRange(concepts, from, to);
+		return put(new Key(CONJUNCTION, (Object[]) copy), f.createConjunction(copy));
+	}
+
+	public IConcept createDatatype(INamedFeature<String> feature, Operator operator, ILiteral literal)
+	{
+		Key key = new Key(DATATYPE, feature, operator, literal);
+		IConcept result = get(key);
+		return result != null ? result : put(key, f.createDatatype(feature, operator, literal));
+	}
+
+	public ILiteral createDoubleLiteral(double value)
+	{
+		Key key = new Key(LITERAL, Double.valueOf(value));
+		ILiteral result = get(key);
+		return result != null ? result : put(key, f.createDoubleLiteral(value));
+	}
+
+	public ILiteral createLongLiteral(long value)
+	{
+		Key key = new Key(LITERAL, Long.valueOf(value));
+		ILiteral result = get(key);
+		return result != null ? result : put(key, f.createLongLiteral(value));
+	}
+
+	public ILiteral createStringLiteral(String value)
+	{
+		// tagged, so it can't collide with a concept id
+		Key key = new Key(LITERAL, String.class, value);
+		ILiteral result = get(key);
+		return result != null ? result : put(key, f.createStringLiteral(value));
+	}
+
+	public ILiteral createBooleanLiteral(boolean value)
+	{
+		Key key = new Key(LITERAL, Boolean.valueOf(value));
+		ILiteral result = get(key);
+		return result != null ? result : put(key, f.createBooleanLiteral(value));
+	}
+
+	/**
+	 * Axioms are not interned - they end up in a Set anyway.
+	 */
+	public IAxiom createConceptInclusion(IConcept lhs, IConcept rhs)
+	{
+		return f.createConceptInclusion(lhs, rhs);
+	}
+
+	public IAxiom createRoleInclusion(IRole[] lhs, IRole rhs)
+	{
+		return f.createRoleInclusion(lhs, rhs);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T get(Key key)
+	{
+		requested.incrementAndGet(key.kind);
+		return (T) canonical.get(key);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T put(Key key, T candidate)
+	{
+		return (T) put(canonical, key.kind, key, (Object) candidate);
+	}
+
+	private <K, V> V put(ConcurrentHashMap<K, V> table, int kind, K key, V candidate)
+	{
+		V existing = table.putIfAbsent(key, candidate);
+		if (existing == null)
+		{
+			created.incrementAndGet(kind);
+			added();
+			return candidate;
+		}
+		return existing;
+	}
+
+	/**
+	 * Drop the tables once they pass maxEntries.  Racing puts may overshoot by a few entries, which doesn't matter for a bound.
+	 */
+	private void added()
+	{
+		if (entries.incrementAndGet() > maxEntries)
+		{
+			synchronized (entries)
+			{
+				if (entries.get() > maxEntries)
+				{
+					clearTables();
+					entries.set(0);
+					trims.incrementAndGet();
+					logger.debug("Interned objects passed " + maxEntries + ", tables dropped");
+				}
+			}
+		}
+	}
+
+	private void clearTables()
+	{
+		concepts.clear();
+		roles.clear();
+		features.clear();
+		canonical.clear();
+		ids.clear();
+	}
+
+	/**
+	 * Forget everything interned so far (and reset the statistics).
+	 */
+	public void clear()
+	{
+		clearTables();
+		entries.set(0);
+		trims.set(0);
+		for (int i = 0; i < KIND_NAMES.length; i++)
+		{
+			requested.set(i, 0);
+			created.set(i, 0);
+		}
+	}
+
+	/**
+	 * The number of objects requested, against the number actually created, per kind.
+	 */
+	public String getStatistics()
+	{
+		StringBuilder sb = new StringBuilder();
+		long totalRequested = 0;
+		long totalCreated = 0;
+		for (int i = 0; i < KIND_NAMES.length; i++)
+		{
+			totalRequested += requested.get(i);
+			totalCreated += created.get(i);
+			sb.append(KIND_NAMES[i] + ": " + requested.get(i) + " requested, " + created.get(i) + " created; ");
+		}
+		sb.append("total: " + totalRequested + " requested, " + totalCreated + " created; " + entries.get() + " held, tables dropped "
+				+ trims.get() + " times");
+		return sb.toString();
+	}
+
+	/**
+	 * The parts of a key are either canonical instances (compared by identity), or values (Strings, numbers, booleans, Operators and
+	 * Class tags - compared with equals).
+	 */
+	private static final class Key
+	{
+		final int kind;
+		final Object[] parts;
+		final int offset;
+		final int length;
+		final int hash;
+
+		Key(int kind, Object... parts)
+		{
+			this(kind, parts, 0, parts.length);
+		}
+
+		/**
+		 * A key over part of the array - only for lookups, as the array isn't copied
+		 */
+		Key(int kind, Object[] parts, int offset, int length)
+		{
+			this.kind = kind;
+			this.parts = parts;
+			this.offset = offset;
+			this.length = length;
+			int h = kind;
+			for (int i = offset; i < offset + length; i++)
+			{
+				Object o = parts[i];
+				h = 31 * h + (isValue(o) ? o.hashCode() : System.identityHashCode(o));
+			}
+			this.hash = h;
+		}
+
+		private static boolean isValue(Object o)
+		{
+			return o instanceof String || o instanceof Number || o instanceof Boolean || o instanceof Operator || o instanceof Class;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+			{
+				return false;
+			}
+			Key other = (Key) obj;
+			if (other.kind != kind || other.hash != hash || other.length != length)
+			{
+				return false;
+			}
+			for (int i = 0; i < length; i++)
+			{
+				Object a = parts[offset + i];
+				Object b = other.parts[other.offset + i];
+				if (a != b && !(isValue(a) && a.equals(b)))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public String toString()
+		{
+			return KIND_NAMES[kind] + Arrays.toString(Arrays.copyOfRange(parts, offset, offset + length));
+		}
+	}
+}
@@ -1,6 +1,5 @@
 package gov.va;
 
-import gov.va.legoEdit.formats.LegoXMLUtils;
 import gov.va.legoEdit.model.schemaModel.Assertion;
 import gov.va.legoEdit.model.schemaModel.Bound;
 import gov.va.legoEdit.model.schemaModel.Concept;
@@ -8,7 +7,6 @@ import gov.va.legoEdit.model.schemaModel.Destination;
 import gov.va.legoEdit.model.schemaModel.Expression;
 import gov.va.legoEdit.model.schemaModel.Interval;
 import gov.va.legoEdit.model.schemaModel.Lego;
-import gov.va.legoEdit.model.schemaModel.LegoList;
 import gov.va.legoEdit.model.schemaModel.Measurement;
 import gov.va.legoEdit.model.schemaModel.Point;
 import gov.va.legoEdit.model.schemaModel.PointDouble;
@@ -18,18 +16,20 @@ import gov.va.legoEdit.model.schemaModel.Relation;
 import gov.va.legoEdit.model.schemaModel.RelationGroup;
 import gov.va.legoEdit.model.schemaModel.Type;
 import java.io.File;
-import java.io.UnsupportedEncodingException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.security.InvalidParameterException;
-import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import au.csiro.ontology.Factory;
-import au.csiro.ontology.IOntology;
-import au.csiro.ontology.Node;
 import au.csiro.ontology.axioms.IAxiom;
 import au.csiro.ontology.classification.IReasoner;
 import au.csiro.ontology.model.IConcept;
@@ -54,6 +54,7 @@ public class LegoClassifier
 	IReasoner<String> reasoner;
 	Factory<String> f = new Factory<>();
 	Set<String> conceptIds = new HashSet<>();
+	Set<String> definedConcepts = new LinkedHashSet<>();
 	INamedRole<String> roleGroup = f.createRole("RoleGroup");
 	HashSet<IAxiom> unclassifiedAxioms = new HashSet<>();
 
@@ -69,55 +70,69 @@ public class LegoClassifier
 
 	public void classifyAxioms()
 	{
+		long start = ClassifierMetrics.start();
+		Object event = ClassifierEvents.begin(ClassifierEvents.Kind.CLASSIFICATION);
 		reasoner.classify(unclassifiedAxioms);
+		ClassifierEvents.commit(event, "LegoClassifier", unclassifiedAxioms.size());
+		ClassifierMetrics.stop(ClassifierMetrics.Phase.CLASSIFY, start);
 		unclassifiedAxioms.clear();
+		if (ClassifierMetrics.isEnabled())
+		{
+			ClassifierMetrics.classified(reasoner.getClassifiedOntology().getNodeMap().size());
+		}
 	}
 
+	/**
+	 * The summary of every concept referenced so far - which includes every SNOMED concept, unit and role used by the Legos.  For large
+	 * batches, use {@link #writeClassificationSummary(Writer, boolean)} instead.
+	 */
 	public String getClassificationSummary()
 	{
-		StringBuilder sb = new StringBuilder();
+		StringWriter sw = new StringWriter();
+		try
+		{
+			writeClassificationSummary(sw, false);
+		}
+		catch (IOException e)
+		{
+			// not from a StringWriter
+			throw new RuntimeException(e);
+		}
+		return sw.toString();
+	}
 
-		// The taxonomy contains the inferred hierarchy
-		IOntology<String> t = reasoner.getClassifiedOntology();
+	/**
+	 * Write the classification summary one concept at a time - memory use doesn't grow with the size of the summary.  The writer is
+	 * flushed, not closed.
+	 *
+	 * @param definedOnly - only the concepts defined by the Legos converted since {@link #clearDefinedConcepts()}, rather than every
+	 *            concept referenced
+	 */
+	public void writeClassificationSummary(Writer out, boolean definedOnly) throws IOException
+	{
+		ClassificationSummary.write(reasoner.getClassifiedOntology(), definedOnly ? definedConcepts : conceptIds, out, eol);
+	}
 
-		for (String s : conceptIds)
-		{
-			// We can look for nodes using the concept ids.
-			Node<String> newNode = t.getNode(s);
-			if (newNode == null)
-			{
-				sb.append("No Node " + s);
-				sb.append(eol);
-			}
-			else
-			{
-				sb.append("Equivalent Concepts " + newNode.getEquivalentConcepts());
-				sb.append(eol);
-
-				// We can now look for the parent and child nodes
-				Set<Node<String>> parentNodes = newNode.getParents();
-				sb.append("Parents:");
-				sb.append(eol);
-				for (Node<String> parentNode : parentNodes)
-				{
-					sb.append("  " + parentNode.getEquivalentConcepts());
-					sb.append(eol);
-				}
+	/**
+	 * The typed classification results of the concepts defined by the Legos converted since {@link #clearDefinedConcepts()}, read
+	 * lazily - don't classify while reading them.
+	 */
+	public ClassificationResults getClassificationResults()
+	{
+		return new ClassificationResults(reasoner.getClassifiedOntology(), definedConcepts);
+	}
 
-				Set<Node<String>> childNodes = newNode.getChildren();
-				sb.append("Children:");
-				sb.append(eol);
-				for (Node<String> childNode : childNodes)
-				{
-					sb.append("  " + childNode.getEquivalentConcepts());
-					sb.append(eol);
-				}
-			}
+	/**
+	 * The ids of the concepts defined (by an expression) by the Legos converted since {@link #clearDefinedConcepts()}
+	 */
+	public Set<String> getDefinedConcepts()
+	{
+		return definedConcepts;
+	}
 
-			sb.append("=====================================");
-			sb.append(eol);
-		}
-		return sb.toString();
+	public void clearDefinedConcepts()
+	{
+		definedConcepts.clear();
 	}
 
 	public void convertToAxioms(Lego... legos)
@@ -125,6 +140,9 @@ public class LegoClassifier
 		for (Lego l : legos)
 		{
 			logger.debug("Converting Lego " + l.getLegoUUID() + " to axioms");
+			long start = ClassifierMetrics.start();
+			Object event = ClassifierEvents.begin(ClassifierEvents.Kind.LEGO_CONVERSION);
+			int before = unclassifiedAxioms.size();
 			for (Assertion a : l.getAssertion())
 			{
 				// assertion components don't need classifying
@@ -182,96 +200,134 @@ public class LegoClassifier
 					logger.debug("Timing information is not classified");
 				}
 			}
+			ClassifierEvents.commit(event, String.valueOf(l.getLegoUUID()), unclassifiedAxioms.size() - before);
+			ClassifierMetrics.stop(ClassifierMetrics.Phase.PROCESS, start);
+			ClassifierMetrics.legoConverted(unclassifiedAxioms.size() - before);
 		}
 	}
 
+	/**
+	 * Convert the Legos from the reader one at a time, so only one Lego needs to be in memory at once.
+	 * 
+	 * @return the number of Legos converted
+	 */
+	public int convertToAxioms(LegoStreamReader legos) throws XMLStreamException, JAXBException
+	{
+		Lego l;
+		while ((l = legos.next()) != null)
+		{
+			convertToAxioms(l);
+		}
+		return legos.getCount();
+	}
+
 	/**
 	 * This method returns the right hand side of a concept inclusion axiom derived from an {@link Expression}.
 	 * 
+	 * The conjuncts are kept on the thread's {@link ConversionScratch} stack, rather than in collections of their own.
+	 * 
 	 * @param expression
 	 */
 	private IConcept process(Expression expression)
 	{
-		// The list of conjuncts that will be returned
-		List<IConcept> rhs = new ArrayList<IConcept>();
-
-		// 1. Process the focus concept
 		if (expression == null)
 		{
 			return null;
 		}
-		else if (expression.getConcept() != null)
-		{
-			rhs.add(f.createConcept(getIdForConcept(expression.getConcept())));
-		}
-		else if (expression.getExpression().size() > 0)
+
+		// The conjuncts that will be returned, on the stack from rhs up
+		ConversionScratch s = ConversionScratch.get();
+		int rhs = s.mark();
+		try
 		{
-			for (Expression e : expression.getExpression())
+			// 1. Process the focus concept
+			if (expression.getConcept() != null)
 			{
-				rhs.add(process(e));
+				s.push(f.createConcept(getIdForConcept(expression.getConcept())));
+			}
+			else if (expression.getExpression().size() > 0)
+			{
+				List<Expression> expressions = expression.getExpression();
+				for (int i = 0; i < expressions.size(); i++)
+				{
+					s.push(process(expressions.get(i)));
+				}
+			}
+			else
+			{
+				throw new RuntimeException("unexpected case - missing expression?");
 			}
-		}
-		else
-		{
-			throw new RuntimeException("unexpected case - missing expression?");
-		}
-
-		// 2. Process the relations
 
-		// Build role groups
-		List<Set<Relation>> relGroups = new ArrayList<>();
-		relGroups.add(new HashSet<Relation>()); // group 0
-		// Put ungrouped relations to group 0
-		relGroups.get(0).addAll(expression.getRelation());
+			// 2. Process the relations - each distinct relation once per group
 
-		for (RelationGroup rg : expression.getRelationGroup())
-		{
-			relGroups.add(new HashSet<Relation>(rg.getRelation()));
-		}
-
-		// Process relationships
-		for (int i = 0; i < relGroups.size(); i++)
-		{
-			Set<Relation> relGroup = relGroups.get(i);
-			if (i == 0)
+			// Special case - not grouped
+			List<Relation> relations = expression.getRelation();
+			for (int i = 0; i < relations.size(); i++)
 			{
-				// Special case - not grouped
-				for (Relation r : relGroup)
+				if (!seenBefore(relations, i))
 				{
-					IConcept temp = processRelationship(r);
+					IConcept temp = processRelationship(relations.get(i));
 					if (temp != null)
 					{
-						rhs.add(temp);
+						s.push(temp);
 					}
 				}
 			}
-			else
+
+			List<RelationGroup> relationGroups = expression.getRelationGroup();
+			for (int g = 0; g < relationGroups.size(); g++)
 			{
 				// All of these have to be grouped
-				List<IConcept> conjs = new ArrayList<>();
-				for (Relation r : relGroup)
+				int conjs = s.mark();
+				relations = relationGroups.get(g).getRelation();
+				for (int i = 0; i < relations.size(); i++)
 				{
-					IConcept temp = processRelationship(r);
-					if (temp != null)
+					if (!seenBefore(relations, i))
 					{
-						conjs.add(temp);
+						IConcept temp = processRelationship(relations.get(i));
+						if (temp != null)
+						{
+							s.push(temp);
+						}
 					}
 				}
-				IConcept rg = f.createExistential(roleGroup, f.createConjunction(conjs.toArray(new IConcept[conjs.size()])));
-				rhs.add(rg);
+				// the Factory keeps the array it is given, so the conjunction gets a copy of the stack
+				IConcept rg = f.createExistential(roleGroup, f.createConjunction(s.copy(conjs)));
+				s.release(conjs);
+				s.push(rg);
 			}
-		}
 
-		assert (!rhs.isEmpty());
+			assert (s.mark() > rhs);
 
-		if (rhs.size() == 1)
+			if (s.mark() - rhs == 1)
+			{
+				return s.get(rhs);
+			}
+			else
+			{
+				return f.createConjunction(s.copy(rhs));
+			}
+		}
+		finally
 		{
-			return rhs.get(0);
+			s.release(rhs);
 		}
-		else
+	}
+
+	/**
+	 * Is there a relation equal to relation i before it in the list?
+	 */
+	private static boolean seenBefore(List<Relation> relations, int i)
+	{
+		Relation r = relations.get(i);
+		for (int j = 0; j < i; j++)
 		{
-			return f.createConjunction(rhs.toArray(new IConcept[rhs.size()]));
+			if (relations.get(j).equals(r))
+			{
+				return true;
+			}
 		}
+		return false;
 	}
 
 	private IConcept processMeasurement(INamedFeature<String> feature, Measurement measurement)
@@ -487,6 +543,7 @@ public class LegoClassifier
 		UUID uuid = UUID.nameUUIDFromBytes(sb.toString().getBytes());
 		logger.debug("Created " + uuid.toString() + " from " + sb.toString());
 		conceptIds.add(uuid.toString());
+		definedConcepts.add(uuid.toString());
 		return uuid.toString();
 	}
 
@@ -570,15 +627,8 @@ public class LegoClassifier
 		}
 		else if (c.getSctid() != null)
 		{
-			// This is how snomed UUIDs are calculated
-			try
-			{
-				id = UUID.nameUUIDFromBytes(("org.snomed." + c.getSctid().toString()).getBytes("8859_1")).toString();
-			}
-			catch (UnsupportedEncodingException e)
-			{
-				throw new RuntimeException(e);
-			}
+			// This is how snomed UUIDs are calculated - see SctidResolver
+			id = SctidResolver.getDefault().resolve(c.getSctid().longValue());
 		}
 		else
 		{
@@ -645,33 +695,10 @@ public class LegoClassifier
 	/**
 	 * @param args
 	 */
-	public static void main(String[] args)
+	public static void main(String[] args) throws InterruptedException
 	{
-		ArrayList<Lego> legos = new ArrayList<Lego>();
-		for (File f : new File("legos").listFiles())
-		{
-			if (f.exists() && f.isFile() && f.getName().toLowerCase().endsWith(".xml"))
-			{
-				try
-				{
-					LegoXMLUtils.validate((f));
-					LegoList ll = LegoXMLUtils.readLegoList(f);
-					logger.info("Reading " + f.getAbsolutePath());
-					for (Lego l : ll.getLego())
-					{
-						legos.add(l);
-					}
-
-				}
-				catch (Exception ex)
-				{
-					logger.error("Error reading file " + f.getName(), ex);
-				}
-			}
-		}
-
 		LegoClassifier lc = new LegoClassifier(new SnorocketReasoner<String>());
-		lc.convertToAxioms(legos.toArray(new Lego[legos.size()]));
+		LegoPipeline.forSchema(lc).run(new File("legos").listFiles());
 
 		System.out.println("******************************************");
 		System.out.println("Converted Axioms");
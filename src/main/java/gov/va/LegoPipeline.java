@@ -0,0 +1,486 @@
+package gov.va;
+
+import gov.va.legoEdit.model.schemaModel.Lego;
+import gov.va.legoEdit.model.schemaModel.LegoList;
+import gov.va.sim.lego.LegoBI;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A multi-stage ingestion pipeline for directories of Lego XML files.
+ *
+ * Stage 1 (parse) - a pool of workers validates and reads files (in a single pass, see {@link LegoXMLReader}), and pushes each Lego
+ * onto a bounded queue.
+ * Stage 2 (convert) - a pool of workers converts each Lego (for example, to the SIM-API) and pushes the result onto a second bounded queue.
+ * Stage 3 (collect) - the thread calling {@link #run(File...)} hands each converted item to the {@link Collector}, one at a time.
+ *
+ * Since the collect stage is single threaded, the collector may safely feed a (non thread safe) classifier.  The bounded queues keep
+ * a fast parse stage from running ahead of a slow collector and filling the heap.
+ *
+ * Items are collected in input order - the order of the files passed in, and of the Legos within each file - whatever the number of
+ * workers, so the classifier's defined concepts (and so its summaries) come out the same on every run.  Parsed files are queued in
+ * file order, each Lego numbered as it is queued, and the collector holds items that finish converting early until their turn.  A
+ * converter waits rather than finish more than queueCapacity items ahead of the collector, which bounds that reorder buffer.
+ *
+ * Files that fail to validate or read are logged and skipped, as are Legos that fail to convert or collect.
+ */
+public class LegoPipeline<T>
+{
+	static Logger logger = LoggerFactory.getLogger(LegoPipeline.class);
+	private static final Object END = new Object();
+	// stands in for a Lego that failed to convert, so the collector doesn't wait for it
+	private static final Object FAILED = new Object();
+
+	public interface Converter<T>
+	{
+		public T convert(Lego lego) throws Exception;
+	}
+
+	public interface Collector<T>
+	{
+		public void collect(T item) throws Exception;
+	}
+
+	/**
+	 * Per-stage throughput counters.
+	 */
+	public static class Stage
+	{
+		private final String name;
+		final AtomicLong processed = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final AtomicLong busyNanos = new AtomicLong();
+
+		Stage(String name)
+		{
+			this.name = name;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public long getProcessed()
+		{
+			return processed.get();
+		}
+
+		public long getFailed()
+		{
+			return failed.get();
+		}
+
+		/**
+		 * Total time spent by all workers of this stage doing work (not waiting on queues).
+		 */
+		public long getBusyMillis()
+		{
+			return TimeUnit.NANOSECONDS.toMillis(busyNanos.get());
+		}
+
+		@Override
+		public String toString()
+		{
+			long busy = getBusyMillis();
+			return name + ": " + getProcessed() + " processed, " + getFailed() + " failed, " + busy + "ms busy"
+					+ (busy > 0 ? ", " + (getProcessed() * 1000 / busy) + "/s per worker" : "");
+		}
+	}
+
+	private final Converter<T> converter;
+	private final Collector<T> collector;
+	private final int parseWorkers;
+	private final int convertWorkers;
+	private final int queueCapacity;
+
+	private final Stage parseStage = new Stage("parse");
+	private final Stage convertStage = new Stage("convert");
+	private final Stage collectStage = new Stage("collect");
+	private long wallMillis;
+
+	public LegoPipeline(Converter<T> converter, Collector<T> collector, int parseWorkers, int convertWorkers, int queueCapacity)
+	{
+		if (parseWorkers < 1 || convertWorkers < 1 || queueCapacity < 1)
+		{
+			throw new IllegalArgumentException("Worker counts and queue capacity must be positive");
+		}
+		this.converter = converter;
+		this.collector = collector;
+		this.parseWorkers = parseWorkers;
+		this.convertWorkers = convertWorkers;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Uses the system properties legoPipeline.parseWorkers, legoPipeline.convertWorkers and legoPipeline.queueCapacity when set,
+	 * otherwise half the available processors for each worker pool, and queues of 256.
+	 */
+	public LegoPipeline(Converter<T> converter, Collector<T> collector)
+	{
+		this(converter, collector, Integer.getInteger("legoPipeline.parseWorkers", defaultWorkers()), 
+				Integer.getInteger("legoPipeline.convertWorkers", defaultWorkers()), Integer.getInteger("legoPipeline.queueCapacity", 256));
+	}
+
+	static int defaultWorkers()
+	{
+		return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	}
+
+	/**
+	 * A pipeline that converts each Lego to the SIM-API, and feeds it into the {@link SIMClassifier}.
+	 */
+	public static LegoPipeline<LegoBI> forSIM(final SIMClassifier classifier)
+	{
+		return new LegoPipeline<>(new Converter<LegoBI>()
+		{
+			@Override
+			public LegoBI convert(Lego lego) throws Exception
+			{
+				return SIMClassifier.toSIM(lego);
+			}
+		}, new Collector<LegoBI>()
+		{
+			@Override
+			public void collect(LegoBI lego) throws Exception
+			{
+				classifier.convertToAxioms(lego);
+			}
+		});
+	}
+
+	/**
+	 * A pipeline that feeds the schema model Legos directly into the {@link LegoClassifier}.
+	 */
+	public static LegoPipeline<Lego> forSchema(final LegoClassifier classifier)
+	{
+		return new LegoPipeline<>(new Converter<Lego>()
+		{
+			@Override
+			public Lego convert(Lego lego)
+			{
+				return lego;
+			}
+		}, new Collector<Lego>()
+		{
+			@Override
+			public void collect(Lego lego)
+			{
+				classifier.convertToAxioms(lego);
+			}
+		});
+	}
+
+	/**
+	 * Process all of the .xml files in the passed in list (other files and folders are ignored).  Returns once every Lego has been
+	 * collected.
+	 */
+	public void run(File... files) throws InterruptedException
+	{
+		long start = System.currentTimeMillis();
+		final List<File> fileList = new ArrayList<>();
+		for (File f : files)
+		{
+			if (f.exists() && f.isFile() && f.getName().toLowerCase().endsWith(".xml"))
+			{
+				fileList.add(f);
+			}
+		}
+
+		final BlockingQueue<Object> legoQueue = new ArrayBlockingQueue<>(queueCapacity);
+		final BlockingQueue<Object> convertedQueue = new ArrayBlockingQueue<>(queueCapacity);
+		final AtomicInteger nextFile = new AtomicInteger();
+		final Order order = new Order();
+		final AtomicInteger runningParsers = new AtomicInteger(parseWorkers);
+		final AtomicInteger runningConverters = new AtomicInteger(convertWorkers);
+
+		ExecutorService executor = Executors.newFixedThreadPool(parseWorkers + convertWorkers);
+		try
+		{
+			for (int i = 0; i < parseWorkers; i++)
+			{
+				executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							int index;
+							while ((index = nextFile.getAndIncrement()) < fileList.size())
+							{
+								parse(index, fileList.get(index), legoQueue, order);
+							}
+						}
+						catch (InterruptedException e)
+						{
+							Thread.currentThread().interrupt();
+						}
+						finally
+						{
+							if (runningParsers.decrementAndGet() == 0)
+							{
+								endStage(legoQueue, convertWorkers);
+							}
+						}
+					}
+				});
+			}
+
+			for (int i = 0; i < convertWorkers; i++)
+			{
+				executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							Object o;
+							while ((o = legoQueue.take()) != END)
+							{
+								convert((Item) o, convertedQueue, order);
+							}
+						}
+						catch (InterruptedException e)
+						{
+							Thread.currentThread().interrupt();
+						}
+						finally
+						{
+							if (runningConverters.decrementAndGet() == 0)
+							{
+								endStage(convertedQueue, 1);
+							}
+						}
+					}
+				});
+			}
+
+			// items that finished converting ahead of their turn
+			HashMap<Long, Object> early = new HashMap<>();
+			long next = 0;
+			Object o;
+			while ((o = convertedQueue.take()) != END)
+			{
+				Item item = (Item) o;
+				if (item.sequence != next)
+				{
+					early.put(item.sequence, item.value);
+					continue;
+				}
+				Object value = item.value;
+				do
+				{
+					if (value != FAILED)
+					{
+						collect(value);
+					}
+					next++;
+					order.collected(next);
+				}
+				while ((value = early.remove(next)) != null);
+			}
+			if (!early.isEmpty())
+			{
+				logger.error(early.size() + " converted Legos were never collected - Lego " + next + " never arrived");
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+			wallMillis = System.currentTimeMillis() - start;
+		}
+		logger.info("Pipeline finished in " + wallMillis + "ms - " + parseStage + "; " + convertStage + "; " + collectStage);
+	}
+
+	/**
+	 * Parse the file, then wait for the files before it to be queued, and queue its Legos.
+	 */
+	private void parse(int fileIndex, File f, BlockingQueue<Object> out, Order order) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		List<Lego> legos = Collections.emptyList();
+		try
+		{
+			LegoList ll = LegoXMLReader.read(f);
+			logger.info("Reading " + f.getAbsolutePath());
+			legos = ll.getLego();
+			parseStage.processed.incrementAndGet();
+		}
+		catch (Exception ex)
+		{
+			logger.error("Error reading file " + f.getName(), ex);
+			parseStage.failed.incrementAndGet();
+		}
+		finally
+		{
+			parseStage.busyNanos.addAndGet(System.nanoTime() - start);
+		}
+		// a failed file still takes its turn (with no Legos), or the files after it would wait forever
+		long sequence = order.awaitTurn(fileIndex);
+		try
+		{
+			for (Lego l : legos)
+			{
+				out.put(new Item(sequence++, l));
+			}
+		}
+		finally
+		{
+			order.endTurn(sequence);
+		}
+	}
+
+	private void convert(Item item, BlockingQueue<Object> out, Order order) throws InterruptedException
+	{
+		long start = System.nanoTime();
+		Object converted;
+		try
+		{
+			converted = converter.convert((Lego) item.value);
+			convertStage.processed.incrementAndGet();
+		}
+		catch (Exception ex)
+		{
+			logger.error("Error converting Lego " + ((Lego) item.value).getLegoUUID(), ex);
+			convertStage.failed.incrementAndGet();
+			converted = FAILED;
+		}
+		finally
+		{
+			convertStage.busyNanos.addAndGet(System.nanoTime() - start);
+		}
+		order.awaitWindow(item.sequence, queueCapacity);
+		out.put(new Item(item.sequence, converted));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void collect(Object item)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			collector.collect((T) item);
+			collectStage.processed.incrementAndGet();
+		}
+		catch (Exception ex)
+		{
+			logger.error("Error collecting " + item, ex);
+			collectStage.failed.incrementAndGet();
+		}
+		finally
+		{
+			collectStage.busyNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	private static void endStage(BlockingQueue<Object> queue, int consumers)
+	{
+		for (int i = 0; i < consumers; i++)
+		{
+			try
+			{
+				queue.put(END);
+			}
+			catch (InterruptedException e)
+			{
+				// The collector is gone (run() was interrupted) - nobody is left to wait on these.
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * A Lego (or converted item), and its place in the input order.
+	 */
+	private static final class Item
+	{
+		final long sequence;
+		final Object value;
+
+		Item(long sequence, Object value)
+		{
+			this.sequence = sequence;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * The ordering state shared by the stages of one run - which file may queue its Legos next, the sequence number of the next Lego
+	 * queued, and how many items have been collected.
+	 */
+	private static final class Order
+	{
+		private int fileTurn = 0;
+		private long nextSequence = 0;
+		private long collected = 0;
+
+		/**
+		 * Wait until the files before this one have queued their Legos, and return the sequence number of this file's first Lego.
+		 */
+		synchronized long awaitTurn(int fileIndex) throws InterruptedException
+		{
+			while (fileTurn != fileIndex)
+			{
+				wait();
+			}
+			return nextSequence;
+		}
+
+		synchronized void endTurn(long nextSequence)
+		{
+			this.nextSequence = nextSequence;
+			fileTurn++;
+			notifyAll();
+		}
+
+		/**
+		 * Wait until the item is fewer than window items ahead of the collector.  The next item to be collected never waits, so the
+		 * collector always gets it.
+		 */
+		synchronized void awaitWindow(long sequence, int window) throws InterruptedException
+		{
+			while (sequence - collected >= window)
+			{
+				wait();
+			}
+		}
+
+		synchronized void collected(long collected)
+		{
+			this.collected = collected;
+			notifyAll();
+		}
+	}
+
+	public List<Stage> getStages()
+	{
+		List<Stage> result = new ArrayList<>();
+		result.add(parseStage);
+		result.add(convertStage);
+		result.add(collectStage);
+		return result;
+	}
+
+	/**
+	 * Wall clock time of the last {@link #run(File...)}
+	 */
+	public long getWallMillis()
+	{
+		return wallMillis;
+	}
+}
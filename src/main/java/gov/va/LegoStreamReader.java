@@ -0,0 +1,127 @@
+package gov.va;
+
+import gov.va.legoEdit.model.schemaModel.Lego;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the Legos out of a LegoList XML file one at a time, using StAX to find each lego element, and JAXB to unmarshal just that
+ * element.  Unlike LegoXMLUtils.readLegoList, only a single Lego is in memory at a time, no matter how large the file is.
+ *
+ * Usage:
+ * <pre>
+ * try (LegoStreamReader reader = new LegoStreamReader(file))
+ * {
+ *     Lego l;
+ *     while ((l = reader.next()) != null)
+ *     {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ *
+ * See {@link LegoClassifier#convertToAxioms(LegoStreamReader)} and {@link SIMClassifier#convertToAxioms(LegoStreamReader)}.
+ *
+ * This reader does not validate - use LegoXMLUtils.validate first if the file isn't trusted.  Instances are not thread safe.
+ */
+public class LegoStreamReader implements Closeable
+{
+	private static final XMLInputFactory inputFactory;
+
+	static
+	{
+		inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+	}
+
+	private InputStream is;
+	private XMLStreamReader reader;
+	private Unmarshaller unmarshaller;
+	private int count = 0;
+
+	public LegoStreamReader(File legoFile) throws IOException, JAXBException, XMLStreamException
+	{
+		this(new FileInputStream(legoFile));
+	}
+
+	/**
+	 * The stream will be closed when this reader is closed.
+	 */
+	public LegoStreamReader(InputStream legoStream) throws JAXBException, XMLStreamException
+	{
+		is = new BufferedInputStream(legoStream, 1 << 16);
+		try
+		{
+			synchronized (inputFactory)
+			{
+				reader = inputFactory.createXMLStreamReader(is);
+			}
+			unmarshaller = LegoXMLReader.getContext().createUnmarshaller();
+		}
+		catch (XMLStreamException | JAXBException | RuntimeException e)
+		{
+			try
+			{
+				is.close();
+			}
+			catch (IOException e1)
+			{
+				// ignore, report the original problem
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the next Lego in the file, or null, if there are no more Legos.
+	 */
+	public Lego next() throws XMLStreamException, JAXBException
+	{
+		while (reader.hasNext())
+		{
+			// unmarshal leaves the reader on the event following the end of the lego, so check before advancing
+			if (reader.isStartElement() && "lego".equals(reader.getLocalName()))
+			{
+				count++;
+				return unmarshaller.unmarshal(reader, Lego.class).getValue();
+			}
+			reader.next();
+		}
+		return null;
+	}
+
+	/**
+	 * The number of Legos read so far
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			reader.close();
+		}
+		catch (XMLStreamException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package gov.va;
+
+import gov.va.legoEdit.formats.LegoXMLUtils;
+import gov.va.legoEdit.model.schemaModel.LegoList;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.UnmarshalException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.bind.ValidationEvent;
+import javax.xml.bind.ValidationEventHandler;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Reads and validates a LegoList in a single pass, rather than calling LegoXMLUtils.validate and then LegoXMLUtils.readLegoList
+ * (which reads and parses every file twice).
+ *
+ * The compiled LEGO schema and the JAXBContext are shared (both are thread safe), and the (non thread safe) Unmarshallers are pooled,
+ * so this class may be used from many threads at once - see {@link LegoPipeline}.
+ *
+ * A file that does not validate causes a SAXParseException, carrying the line, column and message of the first problem found, just
+ * as LegoXMLUtils.validate reports it.
+ */
+public class LegoXMLReader
+{
+	public static final String SCHEMA_RESOURCE = "/LEGO.xsd";
+
+	private static volatile JAXBContext context;
+	private static volatile Schema schema;
+	private static final ConcurrentLinkedQueue<Unmarshaller> pool = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * The JAXBContext for the Lego schema model classes.
+	 */
+	static JAXBContext getContext() throws JAXBException
+	{
+		if (context == null)
+		{
+			synchronized (LegoXMLReader.class)
+			{
+				if (context == null)
+				{
+					context = JAXBContext.newInstance(LegoList.class);
+				}
+			}
+		}
+		return context;
+	}
+
+	/**
+	 * The compiled LEGO schema, loaded from the lego-editor jar.
+	 */
+	static Schema getSchema() throws SAXException, IOException
+	{
+		if (schema == null)
+		{
+			synchronized (LegoXMLReader.class)
+			{
+				if (schema == null)
+				{
+					URL xsd = LegoXMLUtils.class.getResource(SCHEMA_RESOURCE);
+					if (xsd == null)
+					{
+						throw new IOException("Could not find the schema " + SCHEMA_RESOURCE + " on the classpath");
+					}
+					schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(xsd);
+				}
+			}
+		}
+		return schema;
+	}
+
+	/**
+	 * Validate and read the file.
+	 */
+	public static LegoList read(File legoFile) throws IOException, SAXException, JAXBException
+	{
+		try (InputStream is = new FileInputStream(legoFile))
+		{
+			return read(is, legoFile.toURI().toString());
+		}
+	}
+
+	/**
+	 * Validate and read the stream.  The stream is not closed.
+	 *
+	 * @param systemId - used to identify the source in error messages - may be null
+	 */
+	public static LegoList read(InputStream legoStream, String systemId) throws IOException, SAXException, JAXBException
+	{
+		long start = ClassifierMetrics.start();
+		Unmarshaller u = pool.poll();
+		if (u == null)
+		{
+			u = getContext().createUnmarshaller();
+			u.setSchema(getSchema());
+		}
+
+		FirstError handler = new FirstError();
+		u.setEventHandler(handler);
+		try
+		{
+			StreamSource source = new StreamSource(new BufferedInputStream(legoStream, 1 << 16), systemId);
+			JAXBElement<LegoList> ll = u.unmarshal(source, LegoList.class);
+			// only reuse an unmarshaller that completed normally
+			pool.offer(u);
+			return ll.getValue();
+		}
+		catch (UnmarshalException e)
+		{
+			if (handler.error != null)
+			{
+				throw handler.error;
+			}
+			if (e.getLinkedException() instanceof SAXException)
+			{
+				throw (SAXException) e.getLinkedException();
+			}
+			throw e;
+		}
+		finally
+		{
+			ClassifierMetrics.stop(ClassifierMetrics.Phase.PARSE, start);
+		}
+	}
+
+	/**
+	 * Stops at the first validation problem (as the validator does), and keeps it as a SAXParseException with its location.
+	 */
+	private static class FirstError implements ValidationEventHandler
+	{
+		SAXParseException error;
+
+		@Override
+		public boolean handleEvent(ValidationEvent event)
+		{
+			if (event.getSeverity() == ValidationEvent.WARNING)
+			{
+				return true;
+			}
+			if (error == null)
+			{
+				int line = -1;
+				int column = -1;
+				String systemId = null;
+				if (event.getLocator() != null)
+				{
+					line = event.getLocator().getLineNumber();
+					column = event.getLocator().getColumnNumber();
+					systemId = event.getLocator().getURL() == null ? null : event.getLocator().getURL().toString();
+				}
+				Exception cause = event.getLinkedException() instanceof Exception ? (Exception) event.getLinkedException() : null;
+				error = new SAXParseException(event.getMessage(), null, systemId, line, column, cause);
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package gov.va;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import au.csiro.ontology.IOntology;
+import au.csiro.ontology.Node;
+
+/**
+ * The classified taxonomy of a {@link ReasonerSnapshot}, in fixed width tables that are queried in place, through a read only
+ * mapping - opening it reads the header, and nothing else, so a process can answer taxonomy queries before (or without) deserializing
+ * the reasoner.
+ *
+ * The section holds, after a header of the table sizes:
+ * <pre>
+ *   concepts     id offset, id length, node                                   (sorted by the UTF-8 bytes of the id)
+ *   nodes        first equivalent, equivalents, first parent, parents, first child, children
+ *   equivalents  concept index, grouped by node
+ *   parents      node index, grouped by node
+ *   children     node index, grouped by node
+ *   ids          the UTF-8 ids
+ * </pre>
+ * A lookup is a binary search of the concept table, comparing bytes in the mapping; only the Strings handed back are allocated.
+ *
+ * Thread safe.
+ */
+public class MappedTaxonomy
+{
+	private static final int HEADER_SIZE = 4 * 4;
+	private static final int CONCEPT_RECORD = 3 * 4;
+	private static final int NODE_RECORD = 6 * 4;
+
+	private final ByteBuffer buffer;
+	private final int nodes;
+	private final int concepts;
+	private final int edges;
+	private final int conceptTable;
+	private final int nodeTable;
+	private final int equivalentTable;
+	private final int parentTable;
+	private final int childTable;
+	private final int idBlock;
+
+	MappedTaxonomy(ByteBuffer buffer) throws IOException
+	{
+		this.buffer = buffer;
+		nodes = buffer.getInt(0);
+		concepts = buffer.getInt(4);
+		edges = buffer.getInt(8);
+		int idBytes = buffer.getInt(12);
+		conceptTable = HEADER_SIZE;
+		nodeTable = conceptTable + concepts * CONCEPT_RECORD;
+		equivalentTable = nodeTable + nodes * NODE_RECORD;
+		parentTable = equivalentTable + concepts * 4;
+		childTable = parentTable + edges * 4;
+		idBlock = childTable + edges * 4;
+		if (nodes < 0 || concepts < 0 || edges < 0 || idBytes < 0 || (long) idBlock + idBytes != buffer.capacity())
+		{
+			throw new IOException("Corrupt taxonomy section");
+		}
+	}
+
+	/**
+	 * Map the taxonomy section of a snapshot written by {@link ReasonerSnapshot#write(au.csiro.snorocket.core.SnorocketReasoner, File)}.
+	 */
+	public static MappedTaxonomy open(File snapshot) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(snapshot, "r"); FileChannel channel = raf.getChannel())
+		{
+			long[] section = ReasonerSnapshot.taxonomySection(channel, snapshot);
+			if (section[1] > Integer.MAX_VALUE)
+			{
+				throw new IOException("Taxonomy section too large to map: " + snapshot.getAbsolutePath());
+			}
+			// the mapping stays valid once the channel is closed
+			return new MappedTaxonomy(channel.map(MapMode.READ_ONLY, section[0], section[1]));
+		}
+	}
+
+	/**
+	 * Write the taxonomy of the ontology in the layout {@link #MappedTaxonomy(ByteBuffer)} reads.  Ids are stored as their toString
+	 * (so a {@link NumericReasoner} taxonomy is queried with the decimal id).
+	 */
+	static <T> void write(IOntology<T> ontology, DataOutput out) throws IOException
+	{
+		// number the nodes - every node reachable from the node map, not just the ones with ids in it
+		IdentityHashMap<Node<T>, Integer> nodeIndex = new IdentityHashMap<>();
+		List<Node<T>> nodeList = new ArrayList<>();
+		ArrayDeque<Node<T>> todo = new ArrayDeque<>(ontology.getNodeMap().values());
+		while (!todo.isEmpty())
+		{
+			Node<T> n = todo.poll();
+			if (!nodeIndex.containsKey(n))
+			{
+				nodeIndex.put(n, nodeList.size());
+				nodeList.add(n);
+				todo.addAll(n.getParents());
+				todo.addAll(n.getChildren());
+			}
+		}
+
+		// the concepts, sorted by id, with the node each is in
+		List<byte[]> ids = new ArrayList<>();
+		Map<byte[], Integer> conceptNode = new IdentityHashMap<>();
+		for (Node<T> n : nodeList)
+		{
+			for (T id : n.getEquivalentConcepts())
+			{
+				byte[] b = id.toString().getBytes(StandardCharsets.UTF_8);
+				ids.add(b);
+				conceptNode.put(b, nodeIndex.get(n));
+			}
+		}
+		byte[][] sorted = ids.toArray(new byte[ids.size()][]);
+		Arrays.sort(sorted, AxiomCodec.UNSIGNED_BYTES);
+		IdentityHashMap<byte[], Integer> conceptIndex = new IdentityHashMap<>();
+		for (int i = 0; i < sorted.length; i++)
+		{
+			conceptIndex.put(sorted[i], i);
+		}
+		int edges = 0;
+		int idBytes = 0;
+		for (Node<T> n : nodeList)
+		{
+			edges += n.getParents().size();
+		}
+		for (byte[] b : sorted)
+		{
+			idBytes += b.length;
+		}
+
+		out.writeInt(nodeList.size());
+		out.writeInt(sorted.length);
+		out.writeInt(edges);
+		out.writeInt(idBytes);
+		int offset = 0;
+		for (byte[] b : sorted)
+		{
+			out.writeInt(offset);
+			out.writeInt(b.length);
+			out.writeInt(conceptNode.get(b));
+			offset += b.length;
+		}
+
+		// each node's equivalents, in the order the node's concepts were collected
+		int[] firstEquivalent = new int[nodeList.size()];
+		List<Integer> equivalents = new ArrayList<>(sorted.length);
+		int next = 0;
+		for (int i = 0; i < nodeList.size(); i++)
+		{
+			firstEquivalent[i] = equivalents.size();
+			for (int j = 0; j < nodeList.get(i).getEquivalentConcepts().size(); j++)
+			{
+				equivalents.add(conceptIndex.get(ids.get(next++)));
+			}
+		}
+		int parent = 0;
+		int child = 0;
+		for (int i = 0; i < nodeList.size(); i++)
+		{
+			Node<T> n = nodeList.get(i);
+			out.writeInt(firstEquivalent[i]);
+			out.writeInt(n.getEquivalentConcepts().size());
+			out.writeInt(parent);
+			out.writeInt(n.getParents().size());
+			out.writeInt(child);
+			out.writeInt(n.getChildren().size());
+			parent += n.getParents().size();
+			child += n.getChildren().size();
+		}
+		if (child != edges)
+		{
+			throw new IOException("The taxonomy's parent and child links don't match");
+		}
+		for (int e : equivalents)
+		{
+			out.writeInt(e);
+		}
+		for (Node<T> n : nodeList)
+		{
+			for (Node<T> p : n.getParents())
+			{
+				out.writeInt(nodeIndex.get(p));
+			}
+		}
+		for (Node<T> n : nodeList)
+		{
+			for (Node<T> c : n.getChildren())
+			{
+				out.writeInt(nodeIndex.get(c));
+			}
+		}
+		for (byte[] b : sorted)
+		{
+			out.write(b);
+		}
+	}
+
+	public int getNodeCount()
+	{
+		return nodes;
+	}
+
+	public int getConceptCount()
+	{
+		return concepts;
+	}
+
+	public boolean contains(String id)
+	{
+		return node(id) >= 0;
+	}
+
+	/**
+	 * The ids equivalent to the id (including itself), or null if the id isn't in the taxonomy
+	 */
+	public Set<String> getEquivalents(String id)
+	{
+		int node = node(id);
+		return node < 0 ? null : equivalents(node);
+	}
+
+	/**
+	 * The equivalents of each parent node of the id, or null if the id isn't in the taxonomy
+	 */
+	public List<Set<String>> getParents(String id)
+	{
+		int node = node(id);
+		return node < 0 ? null : neighbours(node, 2, parentTable);
+	}
+
+	/**
+	 * The equivalents of each child node of the id, or null if the id isn't in the taxonomy
+	 */
+	public List<Set<String>> getChildren(String id)
+	{
+		int node = node(id);
+		return node < 0 ? null : neighbours(node, 4, childTable);
+	}
+
+	/**
+	 * Is x subsumed by (or equivalent to) y?  Walks x's ancestors in the mapping.
+	 */
+	public boolean isSubsumedBy(String x, String y)
+	{
+		int from = node(x);
+		int to = node(y);
+		if (from < 0 || to < 0)
+		{
+			return false;
+		}
+		boolean[] seen = new boolean[nodes];
+		ArrayDeque<Integer> todo = new ArrayDeque<>();
+		todo.add(from);
+		seen[from] = true;
+		while (!todo.isEmpty())
+		{
+			int n = todo.poll();
+			if (n == to)
+			{
+				return true;
+			}
+			int record = nodeTable + n * NODE_RECORD;
+			int first = buffer.getInt(record + 8);
+			int count = buffer.getInt(record + 12);
+			for (int i = 0; i < count; i++)
+			{
+				int p = buffer.getInt(parentTable + (first + i) * 4);
+				if (!seen[p])
+				{
+					seen[p] = true;
+					todo.add(p);
+				}
+			}
+		}
+		return false;
+	}
+
+	private List<Set<String>> neighbours(int node, int field, int table)
+	{
+		int record = nodeTable + node * NODE_RECORD;
+		int first = buffer.getInt(record + field * 4);
+		int count = buffer.getInt(record + (field + 1) * 4);
+		List<Set<String>> result = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			result.add(equivalents(buffer.getInt(table + (first + i) * 4)));
+		}
+		return result;
+	}
+
+	private Set<String> equivalents(int node)
+	{
+		int record = nodeTable + node * NODE_RECORD;
+		int first = buffer.getInt(record);
+		int count = buffer.getInt(record + 4);
+		Set<String> result = new LinkedHashSet<>();
+		for (int i = 0; i < count; i++)
+		{
+			result.add(id(buffer.getInt(equivalentTable + (first + i) * 4)));
+		}
+		return result;
+	}
+
+	private String id(int concept)
+	{
+		int record = conceptTable + concept * CONCEPT_RECORD;
+		int offset = buffer.getInt(record);
+		byte[] b = new byte[buffer.getInt(record + 4)];
+		for (int i = 0; i < b.length; i++)
+		{
+			b[i] = buffer.get(idBlock + offset + i);
+		}
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The node of the id, or -1 - a binary search of the concept table, comparing against the ids in place.
+	 */
+	private int node(String id)
+	{
+		byte[] key = id.getBytes(StandardCharsets.UTF_8);
+		int low = 0;
+		int high = concepts - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int c = compare(mid, key);
+			if (c < 0)
+			{
+				low = mid + 1;
+			}
+			else if (c > 0)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return buffer.getInt(conceptTable + mid * CONCEPT_RECORD + 8);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compare the id of the concept with the key, as unsigned bytes - the order the table was sorted in
+	 */
+	private int compare(int concept, byte[] key)
+	{
+		int record = conceptTable + concept * CONCEPT_RECORD;
+		int offset = idBlock + buffer.getInt(record);
+		int length = buffer.getInt(record + 4);
+		int common = Math.min(length, key.length);
+		for (int i = 0; i < common; i++)
+		{
+			int c = (buffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+			if (c != 0)
+			{
+				return c;
+			}
+		}
+		return length - key.length;
+	}
+}
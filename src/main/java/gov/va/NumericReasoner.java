@@ -0,0 +1,323 @@
+package gov.va;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.csiro.ontology.Factory;
+import au.csiro.ontology.IOntology;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.axioms.IConceptInclusion;
+import au.csiro.ontology.axioms.IRoleInclusion;
+import au.csiro.ontology.classification.IReasoner;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.ontology.model.IConjunction;
+import au.csiro.ontology.model.IDatatype;
+import au.csiro.ontology.model.IExistential;
+import au.csiro.ontology.model.INamedConcept;
+import au.csiro.ontology.model.INamedFeature;
+import au.csiro.ontology.model.INamedRole;
+import au.csiro.ontology.model.IRole;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * An alternative classifier mode, where the reasoner is keyed by dense numeric identifiers (Longs), rather than 36 character UUID
+ * Strings.  An {@link IdDictionary} translates between the two at the API boundary - axioms come in (from {@link SIMClassifier} or
+ * {@link LegoClassifier}) with String identifiers, and query results go back out with String identifiers.
+ *
+ * The numeric base state can't be derived from classifier_uuid.state - Snorocket keeps its identifier tables internal.  It has to be
+ * built from the same base axioms the String state was built from - see {@link #buildBaseState(Collection)}, and the "build" option
+ * of the main method, which reads the base axioms in the {@link AxiomCodec} form, as written by {@link SnomedBaseAxioms} from a SNOMED
+ * RF2 release.
+ *
+ * Translation looks each distinct id up in the dictionary once per batch (holding its monitor once for the whole batch), and the
+ * dictionary recognizes UUIDs without building UUID objects - the Lego conversion itself still produces String axioms.
+ *
+ * IReasoner is generic, so the numeric identifiers are boxed Longs - the reasoner holds one per concept (16 bytes, against the ~100
+ * of a 36 character String).  Translation hands out one cached Long per dense identifier, rather than boxing on every reference.
+ *
+ * Not thread safe (nor is the underlying reasoner).
+ */
+public class NumericReasoner
+{
+	static Logger logger = LoggerFactory.getLogger(NumericReasoner.class);
+
+	private IReasoner<Long> reasoner;
+	private IdDictionary ids;
+	private Factory<Long> f = new Factory<>();
+	// by dense id
+	private Long[] boxed = new Long[1024];
+	// the ids seen in the batch being translated - each is looked up in the dictionary once per batch, not once per reference
+	private final HashMap<String, Long> batchIds = new HashMap<>();
+
+	public NumericReasoner(IReasoner<Long> reasoner, IdDictionary ids)
+	{
+		this.reasoner = reasoner;
+		this.ids = ids;
+	}
+
+	/**
+	 * Run a full classification of the base axioms, in numeric mode.
+	 */
+	public static NumericReasoner buildBaseState(Collection<IAxiom> baseAxioms) throws IOException
+	{
+		NumericReasoner nr = new NumericReasoner(new SnorocketReasoner<Long>(), new IdDictionary());
+		nr.classify(baseAxioms);
+		return nr;
+	}
+
+	/**
+	 * Load a numeric state written by {@link #save(File, File)}
+	 */
+	@SuppressWarnings("unchecked")
+	public static NumericReasoner load(File snapshot, File dictionary) throws IOException
+	{
+		IdDictionary ids = IdDictionary.load(dictionary);
+		IReasoner<Long> reasoner = ReasonerSnapshot.loadUntyped(snapshot);
+		return new NumericReasoner(reasoner, ids);
+	}
+
+	/**
+	 * Save the reasoner (in the {@link ReasonerSnapshot} format) and the dictionary.  Both are needed to load the state again.
+	 */
+	public void save(File snapshot, File dictionary) throws IOException
+	{
+		if (!(reasoner instanceof SnorocketReasoner))
+		{
+			throw new IOException("Only a SnorocketReasoner can be saved");
+		}
+		ReasonerSnapshot.write((SnorocketReasoner<?>) reasoner, snapshot);
+		ids.save(dictionary);
+	}
+
+	/**
+	 * Translate the (String identified) axioms, and classify them.
+	 */
+	public void classify(Collection<IAxiom> axioms) throws IOException
+	{
+		Set<IAxiom> translated = new HashSet<>(axioms.size() * 2);
+		try
+		{
+			// one monitor acquisition for the batch - the dictionary calls for new ids re-enter it
+			synchronized (ids)
+			{
+				for (IAxiom axiom : axioms)
+				{
+					translated.add(translate(axiom));
+				}
+			}
+		}
+		finally
+		{
+			// not kept between batches - it would hold a String per concept, which is what numeric mode saves
+			batchIds.clear();
+		}
+		reasoner.classify(translated);
+	}
+
+	public IOntology<Long> getClassifiedOntology()
+	{
+		return reasoner.getClassifiedOntology();
+	}
+
+	public IdDictionary getIdDictionary()
+	{
+		return ids;
+	}
+
+	/**
+	 * The numeric node for the identifier, or null, if the identifier is unknown (or not classified).
+	 */
+	public Node<Long> getNode(String id)
+	{
+		long l = ids.lookup(id);
+		return l < 0 ? null : reasoner.getClassifiedOntology().getNode(l);
+	}
+
+	/**
+	 * The String identifiers of the concepts in the node
+	 */
+	public Set<String> toIdentifiers(Node<Long> node)
+	{
+		Set<String> result = new HashSet<>();
+		for (Long l : node.getEquivalentConcepts())
+		{
+			result.add(ids.getIdentifier(l));
+		}
+		return result;
+	}
+
+	/**
+	 * The String identifiers of each of the nodes
+	 */
+	public List<Set<String>> toIdentifiers(Collection<Node<Long>> nodes)
+	{
+		List<Set<String>> result = new ArrayList<>(nodes.size());
+		for (Node<Long> n : nodes)
+		{
+			result.add(toIdentifiers(n));
+		}
+		return result;
+	}
+
+	private IAxiom translate(IAxiom axiom) throws IOException
+	{
+		if (axiom instanceof IConceptInclusion)
+		{
+			IConceptInclusion ci = (IConceptInclusion) axiom;
+			return f.createConceptInclusion(translate(ci.lhs()), translate(ci.rhs()));
+		}
+		else if (axiom instanceof IRoleInclusion)
+		{
+			IRoleInclusion ri = (IRoleInclusion) axiom;
+			IRole[] lhs = new IRole[ri.lhs().length];
+			for (int i = 0; i < lhs.length; i++)
+			{
+				lhs[i] = translate(ri.lhs()[i]);
+			}
+			return f.createRoleInclusion(lhs, translate(ri.rhs()));
+		}
+		throw new IOException("Unsupported axiom type " + axiom.getClass().getName());
+	}
+
+	private INamedRole<Long> translate(IRole role) throws IOException
+	{
+		if (role instanceof INamedRole)
+		{
+			return f.createRole(id(((INamedRole<?>) role).getId()));
+		}
+		throw new IOException("Unsupported role type " + role.getClass().getName());
+	}
+
+	private IConcept translate(IConcept c) throws IOException
+	{
+		if (c instanceof INamedConcept)
+		{
+			return f.createConcept(id(((INamedConcept<?>) c).getId()));
+		}
+		else if (c instanceof IConjunction)
+		{
+			IConcept[] children = ((IConjunction) c).getConcepts();
+			IConcept[] translated = new IConcept[children.length];
+			for (int i = 0; i < children.length; i++)
+			{
+				translated[i] = translate(children[i]);
+			}
+			return f.createConjunction(translated);
+		}
+		else if (c instanceof IExistential)
+		{
+			IExistential<?> e = (IExistential<?>) c;
+			return f.createExistential(translate(e.getRole()), translate(e.getConcept()));
+		}
+		else if (c instanceof IDatatype)
+		{
+			IDatatype<?> d = (IDatatype<?>) c;
+			INamedFeature<Long> feature = f.createFeature(id(((INamedFeature<?>) d.getFeature()).getId()));
+			// literals carry no identifiers, so they are shared as is
+			return f.createDatatype(feature, d.getOperator(), d.getLiteral());
+		}
+		throw new IOException("Unsupported concept type " + c.getClass().getName());
+	}
+
+	private Long id(Object id)
+	{
+		Long known = batchIds.get(id);
+		if (known != null)
+		{
+			return known;
+		}
+		int dense = (int) ids.getId((String) id);
+		if (dense >= boxed.length)
+		{
+			boxed = Arrays.copyOf(boxed, Math.max(boxed.length * 2, dense + 1));
+		}
+		Long result = boxed[dense];
+		if (result == null)
+		{
+			result = Long.valueOf(dense);
+			boxed[dense] = result;
+		}
+		batchIds.put((String) id, result);
+		return result;
+	}
+
+	/**
+	 * Usage:
+	 * <pre>
+	 *   NumericReasoner build &lt;base axioms file&gt; &lt;snapshot file&gt; &lt;dictionary file&gt;
+	 *   NumericReasoner compare &lt;String snapshot file&gt; &lt;numeric snapshot file&gt; &lt;dictionary file&gt; &lt;lego folder&gt;
+	 * </pre>
+	 * The base axioms file is in the {@link AxiomCodec} form.  Compare reports the heap used by each loaded state, and the time to
+	 * convert and classify the Legos in the folder in each mode.
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length == 4 && args[0].equals("build"))
+		{
+			List<IAxiom> base;
+			try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(args[1]), 1 << 20)))
+			{
+				base = AxiomCodec.read(dis, new InterningFactory());
+			}
+			long start = System.currentTimeMillis();
+			NumericReasoner nr = buildBaseState(base);
+			logger.info("Classified " + base.size() + " base axioms in " + (System.currentTimeMillis() - start) + "ms");
+			nr.save(new File(args[2]), new File(args[3]));
+		}
+		else if (args.length == 5 && args[0].equals("compare"))
+		{
+			File[] legos = new File(args[4]).listFiles();
+
+			long before = usedHeap();
+			IReasoner<String> stringReasoner = ReasonerSnapshot.load(new File(args[1]));
+			long stringHeap = usedHeap() - before;
+			SIMClassifier sc = new SIMClassifier(stringReasoner);
+			LegoPipeline.forSIM(sc).run(legos);
+			long start = System.nanoTime();
+			sc.classifyAxioms();
+			long stringClassify = System.nanoTime() - start;
+			sc = null;
+			stringReasoner = null;
+
+			before = usedHeap();
+			NumericReasoner nr = load(new File(args[2]), new File(args[3]));
+			long numericHeap = usedHeap() - before;
+			SIMClassifier converter = new SIMClassifier(null);
+			LegoPipeline.forSIM(converter).run(legos);
+			start = System.nanoTime();
+			nr.classify(converter.getUnclassifiedAxioms());
+			long numericClassify = System.nanoTime() - start;
+
+			System.out.println("String mode:  " + (stringHeap >> 20) + "MB heap, classify " + (stringClassify / 1000000) + "ms");
+			System.out.println("Numeric mode: " + (numericHeap >> 20) + "MB heap, classify (including translation) " + (numericClassify / 1000000)
+					+ "ms");
+		}
+		else
+		{
+			System.err.println("Usage: NumericReasoner build <base axioms> <snapshot> <dictionary>");
+			System.err.println("       NumericReasoner compare <String snapshot> <numeric snapshot> <dictionary> <lego folder>");
+			System.exit(1);
+		}
+	}
+
+	private static long usedHeap()
+	{
+		for (int i = 0; i < 3; i++)
+		{
+			System.gc();
+		}
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+}
@@ -0,0 +1,371 @@
+package gov.va;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.classification.IReasoner;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * A fast-start on-disk format for a loaded classifier state (such as classifier_uuid.state).
+ *
+ * The snapshot is a small fixed header, the uncompressed reasoner payload, and then the classified taxonomy in the fixed width
+ * layout of {@link MappedTaxonomy}.  On load, the header is checked before anything is deserialized, and the payload is read
+ * through a memory mapping (in chunks, so states larger than 2GB work) rather than an unbuffered resource stream.  The reasoner
+ * itself is still fully deserialized by {@link SnorocketReasoner#load(InputStream)} - only the taxonomy section is queried in
+ * place, through {@link MappedTaxonomy#open(File)}, without a load.  Use the compare mode of main to measure both on a real state.
+ *
+ * Version 1 snapshots (no taxonomy section) still load as reasoners.
+ *
+ * {@link #loadInBackground(File)} starts the load on a daemon thread, so callers can parse and convert Legos
+ * while the base state comes up, and only block when they first need the reasoner.
+ *
+ * Run the main method to convert an existing .state file, or to time a .state load against a snapshot load.
+ */
+public class ReasonerSnapshot
+{
+	static Logger logger = LoggerFactory.getLogger(ReasonerSnapshot.class);
+
+	/** "LCSS" */
+	public static final int MAGIC = 0x4C435353;
+	public static final int FORMAT_VERSION = 2;
+	//magic, version, payload length, node count, taxonomy length
+	static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+	static final int V1_HEADER_SIZE = 4 + 4 + 8 + 8;
+	//Mapping chunk size - must stay below Integer.MAX_VALUE
+	static final long CHUNK_SIZE = 1L << 30;
+
+	/**
+	 * Write the reasoner to the snapshot file.  The file is written to a temp file in the same folder, and atomically moved into
+	 * place once complete, so a reader never sees a partial snapshot, or no snapshot at all.
+	 */
+	public static void write(SnorocketReasoner<?> reasoner, File snapshot) throws IOException
+	{
+		write(reasoner, snapshot, true);
+	}
+
+	/**
+	 * Write the reasoner, with or without the taxonomy section - a snapshot that is only ever reloaded as a reasoner (such as a
+	 * {@link WhatIfClassifier} sandbox copy) can skip it.
+	 */
+	static void write(SnorocketReasoner<?> reasoner, File snapshot, boolean taxonomy) throws IOException
+	{
+		File temp = new File(snapshot.getAbsoluteFile().getParentFile(), snapshot.getName() + ".tmp");
+		long start = System.currentTimeMillis();
+		try (RandomAccessFile raf = new RandomAccessFile(temp, "rw"))
+		{
+			raf.setLength(0);
+			raf.seek(HEADER_SIZE);
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(raf.getFD()), 1 << 20);
+			reasoner.save(os);
+			os.flush();
+			long payloadLength = raf.length() - HEADER_SIZE;
+			int nodeCount = reasoner.getClassifiedOntology().getNodeMap().size();
+			long taxonomyLength = 0;
+			if (taxonomy)
+			{
+				DataOutputStream dos = new DataOutputStream(os);
+				MappedTaxonomy.write(reasoner.getClassifiedOntology(), dos);
+				dos.flush();
+				taxonomyLength = raf.length() - HEADER_SIZE - payloadLength;
+			}
+
+			raf.seek(0);
+			raf.writeInt(MAGIC);
+			raf.writeInt(FORMAT_VERSION);
+			raf.writeLong(payloadLength);
+			raf.writeLong(nodeCount);
+			raf.writeLong(taxonomyLength);
+			raf.getFD().sync();
+		}
+		Files.move(temp.toPath(), snapshot.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		logger.info("Wrote snapshot " + snapshot.getAbsolutePath() + " in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Convert an existing classifier .state stream (as read by {@link SnorocketReasoner#load(InputStream)}) to the snapshot format.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void convert(InputStream state, File snapshot) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		Object event = ClassifierEvents.begin(ClassifierEvents.Kind.STATE_LOAD);
+		SnorocketReasoner<String> reasoner = SnorocketReasoner.load(new BufferedInputStream(state, 1 << 20));
+		ClassifierEvents.commit(event, "state stream", reasoner.getClassifiedOntology().getNodeMap().size());
+		logger.info("Loaded source state in " + (System.currentTimeMillis() - start) + "ms");
+		write(reasoner, snapshot);
+	}
+
+	/**
+	 * Load a reasoner from a snapshot file written by {@link #write(SnorocketReasoner, File)}.
+	 */
+	@SuppressWarnings("unchecked")
+	public static IReasoner<String> load(File snapshot) throws IOException
+	{
+		return loadUntyped(snapshot);
+	}
+
+	/**
+	 * Load a reasoner from a snapshot, without assuming the type of its identifiers - see {@link NumericReasoner}.
+	 */
+	@SuppressWarnings("rawtypes")
+	static IReasoner loadUntyped(File snapshot) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		Object event = ClassifierEvents.begin(ClassifierEvents.Kind.STATE_LOAD);
+		try (RandomAccessFile raf = new RandomAccessFile(snapshot, "r"); FileChannel channel = raf.getChannel())
+		{
+			long[] header = readHeader(channel, snapshot);
+			long nodeCount = header[2];
+			IReasoner reasoner = SnorocketReasoner.load(new MappedInputStream(channel, header[0], header[1]));
+			ClassifierEvents.commit(event, snapshot.getPath(), nodeCount);
+			logger.info("Loaded snapshot " + snapshot.getName() + " (" + nodeCount + " nodes) in " + (System.currentTimeMillis() - start) + "ms");
+			return reasoner;
+		}
+	}
+
+	/**
+	 * Check the header - returns the payload offset, payload length, node count and taxonomy length (0 for a version 1 snapshot).
+	 */
+	private static long[] readHeader(FileChannel channel, File snapshot) throws IOException
+	{
+		if (channel.size() < V1_HEADER_SIZE)
+		{
+			throw new IOException("Not a classifier snapshot (too short): " + snapshot.getAbsolutePath());
+		}
+		ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, Math.min(HEADER_SIZE, channel.size()));
+		if (header.getInt() != MAGIC)
+		{
+			throw new IOException("Not a classifier snapshot: " + snapshot.getAbsolutePath());
+		}
+		int version = header.getInt();
+		if (version != 1 && version != FORMAT_VERSION)
+		{
+			throw new IOException("Unsupported snapshot version " + version + " in " + snapshot.getAbsolutePath());
+		}
+		long payloadLength = header.getLong();
+		long nodeCount = header.getLong();
+		long headerSize = V1_HEADER_SIZE;
+		long taxonomyLength = 0;
+		if (version > 1)
+		{
+			if (!header.hasRemaining())
+			{
+				throw new IOException("Truncated classifier snapshot: " + snapshot.getAbsolutePath());
+			}
+			headerSize = HEADER_SIZE;
+			taxonomyLength = header.getLong();
+		}
+		if (payloadLength < 0 || taxonomyLength < 0 || headerSize + payloadLength + taxonomyLength > channel.size())
+		{
+			throw new IOException("Truncated classifier snapshot: " + snapshot.getAbsolutePath());
+		}
+		return new long[] {headerSize, payloadLength, nodeCount, taxonomyLength};
+	}
+
+	/**
+	 * The offset and length of the taxonomy section, for {@link MappedTaxonomy#open(File)}.
+	 */
+	static long[] taxonomySection(FileChannel channel, File snapshot) throws IOException
+	{
+		long[] header = readHeader(channel, snapshot);
+		if (header[3] == 0)
+		{
+			throw new IOException("No taxonomy section (convert it again to add one): " + snapshot.getAbsolutePath());
+		}
+		return new long[] {header[0] + header[1], header[3]};
+	}
+
+	/**
+	 * Start loading the snapshot on a background daemon thread.  {@link Future#get()} blocks until the reasoner is available.
+	 */
+	public static Future<IReasoner<String>> loadInBackground(final File snapshot)
+	{
+		FutureTask<IReasoner<String>> task = new FutureTask<>(new Callable<IReasoner<String>>()
+		{
+			@Override
+			public IReasoner<String> call() throws Exception
+			{
+				return load(snapshot);
+			}
+		});
+		Thread t = new Thread(task, "ReasonerSnapshot loader");
+		t.setDaemon(true);
+		t.start();
+		return task;
+	}
+
+	/**
+	 * An InputStream over a region of a file channel, mapped lazily one chunk at a time.
+	 */
+	static class MappedInputStream extends InputStream
+	{
+		private FileChannel channel;
+		private long position;
+		private long end;
+		private MappedByteBuffer current;
+
+		MappedInputStream(FileChannel channel, long offset, long length)
+		{
+			this.channel = channel;
+			this.position = offset;
+			this.end = offset + length;
+		}
+
+		private boolean ensureMapped() throws IOException
+		{
+			if (current != null && current.hasRemaining())
+			{
+				return true;
+			}
+			if (position >= end)
+			{
+				return false;
+			}
+			long size = Math.min(CHUNK_SIZE, end - position);
+			current = channel.map(MapMode.READ_ONLY, position, size);
+			position += size;
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			if (!ensureMapped())
+			{
+				return -1;
+			}
+			return current.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+			{
+				return 0;
+			}
+			if (!ensureMapped())
+			{
+				return -1;
+			}
+			int count = Math.min(len, current.remaining());
+			current.get(b, off, count);
+			return count;
+		}
+
+		@Override
+		public int available()
+		{
+			long remaining = (current == null ? 0 : current.remaining()) + (end - position);
+			return (int) Math.min(Integer.MAX_VALUE, remaining);
+		}
+	}
+
+	/**
+	 * Usage:
+	 * <pre>
+	 *   ReasonerSnapshot convert classifier_uuid.state classifier_uuid.snapshot
+	 *   ReasonerSnapshot compare classifier_uuid.state classifier_uuid.snapshot
+	 *   ReasonerSnapshot query classifier_uuid.snapshot conceptId...
+	 * </pre>
+	 * compare times the .state load, the snapshot load, and opening the mapped taxonomy plus a lookup of every concept in it,
+	 * and checks the mapped parents against the loaded reasoner.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length >= 2 && args[0].equals("query"))
+		{
+			long start = System.nanoTime();
+			MappedTaxonomy taxonomy = MappedTaxonomy.open(new File(args[1]));
+			System.out.println("Opened taxonomy (" + taxonomy.getNodeCount() + " nodes) in " + (System.nanoTime() - start) / 1000 + "us");
+			for (int i = 2; i < args.length; i++)
+			{
+				System.out.println(args[i] + ": equivalents " + taxonomy.getEquivalents(args[i]) + ", parents " + taxonomy.getParents(args[i]));
+			}
+			return;
+		}
+		if (args.length != 3 || !(args[0].equals("convert") || args[0].equals("compare")))
+		{
+			System.err.println("Usage: ReasonerSnapshot convert|compare <state file> <snapshot file>");
+			System.err.println("       ReasonerSnapshot query <snapshot file> <concept id>...");
+			System.exit(1);
+		}
+		File state = new File(args[1]);
+		File snapshot = new File(args[2]);
+
+		if (args[0].equals("convert"))
+		{
+			try (InputStream is = new FileInputStream(state))
+			{
+				convert(is, snapshot);
+			}
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		IReasoner<String> fromState;
+		try (InputStream is = new FileInputStream(state))
+		{
+			fromState = SnorocketReasoner.load(is);
+		}
+		long stateTime = System.currentTimeMillis() - start;
+		int stateNodes = fromState.getClassifiedOntology().getNodeMap().size();
+		fromState = null;
+		System.gc();
+
+		start = System.currentTimeMillis();
+		IReasoner<String> fromSnapshot = load(snapshot);
+		long snapshotTime = System.currentTimeMillis() - start;
+		int snapshotNodes = fromSnapshot.getClassifiedOntology().getNodeMap().size();
+
+		start = System.currentTimeMillis();
+		MappedTaxonomy taxonomy = MappedTaxonomy.open(snapshot);
+		long openTime = System.currentTimeMillis() - start;
+		int mismatches = 0;
+		start = System.currentTimeMillis();
+		for (Map.Entry<String, Node<String>> e : fromSnapshot.getClassifiedOntology().getNodeMap().entrySet())
+		{
+			List<Set<String>> parents = taxonomy.getParents(e.getKey());
+			Set<Set<String>> expected = new HashSet<>();
+			for (Node<String> p : e.getValue().getParents())
+			{
+				expected.add(p.getEquivalentConcepts());
+			}
+			if (parents == null || !expected.equals(new HashSet<>(parents)))
+			{
+				mismatches++;
+			}
+		}
+		long queryTime = System.currentTimeMillis() - start;
+
+		System.out.println(".state load:    " + stateTime + "ms, " + stateNodes + " nodes");
+		System.out.println("snapshot load:  " + snapshotTime + "ms, " + snapshotNodes + " nodes");
+		System.out.println("taxonomy open:  " + openTime + "ms, " + taxonomy.getNodeCount() + " nodes");
+		System.out.println("taxonomy query: " + queryTime + "ms for the parents of " + snapshotNodes + " concepts, " + mismatches + " mismatches");
+	}
+}
@@ -1,9 +1,6 @@
 package gov.va;
 
-import gov.va.legoEdit.formats.LegoXMLUtils;
 import gov.va.legoEdit.model.schemaModel.Lego;
-import gov.va.legoEdit.model.schemaModel.LegoList;
-import gov.va.legoEdit.model.sim.act.expression.ExpressionRelGroup;
 import gov.va.legoEdit.model.sim.act.expression.node.ConjunctionNode;
 import gov.va.legoEdit.storage.sim.util.SchemaToSimConversions;
 import gov.va.sim.act.AssertionBI;
@@ -20,27 +17,40 @@ import gov.va.sim.measurement.BoundBI;
 import gov.va.sim.measurement.IntervalBI;
 import gov.va.sim.measurement.PlaceholderBI;
 import gov.va.sim.measurement.PointBI;
+import java.beans.PropertyVetoException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
 import org.ihtsdo.tk.api.concept.ConceptVersionBI;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import au.csiro.ontology.Factory;
-import au.csiro.ontology.IOntology;
-import au.csiro.ontology.Node;
 import au.csiro.ontology.axioms.IAxiom;
 import au.csiro.ontology.classification.IReasoner;
 import au.csiro.ontology.model.IConcept;
 import au.csiro.ontology.model.IConjunction;
 import au.csiro.ontology.model.ILiteral;
+import au.csiro.ontology.model.INamedConcept;
 import au.csiro.ontology.model.INamedFeature;
 import au.csiro.ontology.model.INamedRole;
 import au.csiro.ontology.model.Operator;
@@ -58,16 +68,53 @@ import au.csiro.snorocket.core.SnorocketReasoner;
 public class SIMClassifier
 {
 	static Logger logger = LoggerFactory.getLogger(SIMClassifier.class);
+	/**
+	 * Bump this whenever a change to the conversion code changes the axioms produced for a Lego - it invalidates persisted conversion
+	 * results, such as the {@link AxiomCache}.
+	 */
+	public static final int CONVERTER_VERSION = 1;
 	static String eol = System.getProperty("line.separator");
+	static final int CONVERSION_THREADS = Integer.getInteger("simClassifier.conversionThreads", Runtime.getRuntime().availableProcessors());
+	// a few chunks per thread, so one slow chunk doesn't leave the rest of the pool idle
+	private static final int CONVERSION_CHUNKS = Runtime.getRuntime().availableProcessors() * 4;
+	private static ExecutorService conversionPool;
 	IReasoner<String> reasoner;
-	Factory<String> f = new Factory<>();
-	Set<String> conceptIds = new HashSet<>();
-	INamedRole<String> roleGroup = f.createRole("RoleGroup");
+	InterningFactory f;
+	Set<String> definedConcepts = new LinkedHashSet<>();
+	INamedRole<String> roleGroup;
 	HashSet<IAxiom> unclassifiedAxioms = new HashSet<>();
+	SubmissionRegistry registry;
+	AxiomLog log;
+	SubsumptionIndex index;
+	AssertionIndex assertionIndex;
+	long classifications = 0;
 
 	public SIMClassifier(IReasoner<String> reasoner)
+	{
+		this(reasoner, new InterningFactory());
+	}
+
+	/**
+	 * @param factory - pass the same factory to several classifiers to share the interned concepts between them
+	 */
+	public SIMClassifier(IReasoner<String> reasoner, InterningFactory factory)
 	{
 		this.reasoner = reasoner;
+		this.f = factory;
+		this.roleGroup = f.createRole("RoleGroup");
+	}
+
+	/**
+	 * The (interning) factory used to build the axioms - see {@link InterningFactory#getStatistics()} for object counts.
+	 */
+	public InterningFactory getFactory()
+	{
+		return f;
+	}
+
+	public IReasoner<String> getReasoner()
+	{
+		return reasoner;
 	}
 
 	public Set<IAxiom> getUnclassifiedAxioms()
@@ -75,87 +122,363 @@ public class SIMClassifier
 		return unclassifiedAxioms;
 	}
 
-	public void classifyAxioms()
+	/**
+	 * Only send new or modified definitions to the reasoner - see {@link SubmissionRegistry}.  Pass null to send everything.
+	 */
+	public void setSubmissionRegistry(SubmissionRegistry registry)
+	{
+		this.registry = registry;
+	}
+
+	public SubmissionRegistry getSubmissionRegistry()
 	{
-		reasoner.classify(unclassifiedAxioms);
+		return registry;
+	}
+
+	/**
+	 * Append every batch classified by the reasoner to the log (once it is classified), so it can be replayed after a crash - see
+	 * {@link AxiomLog}.  Pass null to stop logging.
+	 */
+	public synchronized void setAxiomLog(AxiomLog log)
+	{
+		this.log = log;
+	}
+
+	public synchronized AxiomLog getAxiomLog()
+	{
+		return log;
+	}
+
+	/**
+	 * Index the classified ontology for subsumption queries, and keep the index up to date after each classification - see
+	 * {@link SubsumptionIndex}.  Pass false to drop the index.
+	 */
+	public synchronized void setSubsumptionIndexed(boolean indexed)
+	{
+		index = indexed ? new SubsumptionIndex(reasoner.getClassifiedOntology()) : null;
+	}
+
+	/**
+	 * The subsumption index, or null if it isn't kept - see {@link #setSubsumptionIndexed(boolean)}
+	 */
+	public synchronized SubsumptionIndex getSubsumptionIndex()
+	{
+		return index;
+	}
+
+	/**
+	 * Index the components of each assertion converted from now on, by the concept that stands for it - see {@link AssertionIndex}.  Pass
+	 * null to stop indexing.
+	 */
+	public void setAssertionIndex(AssertionIndex assertionIndex)
+	{
+		this.assertionIndex = assertionIndex;
+	}
+
+	public AssertionIndex getAssertionIndex()
+	{
+		return assertionIndex;
+	}
+
+	/**
+	 * Synchronized, so a classification never overlaps a checkpoint (see {@link ClassifierCheckpoint}), or anything else that holds
+	 * this classifier's monitor.
+	 *
+	 * Classified then logged - the batch is appended to the {@link AxiomLog} only once the reasoner has classified it, so a batch that
+	 * fails to classify is never replayed.  If the append fails, the axioms stay unclassified (as far as the registry knows), and the
+	 * next call classifies and logs them again.
+	 */
+	public synchronized void classifyAxioms() throws IOException
+	{
+		Set<IAxiom> axioms = registry == null ? unclassifiedAxioms : registry.filter(unclassifiedAxioms);
+		long start = ClassifierMetrics.start();
+		Object event = ClassifierEvents.begin(ClassifierEvents.Kind.CLASSIFICATION);
+		reasoner.classify(axioms);
+		ClassifierEvents.commit(event, "SIMClassifier", axioms.size());
+		ClassifierMetrics.stop(ClassifierMetrics.Phase.CLASSIFY, start);
+		if (index != null)
+		{
+			index.update(reasoner.getClassifiedOntology(), axioms, registry == null ? null : registry.getModified());
+		}
+		if (log != null && !axioms.isEmpty())
+		{
+			log.append(axioms);
+		}
+		if (registry != null)
+		{
+			registry.commit();
+		}
 		unclassifiedAxioms.clear();
+		classifications++;
+		if (ClassifierMetrics.isEnabled())
+		{
+			// recorded here, under this classifier's monitor, so the gauge never has to take it
+			ClassifierMetrics.classified(this, reasoner.getClassifiedOntology().getNodeMap().size());
+		}
 	}
 
+	/**
+	 * The number of times {@link #classifyAxioms()} has run
+	 */
+	public synchronized long getClassificationCount()
+	{
+		return classifications;
+	}
+
+	/**
+	 * The summary of the concepts defined by the Legos converted since {@link #clearDefinedConcepts()}.  For large batches, use
+	 * {@link #writeClassificationSummary(Writer)} instead.
+	 */
 	public String getClassificationSummary()
 	{
-		StringBuilder sb = new StringBuilder();
+		StringWriter sw = new StringWriter();
+		try
+		{
+			writeClassificationSummary(sw);
+		}
+		catch (IOException e)
+		{
+			// not from a StringWriter
+			throw new RuntimeException(e);
+		}
+		return sw.toString();
+	}
+
+	/**
+	 * Write the summary of the concepts defined by the Legos converted since {@link #clearDefinedConcepts()}, one concept at a time -
+	 * memory use doesn't grow with the size of the summary.  The writer is flushed, not closed.
+	 */
+	public void writeClassificationSummary(Writer out) throws IOException
+	{
+		ClassificationSummary.write(reasoner.getClassifiedOntology(), definedConcepts, out, eol);
+	}
 
-		// The taxonomy contains the inferred hierarchy
-		IOntology<String> t = reasoner.getClassifiedOntology();
+	/**
+	 * The typed classification results of the concepts defined by the Legos converted since {@link #clearDefinedConcepts()}, read
+	 * lazily - don't classify while reading them.
+	 */
+	public ClassificationResults getClassificationResults()
+	{
+		return new ClassificationResults(reasoner.getClassifiedOntology(), definedConcepts);
+	}
 
-		for (String s : conceptIds)
+	/**
+	 * The ids of the concepts defined (by an expression) by the Legos converted since {@link #clearDefinedConcepts()}
+	 */
+	public Set<String> getDefinedConcepts()
+	{
+		return definedConcepts;
+	}
+
+	public void clearDefinedConcepts()
+	{
+		definedConcepts.clear();
+	}
+	
+	public void convertToAxioms(LegoBI... legos) throws UnsupportedEncodingException, NoSuchAlgorithmException, IOException
+	{
+		for (LegoBI l : legos)
 		{
-			// We can look for nodes using the concept ids.
-			Node<String> newNode = t.getNode(s);
-			if (newNode == null)
+			logger.debug("Converting Lego " + l.getInstanceUuid() + " to axioms");
+			long start = ClassifierMetrics.start();
+			Object event = ClassifierEvents.begin(ClassifierEvents.Kind.LEGO_CONVERSION);
+			int before = unclassifiedAxioms.size();
+			String legoUuid = String.valueOf(l.getInstanceUuid());
+			if (assertionIndex != null)
 			{
-				sb.append("No Node " + s);
-				sb.append(eol);
+				assertionIndex.removeLego(legoUuid);
 			}
-			else
+			convertToAxioms(legoUuid, l.getAssertions().toArray(new AssertionBI[l.getAssertions().size()]));
+			int produced = unclassifiedAxioms.size() - before;
+			ClassifierEvents.commit(event, legoUuid, produced);
+			ClassifierMetrics.stop(ClassifierMetrics.Phase.PROCESS, start);
+			ClassifierMetrics.legoConverted(produced);
+		}
+	}
+
+	/**
+	 * Add what converting a Lego elsewhere produced (see {@link AxiomCache}), as if it had been converted here - the caller records the
+	 * metrics and events.
+	 */
+	void addConverted(String legoUuid, Collection<IAxiom> axioms, Collection<String> defined, Collection<AssertionIndex.Entry> entries)
+	{
+		if (assertionIndex != null)
+		{
+			assertionIndex.removeLego(legoUuid);
+			for (AssertionIndex.Entry e : entries)
 			{
-				sb.append("Equivalent Concepts " + newNode.getEquivalentConcepts());
-				sb.append(eol);
+				assertionIndex.add(e);
+			}
+		}
+		unclassifiedAxioms.addAll(axioms);
+		definedConcepts.addAll(defined);
+	}
 
-				// We can now look for the parent and child nodes
-				Set<Node<String>> parentNodes = newNode.getParents();
-				sb.append("Parents:");
-				sb.append(eol);
-				for (Node<String> parentNode : parentNodes)
+	/**
+	 * Convert the Legos on the executor's threads - with the same result as {@link #convertToAxioms(LegoBI...)}.  The Legos are split
+	 * into contiguous chunks (a few per processor), and each chunk is converted by a worker classifier into its own sets, sharing this
+	 * classifier's (thread safe) factory and assertion index.  The workers' axioms and defined concepts are then merged in chunk order.
+	 * Nothing else may use this classifier until it returns.
+	 */
+	public void convertToAxioms(ExecutorService executor, LegoBI... legos) throws NoSuchAlgorithmException, IOException
+	{
+		int chunks = Math.min(legos.length, CONVERSION_CHUNKS);
+		if (chunks < 2)
+		{
+			convertToAxioms(legos);
+			return;
+		}
+		List<Future<SIMClassifier>> workers = new ArrayList<>(chunks);
+		for (int i = 0; i < chunks; i++)
+		{
+			final LegoBI[] chunk = Arrays.copyOfRange(legos, legos.length * i / chunks, legos.length * (i + 1) / chunks);
+			workers.add(executor.submit(new Callable<SIMClassifier>()
+			{
+				@Override
+				public SIMClassifier call() throws Exception
 				{
-					sb.append("  " + parentNode.getEquivalentConcepts());
-					sb.append(eol);
+					SIMClassifier worker = new SIMClassifier(reasoner, f);
+					worker.assertionIndex = assertionIndex;
+					worker.convertToAxioms(chunk);
+					return worker;
 				}
+			}));
+		}
+		try
+		{
+			for (Future<SIMClassifier> w : workers)
+			{
+				SIMClassifier worker = w.get();
+				unclassifiedAxioms.addAll(worker.unclassifiedAxioms);
+				definedConcepts.addAll(worker.definedConcepts);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while converting");
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+			{
+				throw (IOException) cause;
+			}
+			if (cause instanceof NoSuchAlgorithmException)
+			{
+				throw (NoSuchAlgorithmException) cause;
+			}
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+		finally
+		{
+			// a failed chunk leaves the rest running - stop them, rather than leave them converting into discarded sets
+			for (Future<SIMClassifier> w : workers)
+			{
+				w.cancel(true);
+			}
+		}
+	}
+
+	/**
+	 * {@link #convertToAxioms(ExecutorService, LegoBI...)} on a shared pool of simClassifier.conversionThreads (default, the number of
+	 * processors) daemon threads.
+	 */
+	public void convertToAxiomsInParallel(LegoBI... legos) throws NoSuchAlgorithmException, IOException
+	{
+		convertToAxioms(conversionPool(), legos);
+	}
+
+	private static synchronized ExecutorService conversionPool()
+	{
+		if (conversionPool == null)
+		{
+			conversionPool = Executors.newFixedThreadPool(CONVERSION_THREADS, new ThreadFactory()
+			{
+				private final AtomicInteger count = new AtomicInteger();
 
-				Set<Node<String>> childNodes = newNode.getChildren();
-				sb.append("Children:");
-				sb.append(eol);
-				for (Node<String> childNode : childNodes)
+				@Override
+				public Thread newThread(Runnable r)
 				{
-					sb.append("  " + childNode.getEquivalentConcepts());
-					sb.append(eol);
+					Thread t = new Thread(r, "SIMClassifier-convert-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
 				}
-			}
-
-			sb.append("=====================================");
-			sb.append(eol);
+			});
 		}
-		return sb.toString();
+		return conversionPool;
 	}
-	
-	public void convertToAxioms(LegoBI... legos) throws UnsupportedEncodingException, NoSuchAlgorithmException, IOException
+
+	/**
+	 * Convert a schema model Lego to the SIM-API (timed as {@link ClassifierMetrics.Phase#SIM_CONVERT}).
+	 */
+	public static LegoBI toSIM(Lego lego) throws PropertyVetoException
 	{
-		for (LegoBI l : legos)
+		long start = ClassifierMetrics.start();
+		LegoBI result = SchemaToSimConversions.convert(lego);
+		ClassifierMetrics.stop(ClassifierMetrics.Phase.SIM_CONVERT, start);
+		return result;
+	}
+
+	/**
+	 * Convert the Legos from the reader to the SIM-API, and then to axioms, one at a time, so only one Lego needs to be in memory at once.
+	 * 
+	 * @return the number of Legos converted
+	 */
+	public int convertToAxioms(LegoStreamReader legos) throws XMLStreamException, JAXBException, PropertyVetoException, NoSuchAlgorithmException, IOException
+	{
+		Lego l;
+		while ((l = legos.next()) != null)
 		{
-			logger.debug("Converting Lego " + l.getInstanceUuid() + " to axioms");
-			convertToAxioms(l.getAssertions().toArray(new AssertionBI[l.getAssertions().size()]));
+			convertToAxioms(toSIM(l));
 		}
+		return legos.getCount();
 	}
 
 	public void convertToAxioms(AssertionBI... assertions) throws UnsupportedEncodingException, NoSuchAlgorithmException, IOException
 	{
-		for (AssertionBI a : assertions)
+		convertToAxioms(null, assertions);
+	}
+
+	/**
+	 * @param legoUuid - the Lego the assertions are from, for the {@link AssertionIndex}, or null
+	 */
+	private void convertToAxioms(String legoUuid, AssertionBI[] assertions) throws UnsupportedEncodingException, NoSuchAlgorithmException,
+			IOException
+	{
+		for (int i = 0; i < assertions.length; i++)
 		{
+			AssertionBI a = assertions[i];
 			// assertion components don't need classifying
 			IConcept discernibleExpression = process(a.getDiscernable().getFocus());
+			index(legoUuid, i, AssertionIndex.Role.DISCERNIBLE, discernibleExpression, a.getDiscernable().getUuid());
 
 			if (null != discernibleExpression && discernibleExpression instanceof IConjunction)
 			{
-				IConcept discernibleConcept = f.createConcept(a.getDiscernable().getUuid().toString());
+				String discernibleConceptId = f.id(a.getDiscernable().getUuid());
+				definedConcepts.add(discernibleConceptId);
+				IConcept discernibleConcept = f.createConcept(discernibleConceptId);
 				unclassifiedAxioms.add(f.createConceptInclusion(discernibleConcept, discernibleExpression));
 				unclassifiedAxioms.add(f.createConceptInclusion(discernibleExpression, discernibleConcept));
 			}
 
 			IConcept qualifierExpression = process(a.getQualifier().getFocus());
+			index(legoUuid, i, AssertionIndex.Role.QUALIFIER, qualifierExpression, a.getQualifier().getUuid());
 
 			if (null != qualifierExpression && qualifierExpression instanceof IConjunction)
 			{
-				IConcept qualifierConcept = f.createConcept(a.getQualifier().getUuid().toString());
+				String qualifierConceptId = f.id(a.getQualifier().getUuid());
+				definedConcepts.add(qualifierConceptId);
+				IConcept qualifierConcept = f.createConcept(qualifierConceptId);
 				unclassifiedAxioms.add(f.createConceptInclusion(qualifierConcept, qualifierExpression));
 				unclassifiedAxioms.add(f.createConceptInclusion(qualifierExpression, qualifierConcept));
 			}
@@ -167,10 +490,13 @@ public class SIMClassifier
 			else if (a.getValue().getFocus() instanceof ConceptNodeBI || a.getValue().getFocus() instanceof ConjunctionNodeBI)
 			{
 				IConcept valueExpression = process(a.getValue().getFocus());
+				index(legoUuid, i, AssertionIndex.Role.VALUE, valueExpression, a.getValue().getUuid());
 
 				if (null != valueExpression && valueExpression instanceof IConjunction)
 				{
-					IConcept valueConcept = f.createConcept(a.getValue().getUuid().toString());
+					String valueConceptId = f.id(a.getValue().getUuid());
+					definedConcepts.add(valueConceptId);
+					IConcept valueConcept = f.createConcept(valueConceptId);
 					unclassifiedAxioms.add(f.createConceptInclusion(valueConcept, valueExpression));
 					unclassifiedAxioms.add(f.createConceptInclusion(valueExpression, valueConcept));
 				}
@@ -199,106 +525,162 @@ public class SIMClassifier
 		}
 	}
 
+	/**
+	 * Add the component to the assertion index - by its own UUID, if it is defined by an expression (as above), or by its concept.
+	 */
+	private void index(String legoUuid, int assertion, AssertionIndex.Role role, IConcept expression, UUID uuid)
+	{
+		if (assertionIndex == null || expression == null)
+		{
+			return;
+		}
+		if (expression instanceof IConjunction)
+		{
+			assertionIndex.add(new AssertionIndex.Entry(legoUuid, assertion, role, f.id(uuid)));
+		}
+		else if (expression instanceof INamedConcept)
+		{
+			assertionIndex.add(new AssertionIndex.Entry(legoUuid, assertion, role, (String) ((INamedConcept<?>) expression).getId()));
+		}
+	}
+
 	/**
 	 * This method returns the right hand side of a concept inclusion axiom derived from an {@link ExpressionNodeBI<?>}.
 	 * 
+	 * The conjuncts and relations are kept on the thread's {@link ConversionScratch} stacks, rather than in collections of their own.
+	 * 
 	 * @param expression
 	 * @throws IOException 
 	 */
 	private IConcept process(ExpressionNodeBI<?> expression) throws IOException
 	{
-		// The list of conjuncts that will be returned
-		List<IConcept> rhs = new ArrayList<IConcept>();
-
-		// 1. Process the focus concept
 		if (expression == null)
 		{
 			return null;
 		}
-		else if (expression instanceof ConceptNodeBI)
-		{
-			ConceptNodeBI cn = (ConceptNodeBI)expression;
-			rhs.add(f.createConcept(cn.getConceptUuid().toString()));
-		}
-		else if (expression instanceof ConjunctionNode)
+
+		// The conjuncts that will be returned, on the stack from rhs up
+		ConversionScratch s = ConversionScratch.get();
+		int rhs = s.mark();
+		int rels = s.relationMark();
+		try
 		{
-			ConjunctionNode cn = (ConjunctionNode)expression;
-			for (ExpressionNodeBI<?> e : cn.getValue())
+			// 1. Process the focus concept
+			if (expression instanceof ConceptNodeBI)
 			{
-				rhs.add(process(e));
+				ConceptNodeBI cn = (ConceptNodeBI)expression;
+				s.push(f.createConcept(f.id(cn.getConceptUuid())));
 			}
-		}
-		else
-		{
-			throw new RuntimeException("unexpected case - missing expression?");
-		}
-
-		// 2. Process the relations
-
-		// Build role groups
-		HashMap<ExpressionRelGroupBI, Set<ExpressionRelBI>> relGroups = new HashMap<>();
-		ExpressionRelGroup noGroup = new ExpressionRelGroup(null);
-		relGroups.put(noGroup, new HashSet<ExpressionRelBI>()); 
-
-		for (ExpressionRelBI rel : expression.getAllRels())
-		{
-			ExpressionRelGroupBI relGroup = rel.getRelGroup();
-			if (relGroup == null)
+			else if (expression instanceof ConjunctionNode)
 			{
-				relGroup = noGroup;
+				ConjunctionNode cn = (ConjunctionNode)expression;
+				for (ExpressionNodeBI<?> e : cn.getValue())
+				{
+					s.push(process(e));
+				}
 			}
-			
-			Set<ExpressionRelBI> relSet = relGroups.get(relGroup);
-			if (relSet == null)
+			else
 			{
-				relSet = new HashSet<ExpressionRelBI>();
-				relGroups.put(relGroup, relSet);
+				throw new RuntimeException("unexpected case - missing expression?");
 			}
-			relGroups.get(relGroup).add(rel);
-		}
 
-		// Process relationships
-		for (Entry<ExpressionRelGroupBI, Set<ExpressionRelBI>> relGroup : relGroups.entrySet())
-		{
-			if (relGroup.getKey() == noGroup)
+			// 2. Process the relations - each distinct relation once per role group, the ungrouped ones first, and then each group
+			// in the order it first appears
+			for (ExpressionRelBI rel : expression.getAllRels())
 			{
-				// Special case - not grouped
-				for (ExpressionRelBI r : relGroup.getValue())
+				s.pushRelation(rel);
+			}
+			int relsEnd = s.relationMark();
+
+			// Special case - not grouped
+			for (int i = rels; i < relsEnd; i++)
+			{
+				ExpressionRelBI r = (ExpressionRelBI) s.relation(i);
+				if (r.getRelGroup() == null && !seenInGroup(s, rels, i))
 				{
 					IConcept temp = processRelationship(r);
 					if (temp != null)
 					{
-						rhs.add(temp);
+						s.push(temp);
 					}
 				}
 			}
-			else
+
+			for (int i = rels; i < relsEnd; i++)
 			{
+				ExpressionRelGroupBI relGroup = ((ExpressionRelBI) s.relation(i)).getRelGroup();
+				if (relGroup == null || groupSeen(s, rels, i))
+				{
+					continue;
+				}
 				// All of these have to be grouped
-				List<IConcept> conjs = new ArrayList<>();
-				for (ExpressionRelBI r : relGroup.getValue())
+				int conjs = s.mark();
+				for (int j = i; j < relsEnd; j++)
 				{
-					IConcept temp = processRelationship(r);
-					if (temp != null)
+					ExpressionRelBI r = (ExpressionRelBI) s.relation(j);
+					if (relGroup.equals(r.getRelGroup()) && !seenInGroup(s, i, j))
 					{
-						conjs.add(temp);
+						IConcept temp = processRelationship(r);
+						if (temp != null)
+						{
+							s.push(temp);
+						}
 					}
 				}
-				IConcept rg = f.createExistential(roleGroup, f.createConjunction(conjs.toArray(new IConcept[conjs.size()])));
-				rhs.add(rg);
+				IConcept rg = f.createExistential(roleGroup, f.createConjunction(s.concepts(), conjs, s.mark()));
+				s.release(conjs);
+				s.push(rg);
 			}
-		}
 
-		assert (!rhs.isEmpty());
+			assert (s.mark() > rhs);
+
+			if (s.mark() - rhs == 1)
+			{
+				return s.get(rhs);
+			}
+			else
+			{
+				return f.createConjunction(s.concepts(), rhs, s.mark());
+			}
+		}
+		finally
+		{
+			s.release(rhs);
+			s.releaseRelations(rels);
+		}
+	}
 
-		if (rhs.size() == 1)
+	/**
+	 * Is there a relation equal to relation i, in the same group, from relation from up to i?
+	 */
+	private static boolean seenInGroup(ConversionScratch s, int from, int i)
+	{
+		ExpressionRelBI r = (ExpressionRelBI) s.relation(i);
+		for (int j = from; j < i; j++)
 		{
-			return rhs.get(0);
+			ExpressionRelBI other = (ExpressionRelBI) s.relation(j);
+			if (other.equals(r) && (r.getRelGroup() == null ? other.getRelGroup() == null : r.getRelGroup().equals(other.getRelGroup())))
+			{
+				return true;
+			}
 		}
-		else
+		return false;
+	}
+
+	/**
+	 * Does the group of relation i appear on an earlier relation, from relation from?
+	 */
+	private static boolean groupSeen(ConversionScratch s, int from, int i)
+	{
+		ExpressionRelGroupBI relGroup = ((ExpressionRelBI) s.relation(i)).getRelGroup();
+		for (int j = from; j < i; j++)
 		{
-			return f.createConjunction(rhs.toArray(new IConcept[rhs.size()]));
+			if (relGroup.equals(((ExpressionRelBI) s.relation(j)).getRelGroup()))
+			{
+				return true;
+			}
 		}
+		return false;
 	}
 
 	private IConcept processMeasurement(INamedFeature<String> feature, MeasurementNodeBI<?> measurement) throws IOException
@@ -308,7 +690,7 @@ public class SIMClassifier
 		if (conceptVersionBIUnits != null)
 		{
 			// units are optional
-			unitsConcept = f.createConcept(conceptVersionBIUnits.getPrimUuid().toString());
+			unitsConcept = f.createConcept(f.id(conceptVersionBIUnits.getPrimUuid()));
 		}
 		
 		IConcept data;
@@ -538,26 +920,26 @@ public class SIMClassifier
 		if (dest instanceof ConjunctionNodeBI || dest instanceof ConceptNodeBI)
 		{
 			// If the destination is an expression the type is role
-			INamedRole<String> role = f.createRole(tp.getPrimUuid().toString());
+			INamedRole<String> role = f.createRole(f.id(tp.getPrimUuid()));
 			IConcept destExpression = process(dest);
 			return f.createExistential(role, destExpression);
 		}
 		else if (dest instanceof MeasurementNodeBI)
 		{
-			INamedFeature<String> feature = f.createFeature(tp.getPrimUuid().toString());
+			INamedFeature<String> feature = f.createFeature(f.id(tp.getPrimUuid()));
 			IConcept measurementConcept = processMeasurement(feature, (MeasurementNodeBI<?>)dest);
 			return measurementConcept;
 		}
 		else if (dest instanceof TextNodeBI)
 		{
-			INamedFeature<String> feature = f.createFeature(tp.getPrimUuid().toString());
+			INamedFeature<String> feature = f.createFeature(f.id(tp.getPrimUuid()));
 			ILiteral literal = f.createStringLiteral(((TextNodeBI)dest).getValue());
 			IConcept data = f.createDatatype(feature, Operator.EQUALS, literal);
 			return data;
 		}
 		else if (dest instanceof BooleanNodeBI)
 		{
-			INamedFeature<String> feature = f.createFeature(tp.getPrimUuid().toString());
+			INamedFeature<String> feature = f.createFeature(f.id(tp.getPrimUuid()));
 			ILiteral literal = f.createBooleanLiteral(((BooleanNodeBI)dest).getValue());
 			IConcept data = f.createDatatype(feature, Operator.EQUALS, literal);
 			return data;
@@ -568,33 +950,40 @@ public class SIMClassifier
 		}
 	}
 
-	public static void main(String[] args) throws UnsupportedEncodingException, NoSuchAlgorithmException, IOException
+	/**
+	 * Classifies the Legos in the legos folder.  Set the simClassifier.axiomCache system property to a folder to convert through an
+	 * {@link AxiomCache} there, so files that haven't changed since the last run aren't parsed or converted again.
+	 */
+	public static void main(String[] args) throws InterruptedException, IOException
 	{
-		ArrayList<LegoBI> legos = new ArrayList<>();
-		for (File f : new File("legos").listFiles())
+		SIMClassifier lc = new SIMClassifier(new SnorocketReasoner<String>());
+		File[] files = new File("legos").listFiles();
+		String cacheDir = System.getProperty("simClassifier.axiomCache");
+		if (cacheDir == null)
+		{
+			LegoPipeline.forSIM(lc).run(files);
+		}
+		else
 		{
-			if (f.exists() && f.isFile() && f.getName().toLowerCase().endsWith(".xml"))
+			AxiomCache cache = new AxiomCache(new File(cacheDir));
+			for (File file : files)
 			{
-				try
+				if (file.isFile() && file.getName().toLowerCase().endsWith(".xml"))
 				{
-					LegoXMLUtils.validate((f));
-					LegoList ll = LegoXMLUtils.readLegoList(f);
-					logger.info("Reading " + f.getAbsolutePath());
-					for (Lego l : ll.getLego())
+					try
 					{
-						legos.add(SchemaToSimConversions.convert(l));
+						cache.convertToAxioms(file, lc);
+					}
+					catch (Exception e)
+					{
+						// skipped, as the pipeline does
+						logger.error("Failed to convert " + file.getName(), e);
 					}
-				}
-				catch (Exception ex)
-				{
-					logger.error("Error reading file " + f.getName(), ex);
 				}
 			}
+			logger.info(cache.toString());
 		}
 
-		SIMClassifier lc = new SIMClassifier(new SnorocketReasoner<String>());
-		lc.convertToAxioms(legos.toArray(new LegoBI[legos.size()]));
-
 		System.out.println("******************************************");
 		System.out.println("Converted Axioms");
 		for (IAxiom axiom : lc.getUnclassifiedAxioms())
@@ -602,6 +991,7 @@ public class SIMClassifier
 			System.out.println(axiom);
 		}
 		System.out.println("******************************************");
+		logger.info("Axiom objects: " + lc.getFactory().getStatistics());
 
 		logger.info("Classifying Axioms");
 		lc.classifyAxioms();
@@ -0,0 +1,321 @@
+package gov.va;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves a SNOMED SCTID to the UUID String the classifier state uses for it - the type 3 (MD5) name based UUID of
+ * "org.snomed." + sctid.
+ *
+ * Resolution goes first to an optional preloaded table (see {@link #preload(long[])} - sorted SCTIDs and their ids, derived up
+ * front, searched without locking), then a bounded, direct mapped cache (lock free - a slot holds the last SCTID that hashed to it),
+ * and on a miss, the derivation, with a per thread MessageDigest, and no intermediate Strings.
+ *
+ * The preloaded ids are derived, not taken from a {@link SnomedDictionary} - its UUIDs come from the source map file, and the
+ * classifier state was built with the derivation.  The dictionary only supplies the set of SCTIDs worth preloading.
+ *
+ * {@link #getDefault()} is shared by all classifier instances - set the sctidResolver.dictionary system property to a
+ * {@link SnomedDictionary} file to preload its SCTIDs.  Thread safe.
+ */
+public class SctidResolver
+{
+	static Logger logger = LoggerFactory.getLogger(SctidResolver.class);
+
+	private static final byte[] PREFIX = new byte[] {'o', 'r', 'g', '.', 's', 'n', 'o', 'm', 'e', 'd', '.'};
+	private static final SctidResolver DEFAULT = new SctidResolver(Integer.getInteger("sctidResolver.cacheSize", 1 << 16));
+
+	private static final ThreadLocal<MessageDigest> md5 = new ThreadLocal<MessageDigest>()
+	{
+		@Override
+		protected MessageDigest initialValue()
+		{
+			try
+			{
+				return MessageDigest.getInstance("MD5");
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	};
+	// big enough for the prefix and any long
+	private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>()
+	{
+		@Override
+		protected byte[] initialValue()
+		{
+			return new byte[PREFIX.length + 20];
+		}
+	};
+	// after the digest and scratch, which the preload uses
+	static
+	{
+		String dictionary = System.getProperty("sctidResolver.dictionary");
+		if (dictionary != null)
+		{
+			try
+			{
+				DEFAULT.preload(SnomedDictionary.open(new File(dictionary)).getSctids());
+			}
+			catch (IOException e)
+			{
+				logger.error("Could not preload the SCTIDs of " + dictionary + " - resolving without them", e);
+			}
+		}
+	}
+
+	private final AtomicReferenceArray<Entry> cache;
+	private final int mask;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong derived = new AtomicLong();
+	private final AtomicLong preloadedHits = new AtomicLong();
+	private volatile Preloaded preloaded;
+
+	/**
+	 * @param cacheSize - the number of cache slots - rounded up to a power of 2.  0 disables the cache.
+	 */
+	public SctidResolver(int cacheSize)
+	{
+		int size = cacheSize <= 1 ? Math.max(cacheSize, 0) : Integer.highestOneBit(cacheSize - 1) << 1;
+		cache = new AtomicReferenceArray<>(size);
+		mask = size - 1;
+	}
+
+	/**
+	 * The resolver shared by all classifier instances.  The cache size can be set with the sctidResolver.cacheSize system property.
+	 */
+	public static SctidResolver getDefault()
+	{
+		return DEFAULT;
+	}
+
+	/**
+	 * Derive the ids of the SCTIDs now, so resolving any of them is a binary search - no derivation, and no cache slot.  Replaces any
+	 * earlier preload; pass null to drop the table.
+	 */
+	public void preload(long[] sctids)
+	{
+		if (sctids == null)
+		{
+			preloaded = null;
+			return;
+		}
+		long start = System.currentTimeMillis();
+		long[] sorted = sctids.clone();
+		Arrays.sort(sorted);
+		int count = 0;
+		for (int i = 0; i < sorted.length; i++)
+		{
+			if (i == 0 || sorted[i] != sorted[i - 1])
+			{
+				sorted[count++] = sorted[i];
+			}
+		}
+		sorted = Arrays.copyOf(sorted, count);
+		String[] ids = new String[count];
+		for (int i = 0; i < count; i++)
+		{
+			ids[i] = derive(sorted[i]).toString();
+		}
+		preloaded = new Preloaded(sorted, ids);
+		logger.info("Preloaded " + count + " SCTIDs in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	public String resolve(long sctid)
+	{
+		Preloaded p = preloaded;
+		if (p != null)
+		{
+			int i = Arrays.binarySearch(p.sctids, sctid);
+			if (i >= 0)
+			{
+				preloadedHits.incrementAndGet();
+				return p.ids[i];
+			}
+		}
+
+		int slot = 0;
+		if (mask >= 0)
+		{
+			slot = hash(sctid) & mask;
+			Entry e = cache.get(slot);
+			if (e != null && e.sctid == sctid)
+			{
+				hits.incrementAndGet();
+				return e.id;
+			}
+		}
+
+		derived.incrementAndGet();
+		String id = derive(sctid).toString();
+
+		if (mask >= 0)
+		{
+			cache.set(slot, new Entry(sctid, id));
+		}
+		return id;
+	}
+
+	/**
+	 * The same result as UUID.nameUUIDFromBytes(("org.snomed." + sctid).getBytes("8859_1")), without the String, the encoder lookup
+	 * or a new MessageDigest.
+	 */
+	static UUID derive(long sctid)
+	{
+		byte[] b = scratch.get();
+		System.arraycopy(PREFIX, 0, b, 0, PREFIX.length);
+		int length = PREFIX.length;
+		long v = sctid;
+		if (v < 0)
+		{
+			b[length++] = '-';
+		}
+		int digitsStart = length;
+		do
+		{
+			// abs of the remainder, so Long.MIN_VALUE works too
+			b[length++] = (byte) ('0' + Math.abs(v % 10));
+			v /= 10;
+		}
+		while (v != 0);
+		for (int i = digitsStart, j = length - 1; i < j; i++, j--)
+		{
+			byte t = b[i];
+			b[i] = b[j];
+			b[j] = t;
+		}
+
+		MessageDigest digest = md5.get();
+		digest.update(b, 0, length);
+		byte[] hash = digest.digest();
+		hash[6] &= 0x0f;
+		hash[6] |= 0x30; // version 3
+		hash[8] &= 0x3f;
+		hash[8] |= 0x80; // IETF variant
+		long msb = 0;
+		long lsb = 0;
+		for (int i = 0; i < 8; i++)
+		{
+			msb = (msb << 8) | (hash[i] & 0xff);
+		}
+		for (int i = 8; i < 16; i++)
+		{
+			lsb = (lsb << 8) | (hash[i] & 0xff);
+		}
+		return new UUID(msb, lsb);
+	}
+
+	private static int hash(long sctid)
+	{
+		long h = sctid * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	public long getDerived()
+	{
+		return derived.get();
+	}
+
+	/**
+	 * The number of resolutions answered by the preloaded table
+	 */
+	public long getPreloadedHits()
+	{
+		return preloadedHits.get();
+	}
+
+	@Override
+	public String toString()
+	{
+		Preloaded p = preloaded;
+		return "SctidResolver: " + (p == null ? 0 : p.sctids.length) + " preloaded, " + (mask + 1) + " slots, " + preloadedHits.get()
+				+ " preloaded hits, " + hits.get() + " cache hits, " + derived.get() + " derived";
+	}
+
+	private static final class Preloaded
+	{
+		final long[] sctids;
+		final String[] ids;
+
+		Preloaded(long[] sctids, String[] ids)
+		{
+			this.sctids = sctids;
+			this.ids = ids;
+		}
+	}
+
+	private static final class Entry
+	{
+		final long sctid;
+		final String id;
+
+		Entry(long sctid, String id)
+		{
+			this.sctid = sctid;
+			this.id = id;
+		}
+	}
+
+	/**
+	 * Usage: SctidResolver [distinct sctids] [references]
+	 *
+	 * Times the per reference cost of the old derivation (nameUUIDFromBytes on a new String) against the resolver, for a stream of
+	 * references drawn from a set of distinct SCTIDs - roughly the pattern of an SCTID only Lego file.
+	 */
+	public static void main(String[] args) throws UnsupportedEncodingException
+	{
+		int distinct = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		int references = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+		SctidResolver resolver = new SctidResolver(1 << 16);
+
+		Random r = new Random(42);
+		long[] sctids = new long[distinct];
+		for (int i = 0; i < distinct; i++)
+		{
+			sctids[i] = 100000000L + r.nextInt(900000000);
+		}
+		long[] stream = new long[references];
+		for (int i = 0; i < references; i++)
+		{
+			stream[i] = sctids[r.nextInt(distinct)];
+		}
+
+		for (int round = 0; round < 3; round++)
+		{
+			long start = System.nanoTime();
+			int check = 0;
+			for (long s : stream)
+			{
+				check += UUID.nameUUIDFromBytes(("org.snomed." + s).getBytes("8859_1")).toString().length();
+			}
+			long legacy = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for (long s : stream)
+			{
+				check += resolver.resolve(s).length();
+			}
+			long resolved = System.nanoTime() - start;
+
+			System.out.println("Round " + round + ": derivation " + (legacy / references) + "ns per reference, resolver " + (resolved / references)
+					+ "ns per reference (" + check + ")");
+		}
+		System.out.println(resolver);
+	}
+}
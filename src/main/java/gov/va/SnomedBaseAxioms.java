@@ -0,0 +1,226 @@
+package gov.va;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.ontology.model.INamedRole;
+import au.csiro.ontology.model.IRole;
+
+/**
+ * Builds the base axioms of the classifier state from a SNOMED CT RF2 release - the concept snapshot (for the definition status of
+ * each active concept) and the stated relationship snapshot.  The output, in the {@link AxiomCodec} form, is what the build option of
+ * {@link NumericReasoner} reads.
+ *
+ * Each active concept is defined by its stated parents, its ungrouped attributes (as existentials), and one "RoleGroup" existential per
+ * relationship group - an equivalence if the concept is fully defined, an inclusion if it is primitive.  Attributes (the concepts under
+ * 410662002 |Concept model attribute|) also become role inclusions, from their stated hierarchy.  Identifiers are the UUIDs of
+ * {@link SctidResolver}, as used by the Lego conversion.
+ *
+ * Concrete domains, role chains and other OWL refset axioms aren't read - compare the taxonomy against the String state (the compare
+ * option of {@link NumericReasoner}) before relying on a numeric state built from this.
+ */
+public class SnomedBaseAxioms
+{
+	static Logger logger = LoggerFactory.getLogger(SnomedBaseAxioms.class);
+
+	static final long IS_A = 116680003L;
+	static final long CONCEPT_MODEL_ATTRIBUTE = 410662002L;
+	static final long FULLY_DEFINED = 900000000000073002L;
+
+	/**
+	 * Read the RF2 snapshot files, and build the base axioms with the factory.
+	 */
+	public static List<IAxiom> build(InputStream conceptSnapshot, InputStream statedRelationshipSnapshot, InterningFactory f)
+			throws IOException
+	{
+		long start = System.currentTimeMillis();
+		// active concepts, and whether each is fully defined
+		Map<Long, Boolean> concepts = new HashMap<>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(conceptSnapshot, StandardCharsets.UTF_8), 1 << 20);
+		// skip the header
+		String line = in.readLine();
+		while ((line = in.readLine()) != null)
+		{
+			String[] fields = line.split("\t");
+			if (fields.length < 5)
+			{
+				throw new IOException("Not an RF2 concept row: " + line);
+			}
+			if (fields[2].equals("1"))
+			{
+				concepts.put(Long.valueOf(fields[0]), Long.parseLong(fields[4]) == FULLY_DEFINED);
+			}
+		}
+
+		// the active relationships of each source: destination, group, type
+		Map<Long, List<long[]>> relationships = new HashMap<>();
+		Map<Long, List<Long>> children = new HashMap<>();
+		in = new BufferedReader(new InputStreamReader(statedRelationshipSnapshot, StandardCharsets.UTF_8), 1 << 20);
+		line = in.readLine();
+		int count = 0;
+		while ((line = in.readLine()) != null)
+		{
+			String[] fields = line.split("\t");
+			if (fields.length < 8)
+			{
+				throw new IOException("Not an RF2 relationship row: " + line);
+			}
+			if (!fields[2].equals("1"))
+			{
+				continue;
+			}
+			long source = Long.parseLong(fields[4]);
+			long destination = Long.parseLong(fields[5]);
+			long type = Long.parseLong(fields[7]);
+			List<long[]> l = relationships.get(source);
+			if (l == null)
+			{
+				l = new ArrayList<>(4);
+				relationships.put(source, l);
+			}
+			l.add(new long[] {destination, Long.parseLong(fields[6]), type});
+			if (type == IS_A)
+			{
+				List<Long> c = children.get(destination);
+				if (c == null)
+				{
+					c = new ArrayList<>(4);
+					children.put(destination, c);
+				}
+				c.add(source);
+			}
+			count++;
+		}
+
+		Set<Long> attributes = descendants(CONCEPT_MODEL_ATTRIBUTE, children);
+		INamedRole<String> roleGroup = f.createRole("RoleGroup");
+		List<IAxiom> axioms = new ArrayList<>(concepts.size() * 2);
+		for (Map.Entry<Long, Boolean> e : concepts.entrySet())
+		{
+			long sctid = e.getKey();
+			List<long[]> l = relationships.get(sctid);
+			if (l == null)
+			{
+				// the root (or a concept with no stated relationships) - nothing to define
+				continue;
+			}
+			List<IConcept> conjuncts = new ArrayList<>();
+			TreeMap<Long, List<IConcept>> groups = new TreeMap<>();
+			for (long[] r : l)
+			{
+				if (r[2] == IS_A)
+				{
+					conjuncts.add(f.createConcept(id(r[0])));
+					if (attributes.contains(sctid) && attributes.contains(r[0]))
+					{
+						axioms.add(f.createRoleInclusion(new IRole[] {f.createRole(id(sctid))}, f.createRole(id(r[0]))));
+					}
+					continue;
+				}
+				IConcept existential = f.createExistential(f.createRole(id(r[2])), f.createConcept(id(r[0])));
+				if (r[1] == 0)
+				{
+					conjuncts.add(existential);
+				}
+				else
+				{
+					List<IConcept> group = groups.get(r[1]);
+					if (group == null)
+					{
+						group = new ArrayList<>(4);
+						groups.put(r[1], group);
+					}
+					group.add(existential);
+				}
+			}
+			for (List<IConcept> group : groups.values())
+			{
+				conjuncts.add(f.createExistential(roleGroup, conjunction(group, f)));
+			}
+
+			IConcept concept = f.createConcept(id(sctid));
+			IConcept definition = conjunction(conjuncts, f);
+			axioms.add(f.createConceptInclusion(concept, definition));
+			if (e.getValue())
+			{
+				axioms.add(f.createConceptInclusion(definition, concept));
+			}
+		}
+		logger.info("Built " + axioms.size() + " base axioms from " + concepts.size() + " concepts, " + count + " relationships and "
+				+ attributes.size() + " attributes in " + (System.currentTimeMillis() - start) + "ms");
+		return axioms;
+	}
+
+	private static IConcept conjunction(List<IConcept> concepts, InterningFactory f)
+	{
+		return concepts.size() == 1 ? concepts.get(0) : f.createConjunction(concepts.toArray(new IConcept[concepts.size()]));
+	}
+
+	private static Set<Long> descendants(long sctid, Map<Long, List<Long>> children)
+	{
+		Set<Long> result = new HashSet<>();
+		ArrayDeque<Long> todo = new ArrayDeque<>();
+		todo.add(sctid);
+		while (!todo.isEmpty())
+		{
+			List<Long> c = children.get(todo.poll());
+			if (c != null)
+			{
+				for (Long child : c)
+				{
+					if (result.add(child))
+					{
+						todo.add(child);
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	private static String id(long sctid)
+	{
+		return SctidResolver.getDefault().resolve(sctid);
+	}
+
+	/**
+	 * Usage: SnomedBaseAxioms &lt;sct2_Concept_Snapshot.txt&gt; &lt;sct2_StatedRelationship_Snapshot.txt&gt; &lt;base axioms file&gt;
+	 *
+	 * Then: NumericReasoner build &lt;base axioms file&gt; &lt;snapshot file&gt; &lt;dictionary file&gt;
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 3)
+		{
+			System.err.println("Usage: SnomedBaseAxioms <sct2_Concept_Snapshot.txt> <sct2_StatedRelationship_Snapshot.txt> <base axioms file>");
+			System.exit(1);
+		}
+		List<IAxiom> axioms;
+		try (InputStream concepts = new FileInputStream(args[0]); InputStream relationships = new FileInputStream(args[1]))
+		{
+			axioms = build(concepts, relationships, new InterningFactory());
+		}
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(args[2]), 1 << 20)))
+		{
+			AxiomCodec.write(axioms, dos);
+		}
+	}
+}
@@ -0,0 +1,412 @@
+package gov.va;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A prebuilt, memory-mapped dictionary of SNOMED SCTID to UUID, and UUID to description - a replacement for reading
+ * nid_sctid_uuid_map.txt into HashMaps at startup.
+ *
+ * The file holds two sorted tables of fixed width records, and a block of UTF-8 descriptions:
+ * <pre>
+ *   header       magic, version, sctid count, uuid count, description block length
+ *   sctid table  sctid, uuid msb, uuid lsb                             (sorted by sctid)
+ *   uuid table   uuid msb, uuid lsb, description offset, length        (sorted by msb, then lsb)
+ *   descriptions
+ * </pre>
+ * Lookups are binary searches directly against the mapping, so opening the dictionary costs nothing, and it takes no heap beyond the
+ * Strings handed back.
+ *
+ * Use {@link #build(InputStream, File)} (or the main method) once, to create the dictionary from the text file.  Thread safe.
+ */
+public class SnomedDictionary
+{
+	static Logger logger = LoggerFactory.getLogger(SnomedDictionary.class);
+
+	private static final int MAGIC = 0x4C435344; // "LCSD"
+	private static final int FORMAT_VERSION = 1;
+	private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+	private static final int SCTID_RECORD = 8 + 8 + 8;
+	private static final int UUID_RECORD = 8 + 8 + 8 + 4;
+
+	private final ByteBuffer buffer;
+	private final int sctidCount;
+	private final int uuidCount;
+	private final int uuidTableStart;
+	private final int descriptionsStart;
+
+	private SnomedDictionary(ByteBuffer buffer) throws IOException
+	{
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION)
+		{
+			throw new IOException("Not a SNOMED dictionary");
+		}
+		sctidCount = buffer.getInt(8);
+		uuidCount = buffer.getInt(12);
+		uuidTableStart = HEADER_SIZE + sctidCount * SCTID_RECORD;
+		descriptionsStart = uuidTableStart + uuidCount * UUID_RECORD;
+		if ((long) descriptionsStart + buffer.getLong(16) > buffer.capacity())
+		{
+			throw new IOException("Truncated SNOMED dictionary");
+		}
+	}
+
+	public static SnomedDictionary open(File dictionary) throws IOException
+	{
+		try (RandomAccessFile raf = new RandomAccessFile(dictionary, "r"); FileChannel channel = raf.getChannel())
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+			{
+				throw new IOException("Dictionary too large to map: " + dictionary.getAbsolutePath());
+			}
+			// the mapping stays valid after the channel is closed
+			return new SnomedDictionary(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Returns the UUID for the SCTID, or null, if it is unknown.
+	 */
+	public UUID getUuid(long sctid)
+	{
+		int low = 0;
+		int high = sctidCount - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int pos = HEADER_SIZE + mid * SCTID_RECORD;
+			long value = buffer.getLong(pos);
+			if (value < sctid)
+			{
+				low = mid + 1;
+			}
+			else if (value > sctid)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return new UUID(buffer.getLong(pos + 8), buffer.getLong(pos + 16));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Every SCTID in the dictionary, in ascending order - see {@link SctidResolver#preload(long[])}.
+	 */
+	public long[] getSctids()
+	{
+		long[] result = new long[sctidCount];
+		for (int i = 0; i < sctidCount; i++)
+		{
+			result[i] = buffer.getLong(HEADER_SIZE + i * SCTID_RECORD);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the description for the UUID, or null, if it is unknown.  Concepts without a description return an empty String.
+	 */
+	public String getDescription(UUID uuid)
+	{
+		long msb = uuid.getMostSignificantBits();
+		long lsb = uuid.getLeastSignificantBits();
+		int low = 0;
+		int high = uuidCount - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int pos = uuidTableStart + mid * UUID_RECORD;
+			int c = compare(buffer.getLong(pos), buffer.getLong(pos + 8), msb, lsb);
+			if (c < 0)
+			{
+				low = mid + 1;
+			}
+			else if (c > 0)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return readDescription(pos);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the description for the UUID String, or null, if it is unknown (or not a UUID).
+	 */
+	public String getDescription(String uuid)
+	{
+		UUID u = AxiomCodec.parseUUID(uuid);
+		return u == null ? null : getDescription(u);
+	}
+
+	private String readDescription(int uuidRecordPos)
+	{
+		long offset = buffer.getLong(uuidRecordPos + 16);
+		int length = buffer.getInt(uuidRecordPos + 24);
+		byte[] bytes = new byte[length];
+		ByteBuffer view = buffer.duplicate();
+		view.position((int) (descriptionsStart + offset));
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public int getSctidCount()
+	{
+		return sctidCount;
+	}
+
+	public int getUuidCount()
+	{
+		return uuidCount;
+	}
+
+	/**
+	 * A read only view of the UUID String to description mapping, for APIs that want a Map (such as Utils.printTaxonomy).  get() is a
+	 * lookup in the dictionary; iteration walks the whole dictionary.
+	 */
+	public Map<String, String> asDescriptionMap()
+	{
+		return new AbstractMap<String, String>()
+		{
+			@Override
+			public String get(Object key)
+			{
+				return key instanceof String ? getDescription((String) key) : null;
+			}
+
+			@Override
+			public boolean containsKey(Object key)
+			{
+				return get(key) != null;
+			}
+
+			@Override
+			public int size()
+			{
+				return uuidCount;
+			}
+
+			@Override
+			public Set<Map.Entry<String, String>> entrySet()
+			{
+				return new AbstractSet<Map.Entry<String, String>>()
+				{
+					@Override
+					public int size()
+					{
+						return uuidCount;
+					}
+
+					@Override
+					public Iterator<Map.Entry<String, String>> iterator()
+					{
+						return new Iterator<Map.Entry<String, String>>()
+						{
+							int next = 0;
+
+							@Override
+							public boolean hasNext()
+							{
+								return next < uuidCount;
+							}
+
+							@Override
+							public Map.Entry<String, String> next()
+							{
+								if (!hasNext())
+								{
+									throw new NoSuchElementException();
+								}
+								int pos = uuidTableStart + (next++) * UUID_RECORD;
+								String uuid = new UUID(buffer.getLong(pos), buffer.getLong(pos + 8)).toString();
+								return new AbstractMap.SimpleImmutableEntry<>(uuid, readDescription(pos));
+							}
+
+							@Override
+							public void remove()
+							{
+								throw new UnsupportedOperationException();
+							}
+						};
+					}
+				};
+			}
+		};
+	}
+
+	private static int compare(long msb1, long lsb1, long msb2, long lsb2)
+	{
+		if (msb1 != msb2)
+		{
+			return msb1 < msb2 ? -1 : 1;
+		}
+		if (lsb1 != lsb2)
+		{
+			return lsb1 < lsb2 ? -1 : 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Build the dictionary from the nid_sctid_uuid_map.txt format - one concept per line:
+	 * <pre>nid,sctid,uuid[,description]</pre>
+	 * Lines with an sctid of NA are skipped (as they always have been).  Everything after the third comma is the description.  If an
+	 * SCTID or UUID occurs more than once, the last line wins.
+	 */
+	public static void build(InputStream text, File dictionary) throws IOException
+	{
+		long start = System.currentTimeMillis();
+		ArrayList<long[]> entries = new ArrayList<>();
+		ArrayList<String> descriptions = new ArrayList<>();
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(text, StandardCharsets.UTF_8), 1 << 20))
+		{
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				int c1 = line.indexOf(',');
+				int c2 = c1 < 0 ? -1 : line.indexOf(',', c1 + 1);
+				if (c2 < 0)
+				{
+					continue;
+				}
+				int c3 = line.indexOf(',', c2 + 1);
+				String sctid = line.substring(c1 + 1, c2);
+				if (sctid.equals("NA"))
+				{
+					continue;
+				}
+				UUID uuid = UUID.fromString(c3 < 0 ? line.substring(c2 + 1) : line.substring(c2 + 1, c3));
+				entries.add(new long[] {Long.parseLong(sctid), uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), entries.size()});
+				descriptions.add(c3 < 0 ? "" : line.substring(c3 + 1));
+			}
+		}
+
+		long[][] bySctid = entries.toArray(new long[entries.size()][]);
+		// stable sorts, so the last of any duplicates is last in its run
+		Arrays.sort(bySctid, new Comparator<long[]>()
+		{
+			@Override
+			public int compare(long[] o1, long[] o2)
+			{
+				return Long.compare(o1[0], o2[0]);
+			}
+		});
+		long[][] byUuid = entries.toArray(new long[entries.size()][]);
+		Arrays.sort(byUuid, new Comparator<long[]>()
+		{
+			@Override
+			public int compare(long[] o1, long[] o2)
+			{
+				return SnomedDictionary.compare(o1[1], o1[2], o2[1], o2[2]);
+			}
+		});
+
+		ArrayList<long[]> sctids = new ArrayList<>();
+		for (int i = 0; i < bySctid.length; i++)
+		{
+			if (i + 1 == bySctid.length || bySctid[i + 1][0] != bySctid[i][0])
+			{
+				sctids.add(bySctid[i]);
+			}
+		}
+		ArrayList<long[]> uuids = new ArrayList<>();
+		for (int i = 0; i < byUuid.length; i++)
+		{
+			if (i + 1 == byUuid.length || compare(byUuid[i + 1][1], byUuid[i + 1][2], byUuid[i][1], byUuid[i][2]) != 0)
+			{
+				uuids.add(byUuid[i]);
+			}
+		}
+
+		ArrayList<byte[]> encoded = new ArrayList<>(uuids.size());
+		long descriptionBytes = 0;
+		for (long[] e : uuids)
+		{
+			byte[] b = descriptions.get((int) e[3]).getBytes(StandardCharsets.UTF_8);
+			encoded.add(b);
+			descriptionBytes += b.length;
+		}
+
+		// written to a temp file and renamed into place, so a failed build never leaves a partial dictionary behind
+		File temp = new File(dictionary.getAbsoluteFile().getParentFile(), dictionary.getName() + ".tmp");
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 20)))
+		{
+			dos.writeInt(MAGIC);
+			dos.writeInt(FORMAT_VERSION);
+			dos.writeInt(sctids.size());
+			dos.writeInt(uuids.size());
+			dos.writeLong(descriptionBytes);
+			for (long[] e : sctids)
+			{
+				dos.writeLong(e[0]);
+				dos.writeLong(e[1]);
+				dos.writeLong(e[2]);
+			}
+			long offset = 0;
+			for (int i = 0; i < uuids.size(); i++)
+			{
+				dos.writeLong(uuids.get(i)[1]);
+				dos.writeLong(uuids.get(i)[2]);
+				dos.writeLong(offset);
+				dos.writeInt(encoded.get(i).length);
+				offset += encoded.get(i).length;
+			}
+			for (byte[] b : encoded)
+			{
+				dos.write(b);
+			}
+		}
+		Files.move(temp.toPath(), dictionary.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		logger.info("Built SNOMED dictionary with " + sctids.size() + " SCTIDs and " + uuids.size() + " UUIDs in "
+				+ (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Usage: SnomedDictionary &lt;nid_sctid_uuid_map.txt&gt; &lt;dictionary file&gt;
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 2)
+		{
+			System.err.println("Usage: SnomedDictionary <nid_sctid_uuid_map.txt> <dictionary file>");
+			System.exit(1);
+		}
+		try (InputStream is = new FileInputStream(args[0]))
+		{
+			build(is, new File(args[1]));
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package gov.va;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.axioms.IConceptInclusion;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.ontology.model.INamedConcept;
+
+/**
+ * Remembers which definitions have already been handed to a reasoner - the assertion component UUID (discernible, qualifier or value)
+ * each definition is for, and a fingerprint of the definition (see {@link AxiomCodec#fingerprint(IConcept)}).  When set on a
+ * {@link SIMClassifier}, only new or modified definitions are sent to the reasoner; unchanged ones are skipped, and reported.
+ *
+ * The registry describes the contents of one reasoner - only use a saved registry with the reasoner state it was saved alongside
+ * (see {@link ClassifierCheckpoint}), never with a fresh base state.
+ *
+ * The reasoner can't retract axioms - a modified definition is added alongside the old one, which stays in force.  Modified definitions
+ * are reported, and logged as a warning; a rebuild from the base state is needed for their exact classification.
+ *
+ * Thread safe.
+ */
+public class SubmissionRegistry
+{
+	static Logger logger = LoggerFactory.getLogger(SubmissionRegistry.class);
+
+	private static final int MAGIC = 0x4C435352; // "LCSR"
+	// 2 - fingerprints include the direction of each axiom, and are always hashed
+	private static final int FORMAT_VERSION = 2;
+
+	private final HashMap<String, byte[]> submitted = new HashMap<>();
+	private final HashMap<String, byte[]> pending = new HashMap<>();
+	private Set<String> added = Collections.emptySet();
+	private Set<String> modified = Collections.emptySet();
+	private Set<String> skipped = Collections.emptySet();
+
+	/**
+	 * Returns the axioms that need to go to the reasoner - definitions that are unchanged since they were last submitted are dropped.
+	 * Axioms that aren't part of a definition (no named concept on either side) always pass.  The new and modified definitions are
+	 * remembered once {@link #commit()} is called.
+	 */
+	public synchronized Set<IAxiom> filter(Set<IAxiom> axioms) throws IOException
+	{
+		// the fingerprints of every expression defining each named concept - usually just one
+		Map<String, List<byte[]>> definitions = new HashMap<>();
+		for (IAxiom a : axioms)
+		{
+			String id = definedId(a);
+			if (id != null)
+			{
+				IConceptInclusion ci = (IConceptInclusion) a;
+				boolean named = ci.lhs() instanceof INamedConcept;
+				List<byte[]> l = definitions.get(id);
+				if (l == null)
+				{
+					l = new ArrayList<>(2);
+					definitions.put(id, l);
+				}
+				l.add(fingerprint(named ? ci.rhs() : ci.lhs(), named));
+			}
+		}
+
+		added = new HashSet<>();
+		modified = new HashSet<>();
+		skipped = new HashSet<>();
+		pending.clear();
+		for (Map.Entry<String, List<byte[]>> e : definitions.entrySet())
+		{
+			byte[] fingerprint = combine(e.getValue());
+			byte[] previous = submitted.get(e.getKey());
+			if (previous == null)
+			{
+				added.add(e.getKey());
+				pending.put(e.getKey(), fingerprint);
+			}
+			else if (Arrays.equals(previous, fingerprint))
+			{
+				skipped.add(e.getKey());
+			}
+			else
+			{
+				modified.add(e.getKey());
+				pending.put(e.getKey(), fingerprint);
+			}
+		}
+
+		Set<IAxiom> result = new HashSet<>(axioms.size() * 2);
+		for (IAxiom a : axioms)
+		{
+			String id = definedId(a);
+			if (id == null || !skipped.contains(id))
+			{
+				result.add(a);
+			}
+		}
+
+		logger.info(added.size() + " new definitions, " + modified.size() + " modified, " + skipped.size() + " unchanged and skipped");
+		if (!modified.isEmpty())
+		{
+			logger.warn(modified.size() + " definitions changed since they were submitted - the old definitions can't be retracted, "
+					+ "so rebuild from the base state for an exact classification");
+		}
+		return result;
+	}
+
+	/**
+	 * The named concept an axiom is part of the definition of - the named side of a concept inclusion between a named concept and an
+	 * expression - or null.
+	 */
+	private static String definedId(IAxiom a)
+	{
+		if (!(a instanceof IConceptInclusion))
+		{
+			return null;
+		}
+		IConceptInclusion ci = (IConceptInclusion) a;
+		if (ci.lhs() instanceof INamedConcept && !(ci.rhs() instanceof INamedConcept))
+		{
+			return (String) ((INamedConcept<?>) ci.lhs()).getId();
+		}
+		if (ci.rhs() instanceof INamedConcept && !(ci.lhs() instanceof INamedConcept))
+		{
+			return (String) ((INamedConcept<?>) ci.rhs()).getId();
+		}
+		return null;
+	}
+
+	/**
+	 * The fingerprint of the expression, prefixed with the direction of the axiom - "concept implies expression" and "expression implies
+	 * concept" are different definitions.
+	 */
+	private static byte[] fingerprint(IConcept expression, boolean namedOnLeft) throws IOException
+	{
+		byte[] f = AxiomCodec.fingerprint(expression);
+		byte[] result = new byte[f.length + 1];
+		result[0] = (byte) (namedOnLeft ? 0 : 1);
+		System.arraycopy(f, 0, result, 1, f.length);
+		return result;
+	}
+
+	/**
+	 * Order independent - the axioms come from a Set.  Always a SHA-256 of the distinct fingerprints, however many there are.
+	 */
+	private static byte[] combine(List<byte[]> fingerprints) throws IOException
+	{
+		byte[][] sorted = fingerprints.toArray(new byte[fingerprints.size()][]);
+		Arrays.sort(sorted, AxiomCodec.UNSIGNED_BYTES);
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] previous = null;
+			for (byte[] f : sorted)
+			{
+				// the same definition twice is the same as once
+				if (!Arrays.equals(f, previous))
+				{
+					digest.update(f);
+				}
+				previous = f;
+			}
+			return digest.digest();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Remember the definitions passed by the last {@link #filter(Set)} as submitted - call once the reasoner has them.
+	 */
+	public synchronized void commit()
+	{
+		submitted.putAll(pending);
+		pending.clear();
+	}
+
+	/**
+	 * The ids of the concepts with new definitions, in the last filter
+	 */
+	public synchronized Set<String> getAdded()
+	{
+		return added;
+	}
+
+	/**
+	 * The ids of the concepts with modified definitions, in the last filter
+	 */
+	public synchronized Set<String> getModified()
+	{
+		return modified;
+	}
+
+	/**
+	 * The ids of the concepts with unchanged definitions (which were not sent to the reasoner), in the last filter
+	 */
+	public synchronized Set<String> getSkipped()
+	{
+		return skipped;
+	}
+
+	/**
+	 * The ids of every concept submitted so far
+	 */
+	public synchronized Set<String> getSubmitted()
+	{
+		return new HashSet<>(submitted.keySet());
+	}
+
+	public synchronized int size()
+	{
+		return submitted.size();
+	}
+
+	public synchronized void save(File file) throws IOException
+	{
+		try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file))))
+		{
+			dos.writeInt(MAGIC);
+			dos.writeInt(FORMAT_VERSION);
+			dos.writeInt(SIMClassifier.CONVERTER_VERSION);
+			dos.writeInt(submitted.size());
+			for (Map.Entry<String, byte[]> e : submitted.entrySet())
+			{
+				dos.writeUTF(e.getKey());
+				dos.writeByte(e.getValue().length);
+				dos.write(e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Load a registry written by {@link #save(File)}.  A registry written by a different version of the converter is still loaded -
+	 * the definitions are in the reasoner either way - but any definition the new converter builds differently will show as modified.
+	 */
+	public static SubmissionRegistry load(File file) throws IOException
+	{
+		try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			if (dis.readInt() != MAGIC || dis.readInt() != FORMAT_VERSION)
+			{
+				throw new IOException("Not a submission registry: " + file.getAbsolutePath());
+			}
+			int converterVersion = dis.readInt();
+			if (converterVersion != SIMClassifier.CONVERTER_VERSION)
+			{
+				logger.warn("Submission registry " + file.getName() + " was written by converter version " + converterVersion);
+			}
+			SubmissionRegistry r = new SubmissionRegistry();
+			int count = dis.readInt();
+			for (int i = 0; i < count; i++)
+			{
+				String id = dis.readUTF();
+				byte[] fingerprint = new byte[dis.readUnsignedByte()];
+				dis.readFully(fingerprint);
+				r.submitted.put(id, fingerprint);
+			}
+			return r;
+		}
+	}
+}
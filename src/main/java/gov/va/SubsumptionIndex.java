@@ -0,0 +1,807 @@
+package gov.va;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.csiro.ontology.IOntology;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.axioms.IConceptInclusion;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.ontology.model.IConjunction;
+import au.csiro.ontology.model.IExistential;
+import au.csiro.ontology.model.INamedConcept;
+
+/**
+ * A reachability index over the classified taxonomy, for subsumption queries ({@link #isSubsumedBy(String, String)},
+ * {@link #getAncestors(String)}, {@link #getDescendants(String)}) without walking Node.getParents() on every query.
+ *
+ * The taxonomy is copied into int arrays (compressed rows of parents and children), and each node is labelled by a depth first walk of
+ * the children, from the top:
+ * <ul>
+ * <li>pre and post - its pre and post order numbers.  If x is inside y's pre / post interval, x is below y on the walk's spanning tree,
+ * so y subsumes x.</li>
+ * <li>low and post - low is the smallest post order number of any of its descendants.  Every descendant's [low, post] lies within its
+ * ancestors' - so if x's doesn't lie within y's, y can't subsume x.</li>
+ * </ul>
+ * Most queries are answered by one of the two labels; the rest search upwards from x, skipping every parent whose label rules it out.
+ *
+ * When a {@link SIMClassifier} has an index (see {@link SIMClassifier#setSubsumptionIndexed(boolean)}), it is updated after
+ * each classification.  New nodes are kept in an overlay, rather than relabelling the whole taxonomy - which is only correct for a
+ * conservative extension: new concepts, defined in terms of existing ones, which can't change the subsumptions between existing concepts.
+ * Lego definitions are of this kind (they define new assertion component UUIDs).  The index is rebuilt instead when a definition has
+ * changed, when a new node can't be placed, or when the overlay outgrows subsumptionIndex.rebuildRatio (default 0.1) of the labelled
+ * nodes.
+ *
+ * Thread safe - queries don't lock.  The labelled part and the overlay are immutable, and an update publishes new ones.
+ */
+public class SubsumptionIndex
+{
+	static Logger logger = LoggerFactory.getLogger(SubsumptionIndex.class);
+
+	private static final double REBUILD_RATIO = Double.parseDouble(System.getProperty("subsumptionIndex.rebuildRatio", "0.1"));
+
+	/**
+	 * The labelled taxonomy, as of the last build
+	 */
+	private static final class Base
+	{
+		final int size;
+		final HashMap<String, Integer> index;
+		final String[][] ids;
+		final int[] parentStart, parents, childStart, children;
+		final int[] pre, post, low;
+
+		Base(int size, HashMap<String, Integer> index, String[][] ids, int[] parentStart, int[] parents, int[] childStart, int[] children)
+		{
+			this.size = size;
+			this.index = index;
+			this.ids = ids;
+			this.parentStart = parentStart;
+			this.parents = parents;
+			this.childStart = childStart;
+			this.children = children;
+			this.pre = new int[size];
+			this.post = new int[size];
+			this.low = new int[size];
+		}
+	}
+
+	/**
+	 * The nodes added since the last build (numbered from base.size), and the edges between them and the labelled nodes.  Never changed
+	 * once published - an update copies it.
+	 */
+	private static final class Overlay
+	{
+		final HashMap<String, Integer> index;
+		final List<String[]> ids;
+		final List<int[]> parents;
+		final List<int[]> children;
+		final HashMap<Integer, int[]> addedParents;
+		final HashMap<Integer, int[]> addedChildren;
+		final HashMap<Integer, String[]> addedIds;
+
+		Overlay()
+		{
+			this(new HashMap<String, Integer>(), new ArrayList<String[]>(), new ArrayList<int[]>(), new ArrayList<int[]>(),
+					new HashMap<Integer, int[]>(), new HashMap<Integer, int[]>(), new HashMap<Integer, String[]>());
+		}
+
+		Overlay(Overlay o)
+		{
+			this(new HashMap<>(o.index), new ArrayList<>(o.ids), new ArrayList<>(o.parents), new ArrayList<>(o.children), new HashMap<>(
+					o.addedParents), new HashMap<>(o.addedChildren), new HashMap<>(o.addedIds));
+		}
+
+		private Overlay(HashMap<String, Integer> index, List<String[]> ids, List<int[]> parents, List<int[]> children,
+				HashMap<Integer, int[]> addedParents, HashMap<Integer, int[]> addedChildren, HashMap<Integer, String[]> addedIds)
+		{
+			this.index = index;
+			this.ids = ids;
+			this.parents = parents;
+			this.children = children;
+			this.addedParents = addedParents;
+			this.addedChildren = addedChildren;
+			this.addedIds = addedIds;
+		}
+	}
+
+	private static final class State
+	{
+		final Base base;
+		final Overlay overlay;
+
+		State(Base base, Overlay overlay)
+		{
+			this.base = base;
+			this.overlay = overlay;
+		}
+
+		int size()
+		{
+			return base.size + overlay.ids.size();
+		}
+
+		int lookup(String id)
+		{
+			Integer i = base.index.get(id);
+			if (i == null)
+			{
+				i = overlay.index.get(id);
+			}
+			return i == null ? -1 : i;
+		}
+	}
+
+	/**
+	 * Per thread search marks - a node is marked when its mark equals the current stamp, so clearing is a stamp increment.
+	 */
+	private static final class Marks
+	{
+		int[] marks = new int[0];
+		int stamp = 0;
+		int[] stack = new int[64];
+
+		void start(int size)
+		{
+			if (marks.length < size)
+			{
+				marks = new int[size + (size >> 3)];
+				stamp = 0;
+			}
+			if (++stamp == Integer.MAX_VALUE)
+			{
+				Arrays.fill(marks, 0);
+				stamp = 1;
+			}
+		}
+
+		/**
+		 * @return true if the node wasn't marked yet
+		 */
+		boolean mark(int node)
+		{
+			if (marks[node] == stamp)
+			{
+				return false;
+			}
+			marks[node] = stamp;
+			return true;
+		}
+
+		int[] push(int[] stack, int top, int value)
+		{
+			if (top == stack.length)
+			{
+				stack = Arrays.copyOf(stack, top * 2);
+			}
+			stack[top] = value;
+			return stack;
+		}
+	}
+
+	// separate marks for the labelled search, which runs inside the overlay search
+	private static final ThreadLocal<Marks> baseMarks = new ThreadLocal<Marks>()
+	{
+		@Override
+		protected Marks initialValue()
+		{
+			return new Marks();
+		}
+	};
+	private static final ThreadLocal<Marks> overlayMarks = new ThreadLocal<Marks>()
+	{
+		@Override
+		protected Marks initialValue()
+		{
+			return new Marks();
+		}
+	};
+
+	private volatile State state;
+
+	/**
+	 * Index the classified ontology.
+	 */
+	public SubsumptionIndex(IOntology<String> ontology)
+	{
+		rebuild(ontology);
+	}
+
+	/**
+	 * Index the whole ontology again, dropping the overlay.
+	 */
+	public synchronized void rebuild(IOntology<String> ontology)
+	{
+		long start = System.currentTimeMillis();
+		state = new State(build(ontology), new Overlay());
+		logger.info("Indexed " + state.base.size + " nodes in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private static Base build(IOntology<String> ontology)
+	{
+		// number the nodes - adding any that are only reachable as a parent or child
+		final IdentityHashMap<Node<String>, Integer> numbers = new IdentityHashMap<>();
+		final List<Node<String>> nodes = new ArrayList<>();
+		for (Node<String> n : ontology.getNodeMap().values())
+		{
+			number(n, numbers, nodes);
+		}
+		int edgesUp = 0, edgesDown = 0;
+		for (int i = 0; i < nodes.size(); i++)
+		{
+			for (Node<String> p : nodes.get(i).getParents())
+			{
+				number(p, numbers, nodes);
+				edgesUp++;
+			}
+			for (Node<String> c : nodes.get(i).getChildren())
+			{
+				number(c, numbers, nodes);
+				edgesDown++;
+			}
+		}
+
+		int size = nodes.size();
+		HashMap<String, Integer> index = new HashMap<>(size * 2);
+		String[][] ids = new String[size][];
+		int[] parentStart = new int[size + 1];
+		int[] parents = new int[edgesUp];
+		int[] childStart = new int[size + 1];
+		int[] children = new int[edgesDown];
+		int up = 0, down = 0;
+		for (int i = 0; i < size; i++)
+		{
+			Node<String> n = nodes.get(i);
+			ids[i] = n.getEquivalentConcepts().toArray(new String[n.getEquivalentConcepts().size()]);
+			for (String id : ids[i])
+			{
+				index.put(id, i);
+			}
+			parentStart[i] = up;
+			for (Node<String> p : n.getParents())
+			{
+				parents[up++] = numbers.get(p);
+			}
+			childStart[i] = down;
+			for (Node<String> c : n.getChildren())
+			{
+				children[down++] = numbers.get(c);
+			}
+		}
+		parentStart[size] = up;
+		childStart[size] = down;
+
+		Base base = new Base(size, index, ids, parentStart, parents, childStart, children);
+		label(base);
+		return base;
+	}
+
+	private static void number(Node<String> n, IdentityHashMap<Node<String>, Integer> numbers, List<Node<String>> nodes)
+	{
+		if (!numbers.containsKey(n))
+		{
+			numbers.put(n, nodes.size());
+			nodes.add(n);
+		}
+	}
+
+	/**
+	 * An iterative depth first walk down the children, from each root, numbering pre and post order, and taking the low label of each
+	 * node as it finishes (when all of its children have finished - the taxonomy has no cycles).
+	 */
+	private static void label(Base b)
+	{
+		int[] stack = new int[b.size];
+		int[] cursor = new int[b.size];
+		boolean[] visited = new boolean[b.size];
+		int preCount = 0, postCount = 0;
+		for (int pass = 0; pass < 2; pass++)
+		{
+			for (int root = 0; root < b.size; root++)
+			{
+				// roots first, then anything not reached from a root
+				if (visited[root] || (pass == 0 && b.parentStart[root] != b.parentStart[root + 1]))
+				{
+					continue;
+				}
+				int top = 0;
+				stack[top] = root;
+				cursor[root] = b.childStart[root];
+				visited[root] = true;
+				b.pre[root] = preCount++;
+				while (top >= 0)
+				{
+					int v = stack[top];
+					if (cursor[v] < b.childStart[v + 1])
+					{
+						int c = b.children[cursor[v]++];
+						if (!visited[c])
+						{
+							visited[c] = true;
+							b.pre[c] = preCount++;
+							cursor[c] = b.childStart[c];
+							stack[++top] = c;
+						}
+					}
+					else
+					{
+						b.post[v] = postCount++;
+						int low = b.post[v];
+						for (int i = b.childStart[v]; i < b.childStart[v + 1]; i++)
+						{
+							low = Math.min(low, b.low[b.children[i]]);
+						}
+						b.low[v] = low;
+						top--;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add the nodes of the concepts that are new since the last update, assuming the taxonomy was extended conservatively (see the
+	 * class comment).  Concepts already indexed are ignored.  Rebuilds the index if a new node can't be placed, or the overlay is
+	 * too large.
+	 */
+	public synchronized void update(IOntology<String> ontology, Collection<String> ids)
+	{
+		State s = state;
+		Overlay o = new Overlay(s.overlay);
+		int next = s.size();
+
+		// number the new nodes - a new concept that is equivalent to an existing one just becomes another id of it
+		IdentityHashMap<Node<String>, Integer> added = new IdentityHashMap<>();
+		List<Node<String>> addedNodes = new ArrayList<>();
+		for (String id : ids)
+		{
+			if (s.lookup(id) >= 0 || o.index.containsKey(id))
+			{
+				continue;
+			}
+			Node<String> n = ontology.getNode(id);
+			if (n == null)
+			{
+				continue;
+			}
+			Integer existing = added.get(n);
+			if (existing == null)
+			{
+				existing = find(n, s, o);
+			}
+			if (existing != null)
+			{
+				o.index.put(id, existing);
+				if (existing < s.base.size)
+				{
+					String[] extra = o.addedIds.get(existing);
+					o.addedIds.put(existing, append(extra == null ? new String[0] : extra, id));
+				}
+				else if (!Arrays.asList(o.ids.get(existing - s.base.size)).contains(id))
+				{
+					o.ids.set(existing - s.base.size, append(o.ids.get(existing - s.base.size), id));
+				}
+				continue;
+			}
+			added.put(n, next);
+			addedNodes.add(n);
+			o.index.put(id, next);
+			o.ids.add(n.getEquivalentConcepts().toArray(new String[n.getEquivalentConcepts().size()]));
+			for (String e : n.getEquivalentConcepts())
+			{
+				o.index.put(e, next);
+			}
+			o.parents.add(new int[0]);
+			o.children.add(new int[0]);
+			next++;
+		}
+		if (addedNodes.isEmpty())
+		{
+			state = new State(s.base, o);
+			return;
+		}
+
+		// then connect them
+		for (Node<String> n : addedNodes)
+		{
+			int i = added.get(n);
+			for (Node<String> p : n.getParents())
+			{
+				Integer pi = added.containsKey(p) ? added.get(p) : find(p, s, o);
+				if (pi == null)
+				{
+					logger.info("A new node's parent isn't indexed - rebuilding");
+					rebuild(ontology);
+					return;
+				}
+				connect(o, s.base.size, pi, i);
+			}
+			for (Node<String> c : n.getChildren())
+			{
+				Integer ci = added.containsKey(c) ? added.get(c) : find(c, s, o);
+				if (ci == null)
+				{
+					logger.info("A new node's child isn't indexed - rebuilding");
+					rebuild(ontology);
+					return;
+				}
+				connect(o, s.base.size, i, ci);
+			}
+		}
+
+		if (o.ids.size() > s.base.size * REBUILD_RATIO)
+		{
+			rebuild(ontology);
+			return;
+		}
+		state = new State(s.base, o);
+		logger.debug("Added " + addedNodes.size() + " nodes to the overlay, now " + o.ids.size());
+	}
+
+	/**
+	 * The index of an existing node, found by any of its ids, or null
+	 */
+	private static Integer find(Node<String> n, State s, Overlay o)
+	{
+		for (String e : n.getEquivalentConcepts())
+		{
+			int i = s.lookup(e);
+			if (i >= 0)
+			{
+				return i;
+			}
+			Integer oi = o.index.get(e);
+			if (oi != null)
+			{
+				return oi;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Add the edge parent - child, where either may be new.  Only copies of the overlay's arrays are changed.
+	 */
+	private static void connect(Overlay o, int baseSize, int parent, int child)
+	{
+		if (parent >= baseSize)
+		{
+			o.children.set(parent - baseSize, appendUnique(o.children.get(parent - baseSize), child));
+		}
+		else
+		{
+			int[] a = o.addedChildren.get(parent);
+			o.addedChildren.put(parent, appendUnique(a == null ? new int[0] : a, child));
+		}
+		if (child >= baseSize)
+		{
+			o.parents.set(child - baseSize, appendUnique(o.parents.get(child - baseSize), parent));
+		}
+		else
+		{
+			int[] a = o.addedParents.get(child);
+			o.addedParents.put(child, appendUnique(a == null ? new int[0] : a, parent));
+		}
+	}
+
+	private static int[] appendUnique(int[] a, int value)
+	{
+		for (int v : a)
+		{
+			if (v == value)
+			{
+				return a;
+			}
+		}
+		int[] result = Arrays.copyOf(a, a.length + 1);
+		result[a.length] = value;
+		return result;
+	}
+
+	private static String[] append(String[] a, String value)
+	{
+		String[] result = Arrays.copyOf(a, a.length + 1);
+		result[a.length] = value;
+		return result;
+	}
+
+	/**
+	 * Update the index after the axioms were classified - every named concept they mention may be new.  Rebuilds instead if a definition
+	 * was modified, which isn't a conservative extension.
+	 *
+	 * @param modified - the ids of the concepts with modified definitions, or null if that isn't known, in which case a definition of a
+	 *            concept that is already indexed counts as modified
+	 */
+	synchronized void update(IOntology<String> ontology, Set<IAxiom> axioms, Set<String> modified)
+	{
+		State s = state;
+		Set<String> ids = new LinkedHashSet<>();
+		boolean redefined = modified != null && !modified.isEmpty();
+		for (IAxiom a : axioms)
+		{
+			if (a instanceof IConceptInclusion)
+			{
+				IConcept lhs = ((IConceptInclusion) a).lhs();
+				if (modified == null && lhs instanceof INamedConcept && s.lookup((String) ((INamedConcept<?>) lhs).getId()) >= 0)
+				{
+					redefined = true;
+				}
+				namedConcepts(lhs, ids);
+				namedConcepts(((IConceptInclusion) a).rhs(), ids);
+			}
+		}
+		if (redefined)
+		{
+			logger.debug("Definitions changed - rebuilding");
+			rebuild(ontology);
+		}
+		else
+		{
+			update(ontology, ids);
+		}
+	}
+
+	private static void namedConcepts(IConcept c, Set<String> ids)
+	{
+		if (c instanceof INamedConcept)
+		{
+			ids.add((String) ((INamedConcept<?>) c).getId());
+		}
+		else if (c instanceof IConjunction)
+		{
+			for (IConcept child : ((IConjunction) c).getConcepts())
+			{
+				namedConcepts(child, ids);
+			}
+		}
+		else if (c instanceof IExistential)
+		{
+			namedConcepts(((IExistential<?>) c).getConcept(), ids);
+		}
+	}
+
+	/**
+	 * Is the concept x subsumed by (or equivalent to) the concept y?  False if either isn't indexed.
+	 */
+	public boolean isSubsumedBy(String x, String y)
+	{
+		State s = state;
+		int ix = s.lookup(x);
+		int iy = s.lookup(y);
+		if (ix < 0 || iy < 0)
+		{
+			return false;
+		}
+		if (ix < s.base.size && iy < s.base.size)
+		{
+			return reaches(s.base, ix, iy);
+		}
+		return reachesWithOverlay(s, ix, iy);
+	}
+
+	/**
+	 * Is y an ancestor of (or the same as) x, in the labelled taxonomy?
+	 */
+	private static boolean reaches(Base b, int x, int y)
+	{
+		if (x == y || (b.pre[y] <= b.pre[x] && b.post[x] <= b.post[y]))
+		{
+			return true;
+		}
+		if (!(b.low[y] <= b.low[x] && b.post[x] <= b.post[y]))
+		{
+			return false;
+		}
+		Marks m = baseMarks.get();
+		m.start(b.size);
+		int[] stack = m.stack;
+		int top = 0;
+		stack[top++] = x;
+		m.mark(x);
+		try
+		{
+			while (top > 0)
+			{
+				int v = stack[--top];
+				for (int i = b.parentStart[v]; i < b.parentStart[v + 1]; i++)
+				{
+					int p = b.parents[i];
+					if (p == y || (b.pre[y] <= b.pre[p] && b.post[p] <= b.post[y]))
+					{
+						return true;
+					}
+					if (m.mark(p) && b.low[y] <= b.low[p] && b.post[p] <= b.post[y])
+					{
+						stack = m.push(stack, top++, p);
+					}
+				}
+			}
+			return false;
+		}
+		finally
+		{
+			m.stack = stack;
+		}
+	}
+
+	/**
+	 * Search up from x, through the overlay.  If y is labelled, a labelled node is checked against it directly (by the conservative
+	 * extension, no new node can make a labelled node reach another one), and not searched past.
+	 */
+	private static boolean reachesWithOverlay(State s, int x, int y)
+	{
+		if (x == y)
+		{
+			return true;
+		}
+		Base b = s.base;
+		Overlay o = s.overlay;
+		boolean yLabelled = y < b.size;
+		Marks m = overlayMarks.get();
+		m.start(s.size());
+		int[] stack = m.stack;
+		int top = 0;
+		stack[top++] = x;
+		m.mark(x);
+		try
+		{
+			while (top > 0)
+			{
+				int v = stack[--top];
+				if (v < b.size)
+				{
+					if (yLabelled)
+					{
+						if (reaches(b, v, y))
+						{
+							return true;
+						}
+						continue;
+					}
+					for (int i = b.parentStart[v]; i < b.parentStart[v + 1]; i++)
+					{
+						int p = b.parents[i];
+						if (p == y)
+						{
+							return true;
+						}
+						if (m.mark(p))
+						{
+							stack = m.push(stack, top++, p);
+						}
+					}
+				}
+				int[] parents = v < b.size ? o.addedParents.get(v) : o.parents.get(v - b.size);
+				if (parents != null)
+				{
+					for (int p : parents)
+					{
+						if (p == y)
+						{
+							return true;
+						}
+						if (m.mark(p))
+						{
+							stack = m.push(stack, top++, p);
+						}
+					}
+				}
+			}
+			return false;
+		}
+		finally
+		{
+			m.stack = stack;
+		}
+	}
+
+	/**
+	 * The ids of every concept that subsumes the concept (not counting its equivalents) - empty if it isn't indexed.
+	 */
+	public Set<String> getAncestors(String id)
+	{
+		return walk(id, true);
+	}
+
+	/**
+	 * The ids of every concept the concept subsumes (not counting its equivalents) - empty if it isn't indexed.
+	 */
+	public Set<String> getDescendants(String id)
+	{
+		return walk(id, false);
+	}
+
+	private Set<String> walk(String id, boolean up)
+	{
+		State s = state;
+		int start = s.lookup(id);
+		if (start < 0)
+		{
+			return Collections.emptySet();
+		}
+		Base b = s.base;
+		Overlay o = s.overlay;
+		Set<String> result = new LinkedHashSet<>();
+		Marks m = overlayMarks.get();
+		m.start(s.size());
+		int[] stack = m.stack;
+		int top = 0;
+		stack[top++] = start;
+		m.mark(start);
+		try
+		{
+			while (top > 0)
+			{
+				int v = stack[--top];
+				if (v != start)
+				{
+					addIds(s, v, result);
+				}
+				if (v < b.size)
+				{
+					int[] starts = up ? b.parentStart : b.childStart;
+					int[] edges = up ? b.parents : b.children;
+					for (int i = starts[v]; i < starts[v + 1]; i++)
+					{
+						if (m.mark(edges[i]))
+						{
+							stack = m.push(stack, top++, edges[i]);
+						}
+					}
+				}
+				int[] more = v < b.size ? (up ? o.addedParents : o.addedChildren).get(v) : (up ? o.parents : o.children).get(v - b.size);
+				if (more != null)
+				{
+					for (int n : more)
+					{
+						if (m.mark(n))
+						{
+							stack = m.push(stack, top++, n);
+						}
+					}
+				}
+			}
+		}
+		finally
+		{
+			m.stack = stack;
+		}
+		return result;
+	}
+
+	private static void addIds(State s, int node, Set<String> result)
+	{
+		if (node < s.base.size)
+		{
+			Collections.addAll(result, s.base.ids[node]);
+			String[] extra = s.overlay.addedIds.get(node);
+			if (extra != null)
+			{
+				Collections.addAll(result, extra);
+			}
+		}
+		else
+		{
+			Collections.addAll(result, s.overlay.ids.get(node - s.base.size));
+		}
+	}
+
+	/**
+	 * The number of nodes in the labelled taxonomy, and in the overlay
+	 */
+	public int[] getSizes()
+	{
+		State s = state;
+		return new int[] {s.base.size, s.overlay.ids.size()};
+	}
+}
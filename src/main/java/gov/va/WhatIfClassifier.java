@@ -0,0 +1,508 @@
+package gov.va;
+
+import gov.va.sim.lego.LegoBI;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import au.csiro.ontology.IOntology;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.axioms.IConceptInclusion;
+import au.csiro.ontology.classification.IReasoner;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.ontology.model.IConjunction;
+import au.csiro.ontology.model.IExistential;
+import au.csiro.ontology.model.INamedConcept;
+import au.csiro.ontology.model.INamedRole;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Tentative ("what-if") classification against a shared {@link SIMClassifier}.
+ *
+ * Snorocket can't retract axioms, so previews are never classified into the shared reasoner - it (and everything built from it:
+ * summaries, results, the subsumption index and checkpoints) never sees a tentative concept.  Instead, previews are classified into a
+ * sandbox, a copy of the shared reasoner (written and loaded through a temporary {@link ReasonerSnapshot}).  The sandbox is reused by
+ * later previews, until the shared classifier classifies something new - then the next preview takes a fresh copy, and the old sandbox
+ * (with the tentative concepts in it) is dropped once no open preview uses it.  The sandbox takes as much memory as the shared reasoner.
+ *
+ * The copy is not cheap: the first preview after any classification of the shared classifier costs a write and a load of the whole
+ * base state, so preview latency scales with the size of the base, not of the preview, whenever the shared classifier is busy.  Only
+ * the write holds the classifier's monitor (it has to see a consistent reasoner); the load happens outside it, so /classify, /concept,
+ * checkpoints and metrics are only held up for the write.  Previews wait for a copy in progress, and open previews keep reading the
+ * old sandbox until the new one replaces it.
+ *
+ * Previews share a sandbox, so every concept a preview defines is also renamed into a private namespace (id + {@link #TENTATIVE_MARKER}
+ * + preview number) before it is classified.  Definitions of fresh names are a conservative extension - they can't change any
+ * subsumption between existing concepts - so previews don't affect each other, and each costs one incremental classification of its
+ * own axioms (plus a copy, if the sandbox is stale).  Discarding a preview just hides its namespace.  Use
+ * {@link #visibleParents(Node, Preview)} and friends to read a preview - they hide the other previews' concepts, and step over their
+ * nodes.  {@link #getRetainedConcepts()} reports how many tentative concepts the current sandbox holds.
+ *
+ * Only concept inclusions that define a concept can be previewed - any number of necessary conditions (X < E), or a single equivalence
+ * (X < E and E < X, and nothing else for X).  Anything else (role inclusions, general inclusions between expressions, a sufficient
+ * condition that isn't also necessary, or two equivalences) could change the base taxonomy, and is rejected.
+ *
+ * Thread safe - a preview is classified, and read, while holding the lock of its sandbox ({@link Preview#getLock()}), not the
+ * classifier's monitor.
+ */
+public class WhatIfClassifier
+{
+	static Logger logger = LoggerFactory.getLogger(WhatIfClassifier.class);
+
+	public static final String TENTATIVE_MARKER = "#tentative-";
+
+	private final SIMClassifier classifier;
+	private final AtomicLong previewIds = new AtomicLong();
+	private final Set<Long> active = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+	// held while copying the shared reasoner, so only one copy is made at a time
+	private final Object copying = new Object();
+	private volatile Sandbox sandbox;
+
+	/**
+	 * A copy of the shared reasoner, as of a number of classifications.  Synchronize on it to classify into it, or read its nodes.
+	 */
+	private static class Sandbox
+	{
+		final IReasoner<String> reasoner;
+		final long classifications;
+		final AtomicLong retainedConcepts = new AtomicLong();
+
+		Sandbox(IReasoner<String> reasoner, long classifications)
+		{
+			this.reasoner = reasoner;
+			this.classifications = classifications;
+		}
+	}
+
+	/**
+	 * The classified, tentative state of a set of axioms.  Call {@link #close()} to discard it.
+	 */
+	public class Preview implements Closeable
+	{
+		private final long id;
+		private final Map<String, String> renamed;
+		private final Sandbox sandbox;
+
+		Preview(long id, Map<String, String> renamed, Sandbox sandbox)
+		{
+			this.id = id;
+			this.renamed = renamed;
+			this.sandbox = sandbox;
+		}
+
+		public long getId()
+		{
+			return id;
+		}
+
+		/**
+		 * The (original) ids of the concepts the preview defines
+		 */
+		public Set<String> getDefinedConcepts()
+		{
+			return renamed.keySet();
+		}
+
+		/**
+		 * The node of the concept as the preview sees it - the tentative node for a concept the preview defines, otherwise the
+		 * concept's node in the sandbox - or null, if there is none, or the preview is discarded.  Use the visible* methods of the
+		 * {@link WhatIfClassifier} (passing this preview) to read it.
+		 */
+		public Node<String> getNode(String id)
+		{
+			if (!active.contains(this.id) || isTentative(id))
+			{
+				return null;
+			}
+			String tentative = renamed.get(id);
+			synchronized (sandbox)
+			{
+				return sandbox.reasoner.getClassifiedOntology().getNode(tentative == null ? id : tentative);
+			}
+		}
+
+		/**
+		 * The lock guarding the preview's nodes - hold it across several reads, for a consistent view while other previews classify.
+		 */
+		public Object getLock()
+		{
+			return sandbox;
+		}
+
+		/**
+		 * Discard the preview.  Its concepts are hidden from then on.
+		 */
+		@Override
+		public void close()
+		{
+			active.remove(id);
+		}
+	}
+
+	public WhatIfClassifier(SIMClassifier classifier)
+	{
+		this.classifier = classifier;
+	}
+
+	/**
+	 * Convert the Legos, and classify their axioms tentatively.
+	 */
+	public Preview preview(LegoBI... legos) throws Exception
+	{
+		SIMClassifier converter = new SIMClassifier(null, classifier.getFactory());
+		converter.convertToAxioms(legos);
+		return preview(converter.getUnclassifiedAxioms());
+	}
+
+	/**
+	 * Classify the axioms tentatively.
+	 *
+	 * @throws IllegalArgumentException if an axiom doesn't define a concept, or the definitions aren't a conservative extension
+	 * @throws IOException if the shared reasoner can't be copied into a sandbox
+	 */
+	public Preview preview(Collection<IAxiom> axioms) throws IOException
+	{
+		long previewId = previewIds.incrementAndGet();
+		InterningFactory f = classifier.getFactory();
+
+		// first pass - everything named on the left of an inclusion is defined by this set
+		Map<String, String> renamed = new HashMap<>();
+		for (IAxiom a : axioms)
+		{
+			if (a instanceof IConceptInclusion && ((IConceptInclusion) a).lhs() instanceof INamedConcept)
+			{
+				String id = (String) ((INamedConcept<?>) ((IConceptInclusion) a).lhs()).getId();
+				renamed.put(id, id + TENTATIVE_MARKER + previewId);
+			}
+		}
+
+		// second pass - each defined concept has necessary conditions (X < E), and at most one sufficient condition (E < X) that is
+		// also necessary (X == E) - anything else could make one existing expression subsume another, through the fresh name
+		Map<String, List<IConcept>> necessary = new HashMap<>();
+		Map<String, IConcept> sufficient = new HashMap<>();
+		Set<IAxiom> tentative = new HashSet<>(axioms.size() * 2);
+		for (IAxiom a : axioms)
+		{
+			if (!(a instanceof IConceptInclusion))
+			{
+				throw new IllegalArgumentException("Only concept inclusions can be previewed: " + a);
+			}
+			IConceptInclusion ci = (IConceptInclusion) a;
+			if (ci.lhs() instanceof INamedConcept)
+			{
+				String id = (String) ((INamedConcept<?>) ci.lhs()).getId();
+				List<IConcept> conditions = necessary.get(id);
+				if (conditions == null)
+				{
+					conditions = new ArrayList<>(2);
+					necessary.put(id, conditions);
+				}
+				conditions.add(ci.rhs());
+			}
+			else if (ci.rhs() instanceof INamedConcept && renamed.containsKey(((INamedConcept<?>) ci.rhs()).getId()))
+			{
+				String id = (String) ((INamedConcept<?>) ci.rhs()).getId();
+				if (sufficient.put(id, ci.lhs()) != null)
+				{
+					throw new IllegalArgumentException("More than one sufficient definition of " + id + ", so could change the base: " + a);
+				}
+			}
+			else
+			{
+				throw new IllegalArgumentException("The axiom doesn't define a concept of the preview, so could change the base: " + a);
+			}
+			tentative.add(f.createConceptInclusion(rename(ci.lhs(), renamed, f), rename(ci.rhs(), renamed, f)));
+		}
+		for (Map.Entry<String, IConcept> e : sufficient.entrySet())
+		{
+			List<IConcept> conditions = necessary.get(e.getKey());
+			if (conditions == null || conditions.size() != 1 || !conditions.get(0).equals(e.getValue()))
+			{
+				throw new IllegalArgumentException("A sufficient definition of " + e.getKey()
+						+ " must be its only necessary one too (an equivalence), so it can't change the base: " + e.getValue());
+			}
+		}
+
+		long start = System.currentTimeMillis();
+		Sandbox current = sandbox();
+		synchronized (current)
+		{
+			current.reasoner.classify(tentative);
+			current.retainedConcepts.addAndGet(renamed.size());
+		}
+		active.add(previewId);
+		logger.debug("Preview " + previewId + " of " + renamed.size() + " concepts classified in " + (System.currentTimeMillis() - start) + "ms");
+		return new Preview(previewId, renamed, current);
+	}
+
+	/**
+	 * The sandbox, copied again from the shared reasoner if that has classified anything since the last copy.  The copy is written while
+	 * holding the classifier's monitor, and loaded after releasing it - the current sandbox stays in place until the new one is loaded.
+	 */
+	private Sandbox sandbox() throws IOException
+	{
+		Sandbox current = sandbox;
+		if (current != null && current.classifications == classifier.getClassificationCount())
+		{
+			return current;
+		}
+		synchronized (copying)
+		{
+			// another preview may have copied it while this one waited
+			current = sandbox;
+			if (current != null && current.classifications == classifier.getClassificationCount())
+			{
+				return current;
+			}
+			long start = System.currentTimeMillis();
+			File temp = File.createTempFile("whatIf", ".snapshot");
+			try
+			{
+				long classifications;
+				synchronized (classifier)
+				{
+					IReasoner<String> shared = classifier.getReasoner();
+					if (!(shared instanceof SnorocketReasoner))
+					{
+						throw new IOException("Only a SnorocketReasoner can be copied for a preview");
+					}
+					classifications = classifier.getClassificationCount();
+					ReasonerSnapshot.write((SnorocketReasoner<?>) shared, temp, false);
+				}
+				long written = System.currentTimeMillis();
+				current = new Sandbox(ReasonerSnapshot.load(temp), classifications);
+				sandbox = current;
+				logger.info("Copied the shared reasoner for previews in " + (System.currentTimeMillis() - start) + "ms (" + (written - start)
+						+ "ms holding the classifier)");
+				return current;
+			}
+			finally
+			{
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * The concept, with every named concept in the map replaced by its new name - unchanged sub-expressions are shared, not copied.
+	 */
+	@SuppressWarnings("unchecked")
+	static IConcept rename(IConcept c, Map<String, String> renamed, InterningFactory f)
+	{
+		if (c instanceof INamedConcept)
+		{
+			String tentative = renamed.get(((INamedConcept<?>) c).getId());
+			return tentative == null ? c : f.createConcept(tentative);
+		}
+		else if (c instanceof IConjunction)
+		{
+			IConcept[] children = ((IConjunction) c).getConcepts();
+			IConcept[] result = new IConcept[children.length];
+			boolean changed = false;
+			for (int i = 0; i < children.length; i++)
+			{
+				result[i] = rename(children[i], renamed, f);
+				changed |= result[i] != children[i];
+			}
+			return changed ? f.createConjunction(result) : c;
+		}
+		else if (c instanceof IExistential)
+		{
+			IExistential<String> e = (IExistential<String>) c;
+			IConcept filler = rename(e.getConcept(), renamed, f);
+			return filler == e.getConcept() ? c : f.createExistential((INamedRole<String>) e.getRole(), filler);
+		}
+		// datatypes don't refer to concepts
+		return c;
+	}
+
+	/**
+	 * The number of tentative concepts held by the current sandbox (active or discarded)
+	 */
+	public long getRetainedConcepts()
+	{
+		Sandbox current = sandbox;
+		return current == null ? 0 : current.retainedConcepts.get();
+	}
+
+	public static boolean isTentative(String id)
+	{
+		return id.indexOf(TENTATIVE_MARKER) >= 0;
+	}
+
+	/**
+	 * Is the id visible to the preview (which may be null)?  Ids outside of any preview are always visible, tentative ids only to their
+	 * own preview.
+	 */
+	private boolean isVisible(String id, Preview preview)
+	{
+		int marker = id.indexOf(TENTATIVE_MARKER);
+		if (marker < 0)
+		{
+			return true;
+		}
+		return preview != null && active.contains(preview.id)
+				&& id.substring(marker + TENTATIVE_MARKER.length()).equals(Long.toString(preview.id));
+	}
+
+	/**
+	 * The ids of the node's concepts that the preview (which may be null) can see - tentative ids of the preview are given as the
+	 * original ids.
+	 */
+	public Set<String> visibleEquivalents(Node<String> node, Preview preview)
+	{
+		Set<String> result = new LinkedHashSet<>();
+		for (String id : node.getEquivalentConcepts())
+		{
+			if (isVisible(id, preview))
+			{
+				int marker = id.indexOf(TENTATIVE_MARKER);
+				result.add(marker < 0 ? id : id.substring(0, marker));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The parents of the node, as the preview (which may be null) sees them - hidden nodes are stepped over, to their own parents.
+	 */
+	public Set<Node<String>> visibleParents(Node<String> node, Preview preview)
+	{
+		synchronized (lock(preview))
+		{
+			return visibleNeighbours(node, preview, true);
+		}
+	}
+
+	/**
+	 * The children of the node, as the preview (which may be null) sees them - hidden nodes are stepped over, to their own children.
+	 */
+	public Set<Node<String>> visibleChildren(Node<String> node, Preview preview)
+	{
+		synchronized (lock(preview))
+		{
+			return visibleNeighbours(node, preview, false);
+		}
+	}
+
+	/**
+	 * The lock guarding the nodes the preview (which may be null) reads - its sandbox, or the shared classifier
+	 */
+	private Object lock(Preview preview)
+	{
+		return preview == null ? classifier : preview.sandbox;
+	}
+
+	private Set<Node<String>> visibleNeighbours(Node<String> node, Preview preview, boolean up)
+	{
+		Set<Node<String>> result = new LinkedHashSet<>();
+		boolean steppedOver = false;
+		ArrayDeque<Node<String>> todo = new ArrayDeque<>(up ? node.getParents() : node.getChildren());
+		Set<Node<String>> seen = new HashSet<>();
+		while (!todo.isEmpty())
+		{
+			Node<String> n = todo.poll();
+			if (!seen.add(n))
+			{
+				continue;
+			}
+			if (visibleEquivalents(n, preview).isEmpty())
+			{
+				steppedOver = true;
+				todo.addAll(up ? n.getParents() : n.getChildren());
+			}
+			else
+			{
+				result.add(n);
+			}
+		}
+		if (steppedOver && result.size() > 1)
+		{
+			removeRedundant(result, up);
+		}
+		return result;
+	}
+
+	/**
+	 * Stepping over a hidden node can reach a node that is also reachable through another result - keep only the most specific (for
+	 * parents) or most general (for children).  Both are checked by walking ancestors, which are few, rather than descendants.
+	 */
+	private static void removeRedundant(Set<Node<String>> nodes, boolean up)
+	{
+		List<Node<String>> candidates = new ArrayList<>(nodes);
+		for (Node<String> c : candidates)
+		{
+			Set<Node<String>> ancestors = ancestors(c);
+			if (up)
+			{
+				// any other candidate that is an ancestor of c is not a direct parent
+				for (Iterator<Node<String>> it = nodes.iterator(); it.hasNext();)
+				{
+					Node<String> other = it.next();
+					if (other != c && ancestors.contains(other))
+					{
+						it.remove();
+					}
+				}
+			}
+			else
+			{
+				// c is not a direct child, if another candidate is its ancestor
+				for (Node<String> other : candidates)
+				{
+					if (other != c && ancestors.contains(other))
+					{
+						nodes.remove(c);
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private static Set<Node<String>> ancestors(Node<String> node)
+	{
+		Set<Node<String>> result = new HashSet<>();
+		ArrayDeque<Node<String>> todo = new ArrayDeque<>(node.getParents());
+		while (!todo.isEmpty())
+		{
+			Node<String> n = todo.poll();
+			if (result.add(n))
+			{
+				todo.addAll(n.getParents());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The node of an id in the shared taxonomy, or null.  The shared taxonomy never holds tentative ids.
+	 */
+	public Node<String> getNode(String id)
+	{
+		if (isTentative(id))
+		{
+			return null;
+		}
+		synchronized (classifier)
+		{
+			IOntology<String> ont = classifier.getReasoner().getClassifiedOntology();
+			return ont.getNode(id);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package gov.va;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The flight recorder events of {@link ClassifierEvents} - only compiled on JDK 11 and later (the jfr profile).
+ *
+ * The events have no stack traces, to keep them cheap enough for continuous recording.
+ */
+class JfrRecorder implements ClassifierEvents.Recorder
+{
+	@Name("gov.va.LegoConversion")
+	@Label("Lego Conversion")
+	@Description("A Lego converted to axioms")
+	@Category({"Lego Classifier"})
+	@StackTrace(false)
+	static class LegoConversionEvent extends Event
+	{
+		@Label("Lego UUID")
+		String legoUuid;
+
+		@Label("Axioms")
+		long axiomCount;
+	}
+
+	@Name("gov.va.Classification")
+	@Label("Classification")
+	@Description("A batch of axioms classified by the reasoner")
+	@Category({"Lego Classifier"})
+	@StackTrace(false)
+	static class ClassificationEvent extends Event
+	{
+		@Label("Classifier")
+		String classifier;
+
+		@Label("Axioms")
+		long axiomCount;
+	}
+
+	@Name("gov.va.StateLoad")
+	@Label("State Load")
+	@Description("A reasoner state or snapshot loaded")
+	@Category({"Lego Classifier"})
+	@StackTrace(false)
+	static class StateLoadEvent extends Event
+	{
+		@Label("File")
+		String file;
+
+		@Label("Nodes")
+		long nodeCount;
+	}
+
+	private final EventType[] types = new EventType[ClassifierEvents.Kind.values().length];
+
+	public JfrRecorder()
+	{
+		types[ClassifierEvents.Kind.LEGO_CONVERSION.ordinal()] = EventType.getEventType(LegoConversionEvent.class);
+		types[ClassifierEvents.Kind.CLASSIFICATION.ordinal()] = EventType.getEventType(ClassificationEvent.class);
+		types[ClassifierEvents.Kind.STATE_LOAD.ordinal()] = EventType.getEventType(StateLoadEvent.class);
+	}
+
+	@Override
+	public Object begin(ClassifierEvents.Kind kind)
+	{
+		if (!types[kind.ordinal()].isEnabled())
+		{
+			return null;
+		}
+		Event event;
+		switch (kind)
+		{
+			case LEGO_CONVERSION:
+				event = new LegoConversionEvent();
+				break;
+			case CLASSIFICATION:
+				event = new ClassificationEvent();
+				break;
+			default:
+				event = new StateLoadEvent();
+				break;
+		}
+		event.begin();
+		return event;
+	}
+
+	@Override
+	public void commit(Object o, String subject, long count)
+	{
+		Event event = (Event) o;
+		event.end();
+		if (!event.shouldCommit())
+		{
+			return;
+		}
+		if (event instanceof LegoConversionEvent)
+		{
+			((LegoConversionEvent) event).legoUuid = subject;
+			((LegoConversionEvent) event).axiomCount = count;
+		}
+		else if (event instanceof ClassificationEvent)
+		{
+			((ClassificationEvent) event).classifier = subject;
+			((ClassificationEvent) event).axiomCount = count;
+		}
+		else
+		{
+			((StateLoadEvent) event).file = subject;
+			((StateLoadEvent) event).nodeCount = count;
+		}
+		event.commit();
+	}
+}
@@ -0,0 +1,63 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.List;
+import org.junit.Test;
+import au.csiro.ontology.Node;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checks that the assertion index finds the Legos under a concept, survives a save and load, and isn't duplicated by converting a Lego
+ * again.
+ */
+public class AssertionIndexTest
+{
+	@Test
+	public void testFindUnderConcept() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+		AssertionIndex index = new AssertionIndex();
+		sc.setAssertionIndex(index);
+		LegoPipeline.forSIM(sc).run(legos);
+		sc.classifyAxioms();
+		sc.setSubsumptionIndexed(true);
+		int size = index.size();
+		assertTrue("Nothing indexed", size > 0);
+
+		for (String defined : sc.getDefinedConcepts())
+		{
+			List<AssertionIndex.Entry> own = index.get(defined);
+			assertEquals("Defined concept not indexed", 1, own.size());
+			Node<String> node = sc.getReasoner().getClassifiedOntology().getNode(defined);
+			for (Node<String> parent : node.getParents())
+			{
+				String parentId = parent.getEquivalentConcepts().iterator().next();
+				List<AssertionIndex.Entry> found = index.find(parentId, own.get(0).getRole(), sc.getSubsumptionIndex());
+				assertTrue("Not found under its parent", found.contains(own.get(0)));
+				assertTrue(index.findLegos(parentId, null, sc.getSubsumptionIndex()).contains(own.get(0).getLegoUuid()));
+			}
+		}
+
+		File file = File.createTempFile("assertions", ".bin");
+		try
+		{
+			index.save(file);
+			AssertionIndex loaded = AssertionIndex.load(file);
+			assertEquals("Wrong size loaded", size, loaded.size());
+			for (String defined : sc.getDefinedConcepts())
+			{
+				assertEquals(index.get(defined), loaded.get(defined));
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+
+		LegoPipeline.forSIM(sc).run(legos);
+		assertEquals("Converting again duplicated entries", size, index.size());
+	}
+}
@@ -0,0 +1,58 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checks that a conversion read back from the cache - axioms, defined concepts and assertion index entries - is the same as converting
+ * the file, and classifies the same.
+ */
+public class AxiomCacheTest
+{
+	@Test
+	public void testCacheRoundTrip() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		AxiomCache cache = new AxiomCache(tempDir());
+
+		SIMClassifier converted = new SIMClassifier(new SnorocketReasoner<String>());
+		converted.setAssertionIndex(new AssertionIndex());
+		assertFalse("Unexpected cache hit", cache.convertToAxioms(legos, converted));
+
+		SIMClassifier cached = new SIMClassifier(new SnorocketReasoner<String>());
+		cached.setAssertionIndex(new AssertionIndex());
+		assertTrue("Expected a cache hit", cache.convertToAxioms(legos, cached));
+
+		assertEquals("Wrong number of Axioms", 2, converted.getUnclassifiedAxioms().size());
+		assertEquals("Cached axioms differ", converted.getUnclassifiedAxioms(), cached.getUnclassifiedAxioms());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		assertEquals("Wrong number of defined concepts", 1, converted.getDefinedConcepts().size());
+		assertEquals("Cached defined concepts differ", converted.getDefinedConcepts(), cached.getDefinedConcepts());
+		assertTrue("Nothing indexed", converted.getAssertionIndex().size() > 0);
+		assertEquals("Cached index differs", converted.getAssertionIndex().size(), cached.getAssertionIndex().size());
+		for (String id : converted.getDefinedConcepts())
+		{
+			assertEquals("Cached index entries differ", converted.getAssertionIndex().get(id), cached.getAssertionIndex().get(id));
+		}
+
+		converted.classifyAxioms();
+		cached.classifyAxioms();
+		assertEquals("Cached summary differs", converted.getClassificationSummary(), cached.getClassificationSummary());
+	}
+
+	private File tempDir() throws IOException
+	{
+		File dir = File.createTempFile("axiomCache", "");
+		dir.delete();
+		dir.mkdirs();
+		dir.deleteOnExit();
+		return dir;
+	}
+}
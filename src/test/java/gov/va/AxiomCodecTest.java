@@ -0,0 +1,80 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.ontology.model.INamedFeature;
+import au.csiro.ontology.model.INamedRole;
+import au.csiro.ontology.model.IRole;
+import au.csiro.ontology.model.Operator;
+
+/**
+ * Checks that axioms round trip through the codec, and that corrupt input fails with an IOException - never an index or array size
+ * exception - so the cache and the axiom log can treat it as unreadable.
+ */
+public class AxiomCodecTest
+{
+	@Test
+	public void testCorruptInput() throws Exception
+	{
+		InterningFactory f = new InterningFactory();
+		byte[] encoded = encode(axioms(f));
+		assertEquals("Round trip differs", new HashSet<>(axioms(f)), new HashSet<>(decode(encoded, f)));
+
+		Random random = new Random(42);
+		for (int i = 0; i < encoded.length; i++)
+		{
+			for (int value : new int[] {0x00, 0x7f, 0x80, 0xff, random.nextInt(256)})
+			{
+				byte[] corrupt = encoded.clone();
+				corrupt[i] = (byte) value;
+				try
+				{
+					decode(corrupt, f);
+				}
+				catch (IOException e)
+				{
+					// expected, for most
+				}
+			}
+		}
+	}
+
+	private static List<IAxiom> axioms(InterningFactory f)
+	{
+		INamedRole<String> r = f.createRole("r");
+		INamedFeature<String> v = f.createFeature("v");
+		IConcept a = f.createConcept("3a4f1a52-9d44-4d5e-b1ac-8ad1b4f1d7e2");
+		IConcept b = f.createConcept("B");
+		List<IAxiom> axioms = new ArrayList<>();
+		axioms.add(f.createConceptInclusion(b, a));
+		axioms.add(f.createConceptInclusion(f.createConjunction(a, f.createExistential(r, b)), b));
+		axioms.add(f.createConceptInclusion(b, f.createDatatype(v, Operator.GREATER_THAN, f.createDoubleLiteral(1.5))));
+		axioms.add(f.createRoleInclusion(new IRole[] {r, r}, r));
+		return axioms;
+	}
+
+	private static byte[] encode(List<IAxiom> axioms) throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(baos);
+		AxiomCodec.write(axioms, dos);
+		dos.flush();
+		return baos.toByteArray();
+	}
+
+	private static List<IAxiom> decode(byte[] encoded, InterningFactory f) throws IOException
+	{
+		return AxiomCodec.read(new DataInputStream(new ByteArrayInputStream(encoded)), f);
+	}
+}
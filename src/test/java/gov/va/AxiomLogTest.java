@@ -0,0 +1,67 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checks that logged batches survive a torn write at the tail of the log, and replay to the same classification.
+ */
+public class AxiomLogTest
+{
+	@Test
+	public void testReplayAfterTornWrite() throws Exception
+	{
+		File dir = File.createTempFile("axiomLog", "");
+		dir.delete();
+
+		SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+		AxiomLog log = new AxiomLog(dir);
+		sc.setAxiomLog(log);
+		InterningFactory f = sc.getFactory();
+		IConcept a = f.createConcept("A");
+		IConcept b = f.createConcept("B");
+		IConcept c = f.createConcept("C");
+		sc.getUnclassifiedAxioms().add(f.createConceptInclusion(b, a));
+		sc.classifyAxioms();
+		sc.getUnclassifiedAxioms().add(f.createConceptInclusion(c, b));
+		sc.classifyAxioms();
+		assertEquals("Wrong last sequence", 2, log.getLastSequence());
+		log.close();
+
+		// a crash part way through a third record
+		File[] segments = dir.listFiles();
+		assertEquals(1, segments.length);
+		try (FileOutputStream fos = new FileOutputStream(segments[0], true))
+		{
+			fos.write(new byte[] {0, 0, 0, 100, 1, 2, 3});
+		}
+
+		log = new AxiomLog(dir);
+		assertEquals("Torn record not truncated", 2, log.getLastSequence());
+		SIMClassifier recovered = new SIMClassifier(new SnorocketReasoner<String>());
+		assertEquals("Wrong number of batches replayed", 2, log.replay(0, recovered, 1000));
+		Node<String> node = recovered.getReasoner().getClassifiedOntology().getNode("C");
+		assertNotNull(node);
+		assertEquals("B", node.getParents().iterator().next().getEquivalentConcepts().iterator().next());
+
+		assertEquals("Batches after the sequence replayed", 1, log.replay(1, new SIMClassifier(new SnorocketReasoner<String>()), 1000));
+		close(log, dir);
+	}
+
+	private static void close(AxiomLog log, File dir) throws IOException
+	{
+		log.close();
+		for (File f : dir.listFiles())
+		{
+			f.delete();
+		}
+		dir.delete();
+	}
+}
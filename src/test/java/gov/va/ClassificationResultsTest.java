@@ -0,0 +1,46 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import org.junit.Test;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checks the typed results of a classification, and that both exports carry the same results.
+ */
+public class ClassificationResultsTest
+{
+	@Test
+	public void testResultsExport() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+		LegoPipeline.forSIM(sc).run(legos);
+		sc.classifyAxioms();
+
+		ClassificationResults results = sc.getClassificationResults();
+		assertEquals("Wrong number of results", 1, results.size());
+		assertEquals(1, results.getPageCount(10));
+		assertEquals(0, results.getPage(1, 10).size());
+		ClassificationResult r = results.getPage(0, 10).get(0);
+		assertTrue("Defined concept not found", r.isFound());
+		assertTrue(r.getEquivalents().contains(r.getId()));
+
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		assertEquals(1, results.writeJsonLines(json));
+		assertEquals(r.toString() + "\n", json.toString("UTF-8"));
+
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		results.writeBinary(binary);
+		try (ClassificationResults.BinaryReader reader = new ClassificationResults.BinaryReader(new ByteArrayInputStream(binary.toByteArray())))
+		{
+			assertEquals(1, reader.getCount());
+			assertEquals("Binary form differs", r.toString(), reader.next().toString());
+			assertNull(reader.next());
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import au.csiro.ontology.IOntology;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checks that the streamed summary covers just the defined concepts, and matches the String form - and that a summary rendered in
+ * parallel is in the same order as a sequential one.
+ */
+public class ClassificationSummaryTest
+{
+	@Test
+	public void testDefinedConceptsSummary() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+		LegoPipeline.forSIM(sc).run(legos);
+		sc.classifyAxioms();
+		assertEquals("Wrong number of defined concepts", 1, sc.getDefinedConcepts().size());
+
+		StringWriter sw = new StringWriter();
+		sc.writeClassificationSummary(sw);
+		String summary = sw.toString();
+		String id = sc.getDefinedConcepts().iterator().next();
+		assertTrue("Defined concept not summarized", summary.startsWith("Equivalent Concepts [" + id));
+		assertEquals("One concept expected", summary.indexOf(ClassificationSummary.SEPARATOR), summary.lastIndexOf(ClassificationSummary.SEPARATOR));
+		assertEquals(summary, sc.getClassificationSummary());
+
+		sc.clearDefinedConcepts();
+		assertEquals("", sc.getClassificationSummary());
+	}
+
+	@Test
+	public void testParallelSummaryOrder() throws Exception
+	{
+		SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+		InterningFactory f = sc.getFactory();
+		IConcept a = f.createConcept("A");
+		List<String> ids = new ArrayList<>();
+		for (int i = 0; i < ClassificationSummary.LEAF_SIZE * 5 + 7; i++)
+		{
+			sc.getUnclassifiedAxioms().add(f.createConceptInclusion(f.createConcept("B" + i), a));
+			ids.add("B" + i);
+		}
+		ids.add("missing");
+		Collections.shuffle(ids);
+		sc.classifyAxioms();
+		IOntology<String> t = sc.getReasoner().getClassifiedOntology();
+
+		StringWriter all = new StringWriter();
+		ClassificationSummary.write(t, ids, all, "\n");
+		StringWriter oneByOne = new StringWriter();
+		for (String id : ids)
+		{
+			ClassificationSummary.write(t, Collections.singleton(id), oneByOne, "\n");
+		}
+		assertEquals("Parallel summary differs", oneByOne.toString(), all.toString());
+	}
+}
@@ -0,0 +1,86 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gov.va.legoEdit.model.schemaModel.Lego;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checks that the phases are timed and counted while metrics are on, and published over JMX.
+ */
+public class ClassifierMetricsTest
+{
+	@Test
+	public void testPhasesRecorded() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		long parsed = ClassifierMetrics.getTimer(ClassifierMetrics.Phase.PARSE).getCount();
+		long processed = ClassifierMetrics.getTimer(ClassifierMetrics.Phase.PROCESS).getCount();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(ClassifierMetrics.OBJECT_NAME);
+
+		ClassifierMetrics.setEnabled(true);
+		try
+		{
+			long axioms = (Long) server.getAttribute(name, "AxiomsProduced");
+			SIMClassifier sc = new SIMClassifier(null);
+			LegoPipeline.forSIM(sc).run(legos);
+
+			assertEquals("Parse not timed", parsed + 1, ClassifierMetrics.getTimer(ClassifierMetrics.Phase.PARSE).getCount());
+			assertEquals("Conversion not timed", processed + 1, ClassifierMetrics.getTimer(ClassifierMetrics.Phase.PROCESS).getCount());
+			assertEquals("Wrong axiom count over JMX", axioms + 2, server.getAttribute(name, "AxiomsProduced"));
+			assertTrue(server.isRegistered(new ObjectName(ClassifierMetrics.OBJECT_NAME + ",phase=classify")));
+		}
+		finally
+		{
+			ClassifierMetrics.setEnabled(false);
+		}
+
+		processed = ClassifierMetrics.getTimer(ClassifierMetrics.Phase.PROCESS).getCount();
+		LegoPipeline.forSIM(new SIMClassifier(null)).run(legos);
+		assertEquals("Recorded while off", processed, ClassifierMetrics.getTimer(ClassifierMetrics.Phase.PROCESS).getCount());
+	}
+
+	@Test
+	public void testClassificationsRecorded() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(ClassifierMetrics.OBJECT_NAME);
+
+		ClassifierMetrics.setEnabled(true);
+		try
+		{
+			long classified = ClassifierMetrics.getTimer(ClassifierMetrics.Phase.CLASSIFY).getCount();
+			SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+			LegoPipeline.forSIM(sc).run(legos);
+			sc.classifyAxioms();
+			assertEquals("Classification not timed", classified + 1, ClassifierMetrics.getTimer(ClassifierMetrics.Phase.CLASSIFY).getCount());
+			assertEquals("Wrong node count over JMX", (long) sc.getReasoner().getClassifiedOntology().getNodeMap().size(),
+					server.getAttribute(name, "ClassifiedNodes"));
+
+			long processed = ClassifierMetrics.getTimer(ClassifierMetrics.Phase.PROCESS).getCount();
+			long axioms = (Long) server.getAttribute(name, "AxiomsProduced");
+			SnorocketReasoner<String> reasoner = new SnorocketReasoner<>();
+			LegoClassifier lc = new LegoClassifier(reasoner);
+			lc.convertToAxioms(LegoXMLReader.read(legos).getLego().toArray(new Lego[0]));
+			assertEquals("LegoClassifier conversion not timed", processed + 1,
+					ClassifierMetrics.getTimer(ClassifierMetrics.Phase.PROCESS).getCount());
+			assertEquals("Wrong axiom count over JMX", axioms + lc.getUnclassifiedAxioms().size(), server.getAttribute(name, "AxiomsProduced"));
+			lc.classifyAxioms();
+			assertEquals("LegoClassifier classification not timed", classified + 2,
+					ClassifierMetrics.getTimer(ClassifierMetrics.Phase.CLASSIFY).getCount());
+			assertEquals("Wrong node count over JMX", (long) reasoner.getClassifiedOntology().getNodeMap().size(),
+					server.getAttribute(name, "ClassifiedNodes"));
+		}
+		finally
+		{
+			ClassifierMetrics.setEnabled(false);
+		}
+	}
+}
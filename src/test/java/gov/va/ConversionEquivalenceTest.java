@@ -0,0 +1,153 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gov.va.legoEdit.model.schemaModel.Lego;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.axioms.IConceptInclusion;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.ontology.model.IConjunction;
+import au.csiro.ontology.model.IExistential;
+import au.csiro.ontology.model.INamedConcept;
+import au.csiro.ontology.model.INamedRole;
+
+/**
+ * Checks both converters against the axioms the test files should produce, written out by hand below from the XML - so a change to
+ * the conversion engine that alters the axioms shows up here, and not just as a different classification.
+ *
+ * Definitions are compared by {@link AxiomCodec#fingerprint(IConcept)}, which ignores the order of conjuncts.  Repeated conjuncts are
+ * dropped first - the reasoner treats a conjunction as a set, and whether a repeated relation is dropped depends on the equals method
+ * of the model classes, not on the converter.  The defined concept's own id isn't checked, as the SIM-API assigns it.
+ */
+public class ConversionEquivalenceTest
+{
+	private static final String ROLE_GROUP = "RoleGroup";
+
+	// Pressure ulcer observables.xml
+	private static final String DECUBITUS_ULCER_OBSERVABLE = "443cb001-c138-3256-9a0d-90720d6ce111";
+	private static final String INHERES_IN = "19ca14e7-ea63-38a4-ae0e-b13d585e4c22";
+	private static final String INHERENT_LOCATION = "a5771bce-93e2-30c3-af7c-d9dfd0e5deaa";
+	private static final String LATERALITY = "70efdf2e-c9b0-3607-9795-c442636b55fb";
+
+	// Nested.xml
+	private static final String DECUBITUS_ULCER_DISORDER = "824b4136-e350-3904-9d8e-9dd6f1178e5b";
+	private static final String FINDING_SITE = "3a6d919d-6c25-3aae-9bc3-983ead83a928";
+	private static final String LATERALITY_ATTRIBUTE = "26ca4590-bbe5-327c-a40a-ba56dc86996b";
+	private static final String ASSOCIATED_MORPHOLOGY = "3161e31b-7d00-33d9-8cbd-9c33dc153aae";
+
+	// both
+	private static final String DECUBITUS_ULCER_MORPHOLOGY = "391616d4-bb39-3ebf-b19e-0d08653821f8";
+	private static final String SKIN_OF_HEEL = "eec0dbcd-b508-353c-ad82-4af8cab643fa";
+	private static final String LEFT = "204c773e-2ba9-3374-80fb-104f78f4b98d";
+
+	@Test
+	public void testPressureUlcer() throws Exception
+	{
+		InterningFactory f = new InterningFactory();
+		// 648 and (36 some 418172001) and (38 some (84607009 and (17 some 7771000)))
+		IConcept expected = f.createConjunction(
+				f.createConcept(DECUBITUS_ULCER_OBSERVABLE),
+				f.createExistential(f.createRole(INHERES_IN), f.createConcept(DECUBITUS_ULCER_MORPHOLOGY)),
+				f.createExistential(f.createRole(INHERENT_LOCATION),
+						f.createConjunction(f.createConcept(SKIN_OF_HEEL), f.createExistential(f.createRole(LATERALITY), f.createConcept(LEFT)))));
+		check(file("/Pressure ulcer observables.xml"), expected, f);
+	}
+
+	@Test
+	public void testNested() throws Exception
+	{
+		InterningFactory f = new InterningFactory();
+		// 400192002 and (RoleGroup some ((363698007 some (84607009 and (272741003 some 7771000))) and (morphology some 418172001)))
+		IConcept group = f.createConjunction(
+				f.createExistential(f.createRole(FINDING_SITE),
+						f.createConjunction(f.createConcept(SKIN_OF_HEEL),
+								f.createExistential(f.createRole(LATERALITY_ATTRIBUTE), f.createConcept(LEFT)))),
+				f.createExistential(f.createRole(ASSOCIATED_MORPHOLOGY), f.createConcept(DECUBITUS_ULCER_MORPHOLOGY)));
+		IConcept expected = f.createConjunction(f.createConcept(DECUBITUS_ULCER_DISORDER), f.createExistential(f.createRole(ROLE_GROUP), group));
+		check(file("/Nested.xml"), expected, f);
+	}
+
+	private File file(String resource) throws Exception
+	{
+		return new File(this.getClass().getResource(resource).toURI());
+	}
+
+	private static void check(File file, IConcept expected, InterningFactory f) throws Exception
+	{
+		SIMClassifier sc = new SIMClassifier(null, f);
+		LegoPipeline.forSIM(sc).run(file);
+		checkDefinition("SIMClassifier", sc.getUnclassifiedAxioms(), expected, f);
+
+		LegoClassifier lc = new LegoClassifier(null);
+		lc.convertToAxioms(LegoXMLReader.read(file).getLego().toArray(new Lego[0]));
+		checkDefinition("LegoClassifier", lc.getUnclassifiedAxioms(), expected, f);
+	}
+
+	/**
+	 * The axioms must be exactly the two inclusions that make one named concept equivalent to the expected definition.
+	 */
+	private static void checkDefinition(String converter, Set<IAxiom> axioms, IConcept expected, InterningFactory f) throws Exception
+	{
+		assertEquals(converter + " produced the wrong number of axioms", 2, axioms.size());
+		IConcept named = null;
+		int namedLhs = 0;
+		List<IConcept> definitions = new ArrayList<>();
+		for (IAxiom axiom : axioms)
+		{
+			IConceptInclusion ci = (IConceptInclusion) axiom;
+			IConcept lhs = ci.lhs();
+			IConcept rhs = ci.rhs();
+			if (lhs instanceof INamedConcept)
+			{
+				namedLhs++;
+			}
+			IConcept definition = lhs instanceof INamedConcept ? rhs : lhs;
+			IConcept concept = lhs instanceof INamedConcept ? lhs : rhs;
+			assertTrue(converter + " produced an axiom without a named side: " + axiom, concept instanceof INamedConcept);
+			if (named == null)
+			{
+				named = concept;
+			}
+			assertEquals(converter + " defined more than one concept", named, concept);
+			definitions.add(definition);
+		}
+		assertEquals(converter + " produced two inclusions in the same direction", 1, namedLhs);
+		for (IConcept definition : definitions)
+		{
+			assertEquals(converter + " produced the wrong definition: " + definition, ByteBuffer.wrap(AxiomCodec.fingerprint(expected)),
+					ByteBuffer.wrap(AxiomCodec.fingerprint(withoutRepeats(definition, f))));
+		}
+	}
+
+	/**
+	 * The concept, with repeated conjuncts (by fingerprint) dropped, at every level
+	 */
+	@SuppressWarnings("unchecked")
+	private static IConcept withoutRepeats(IConcept c, InterningFactory f) throws Exception
+	{
+		if (c instanceof IConjunction)
+		{
+			LinkedHashMap<ByteBuffer, IConcept> distinct = new LinkedHashMap<>();
+			for (IConcept child : ((IConjunction) c).getConcepts())
+			{
+				IConcept normalized = withoutRepeats(child, f);
+				distinct.put(ByteBuffer.wrap(AxiomCodec.fingerprint(normalized)), normalized);
+			}
+			return distinct.size() == 1 ? distinct.values().iterator().next()
+					: f.createConjunction(distinct.values().toArray(new IConcept[distinct.size()]));
+		}
+		else if (c instanceof IExistential)
+		{
+			IExistential<?> e = (IExistential<?>) c;
+			return f.createExistential((INamedRole<String>) e.getRole(), withoutRepeats(e.getConcept(), f));
+		}
+		return c;
+	}
+}
@@ -0,0 +1,114 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import gov.va.legoEdit.model.schemaModel.Lego;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks that the pipeline produces the same axioms as the single threaded read / convert loop, in the same order, and that bad files
+ * are skipped.
+ * 
+ * The classifiers are only used for conversion here, so no reasoner (or classifier state) is required.
+ */
+public class LegoPipelineTest
+{
+	@Test
+	public void testSIMPipeline() throws URISyntaxException, InterruptedException, IOException
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		File bad = File.createTempFile("bad", ".xml");
+		bad.deleteOnExit();
+		try (FileWriter fw = new FileWriter(bad))
+		{
+			fw.write("<legoList><lego>");
+		}
+
+		SIMClassifier sc = new SIMClassifier(null);
+		LegoPipeline<?> pipeline = LegoPipeline.forSIM(sc);
+		pipeline.run(legos, bad);
+
+		assertEquals("Wrong number of Axioms", 2, sc.getUnclassifiedAxioms().size());
+		assertEquals("Wrong number of files parsed", 1, pipeline.getStages().get(0).getProcessed());
+		assertEquals("Bad file not skipped", 1, pipeline.getStages().get(0).getFailed());
+		assertEquals("Wrong number of Legos collected", 1, pipeline.getStages().get(2).getProcessed());
+	}
+
+	@Test
+	public void testSchemaPipeline() throws URISyntaxException, InterruptedException
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+
+		LegoClassifier lc = new LegoClassifier(null);
+		LegoPipeline<?> pipeline = LegoPipeline.forSchema(lc);
+		pipeline.run(legos, legos, legos);
+
+		// the same file three times yields the same (deduplicated) axioms
+		assertEquals("Wrong number of Axioms", 2, lc.getUnclassifiedAxioms().size());
+		assertEquals("Wrong number of Legos collected", 3, pipeline.getStages().get(2).getProcessed());
+		assertEquals("Unexpected failures", 0, pipeline.getStages().get(1).getFailed());
+	}
+
+	@Test
+	public void testInputOrder() throws Exception
+	{
+		File pressureUlcer = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		File nested = new File(this.getClass().getResource("/Nested.xml").toURI());
+		File bad = File.createTempFile("bad", ".xml");
+		bad.deleteOnExit();
+		try (FileWriter fw = new FileWriter(bad))
+		{
+			fw.write("<legoList><lego>");
+		}
+
+		Random random = new Random(7);
+		File[] files = new File[40];
+		List<Object> expected = new ArrayList<>();
+		for (int i = 0; i < files.length; i++)
+		{
+			files[i] = i % 10 == 3 ? bad : random.nextBoolean() ? pressureUlcer : nested;
+			if (files[i] != bad)
+			{
+				for (Lego l : LegoXMLReader.read(files[i]).getLego())
+				{
+					expected.add(l.getLegoUUID());
+				}
+			}
+		}
+
+		final List<Object> collected = new ArrayList<>();
+		final Random delays = new Random(11);
+		// a small queue, and more workers than files in flight, so items finish out of order
+		LegoPipeline<Object> pipeline = new LegoPipeline<>(new LegoPipeline.Converter<Object>()
+		{
+			@Override
+			public Object convert(Lego lego) throws Exception
+			{
+				int delay;
+				synchronized (delays)
+				{
+					delay = delays.nextInt(3);
+				}
+				Thread.sleep(delay);
+				return lego.getLegoUUID();
+			}
+		}, new LegoPipeline.Collector<Object>()
+		{
+			@Override
+			public void collect(Object item)
+			{
+				collected.add(item);
+			}
+		}, 4, 4, 2);
+		pipeline.run(files);
+
+		assertEquals("Not collected in input order", expected, collected);
+		assertEquals("Bad files not skipped", 4, pipeline.getStages().get(0).getFailed());
+	}
+}
@@ -0,0 +1,108 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import gov.va.legoEdit.model.schemaModel.Lego;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import org.junit.Test;
+
+/**
+ * Checks that streaming the Legos out of a file gives the same Legos, in the same order, as reading the whole file - and that a
+ * malformed Lego fails the read, rather than being skipped.
+ */
+public class LegoStreamReaderTest
+{
+	@Test
+	public void testSameAsLegoXMLReader() throws Exception
+	{
+		File file = File.createTempFile("legos", ".xml");
+		try
+		{
+			try (OutputStream os = new FileOutputStream(file))
+			{
+				os.write(multiLegoFile().getBytes(StandardCharsets.UTF_8));
+			}
+			List<Lego> expected = LegoXMLReader.read(file).getLego();
+			assertEquals("Wrong test file", 2, expected.size());
+
+			try (LegoStreamReader reader = new LegoStreamReader(file))
+			{
+				for (int i = 0; i < expected.size(); i++)
+				{
+					Lego l = reader.next();
+					assertNotNull("Missing Lego " + i, l);
+					assertEquals("Different Lego " + i, toXML(expected.get(i)), toXML(l));
+				}
+				assertNull("Extra Lego", reader.next());
+				assertEquals("Wrong count", expected.size(), reader.getCount());
+			}
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testMalformedLego() throws Exception
+	{
+		String xml = multiLegoFile();
+		// the second Lego loses the end tag of its stamp
+		int second = xml.indexOf("<lego>", xml.indexOf("</lego>"));
+		int stampEnd = xml.indexOf("/>", xml.indexOf("<stamp", second));
+		xml = xml.substring(0, stampEnd) + ">" + xml.substring(stampEnd + 2);
+
+		try (LegoStreamReader reader = new LegoStreamReader(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))))
+		{
+			assertNotNull("First Lego not read", reader.next());
+			try
+			{
+				reader.next();
+				fail("Malformed Lego read");
+			}
+			catch (XMLStreamException | JAXBException e)
+			{
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * The pressure ulcer LegoList, with the Lego from Nested.xml added after its own
+	 */
+	private String multiLegoFile() throws Exception
+	{
+		String pressureUlcer = read("/Pressure ulcer observables.xml");
+		String nested = read("/Nested.xml");
+		String nestedLego = nested.substring(nested.indexOf("<lego>"), nested.indexOf("</lego>") + "</lego>".length());
+		int end = pressureUlcer.indexOf("</lego>") + "</lego>".length();
+		return pressureUlcer.substring(0, end) + "\n    " + nestedLego + pressureUlcer.substring(end);
+	}
+
+	private String read(String resource) throws Exception
+	{
+		return new String(Files.readAllBytes(new File(this.getClass().getResource(resource).toURI()).toPath()), StandardCharsets.UTF_8);
+	}
+
+	private static String toXML(Lego l) throws JAXBException
+	{
+		Marshaller m = LegoXMLReader.getContext().createMarshaller();
+		StringWriter sw = new StringWriter();
+		m.marshal(new JAXBElement<>(new QName("lego"), Lego.class, l), sw);
+		return sw.toString();
+	}
+}
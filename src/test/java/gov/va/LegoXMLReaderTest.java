@@ -0,0 +1,80 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import gov.va.legoEdit.model.schemaModel.LegoList;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.namespace.QName;
+import org.junit.Test;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Checks that a valid file reads the same as a plain JAXB unmarshal, that an invalid one fails with the location of the problem, and
+ * that a failed read doesn't spoil the pooled Unmarshallers for later reads.
+ */
+public class LegoXMLReaderTest
+{
+	@Test
+	public void testValidAndInvalid() throws Exception
+	{
+		File file = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		String xml = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		String expected = toXML((LegoList) JAXBContext.newInstance(LegoList.class).createUnmarshaller().unmarshal(file));
+
+		assertEquals("Different from a plain unmarshal", expected, toXML(LegoXMLReader.read(file)));
+
+		// an element the schema doesn't allow, on a line of its own
+		int insert = xml.indexOf('\n', xml.indexOf("</legoUUID>")) + 1;
+		String invalid = xml.substring(0, insert) + "        <bogus/>\n" + xml.substring(insert);
+		int line = lineOf(invalid, insert);
+		for (int round = 0; round < 2; round++)
+		{
+			try
+			{
+				LegoXMLReader.read(new ByteArrayInputStream(invalid.getBytes(StandardCharsets.UTF_8)), "invalid.xml");
+				fail("Invalid file read");
+			}
+			catch (SAXParseException e)
+			{
+				assertEquals("Wrong line for " + e.getMessage(), line, e.getLineNumber());
+			}
+
+			// the failed Unmarshaller is dropped, and these reuse the pooled one
+			for (int i = 0; i < 3; i++)
+			{
+				assertEquals("Different after a failed read", expected,
+						toXML(LegoXMLReader.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), null)));
+			}
+		}
+	}
+
+	/**
+	 * The (1 based) line number of the character at the index
+	 */
+	private static int lineOf(String s, int index)
+	{
+		int line = 1;
+		for (int i = 0; i < index; i++)
+		{
+			if (s.charAt(i) == '\n')
+			{
+				line++;
+			}
+		}
+		return line;
+	}
+
+	private static String toXML(LegoList ll) throws JAXBException
+	{
+		StringWriter sw = new StringWriter();
+		LegoXMLReader.getContext().createMarshaller().marshal(new JAXBElement<>(new QName("legoList"), LegoList.class, ll), sw);
+		return sw.toString();
+	}
+}
@@ -0,0 +1,71 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.classification.IReasoner;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checks that the taxonomy section of a snapshot, read in place, matches the classified ontology it was written from.
+ */
+public class MappedTaxonomyTest
+{
+	@Test
+	public void testMatchesOntology() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+		LegoPipeline.forSIM(sc).run(legos);
+		sc.classifyAxioms();
+
+		File snapshot = File.createTempFile("taxonomy", ".snapshot");
+		try
+		{
+			ReasonerSnapshot.write((SnorocketReasoner<?>) sc.getReasoner(), snapshot);
+			MappedTaxonomy taxonomy = MappedTaxonomy.open(snapshot);
+			Map<String, Node<String>> nodes = sc.getReasoner().getClassifiedOntology().getNodeMap();
+			assertEquals("Wrong concept count", nodes.size(), taxonomy.getConceptCount());
+			for (Map.Entry<String, Node<String>> e : nodes.entrySet())
+			{
+				assertEquals("Wrong equivalents of " + e.getKey(), e.getValue().getEquivalentConcepts(), taxonomy.getEquivalents(e.getKey()));
+				assertEquals("Wrong parents of " + e.getKey(), equivalents(e.getValue().getParents()), new HashSet<>(taxonomy.getParents(e.getKey())));
+				assertEquals("Wrong children of " + e.getKey(), equivalents(e.getValue().getChildren()), new HashSet<>(taxonomy.getChildren(e.getKey())));
+				for (Node<String> p : e.getValue().getParents())
+				{
+					for (String id : p.getEquivalentConcepts())
+					{
+						assertTrue(e.getKey() + " not under " + id, taxonomy.isSubsumedBy(e.getKey(), id));
+					}
+				}
+			}
+			assertFalse("Unexpected concept", taxonomy.contains("not a concept"));
+			assertNull("Unexpected parents", taxonomy.getParents("not a concept"));
+
+			// the reasoner payload in front of the taxonomy still loads
+			IReasoner<String> loaded = ReasonerSnapshot.load(snapshot);
+			assertEquals("Wrong node count after load", nodes.size(), loaded.getClassifiedOntology().getNodeMap().size());
+		}
+		finally
+		{
+			snapshot.delete();
+		}
+	}
+
+	private static Set<Set<String>> equivalents(Set<Node<String>> nodes)
+	{
+		Set<Set<String>> result = new HashSet<>();
+		for (Node<String> n : nodes)
+		{
+			result.add(n.getEquivalentConcepts());
+		}
+		return result;
+	}
+}
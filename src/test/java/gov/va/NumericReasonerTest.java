@@ -0,0 +1,77 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import au.csiro.ontology.IOntology;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checks that numeric mode classifies the Legos into the same taxonomy as String mode, before and after a save and load.
+ */
+public class NumericReasonerTest
+{
+	@Test
+	public void testSameTaxonomyAsStringMode() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+		LegoPipeline.forSIM(sc).run(legos);
+		Set<IAxiom> axioms = new HashSet<>(sc.getUnclassifiedAxioms());
+		sc.classifyAxioms();
+
+		NumericReasoner nr = new NumericReasoner(new SnorocketReasoner<Long>(), new IdDictionary());
+		nr.classify(axioms);
+		check(sc, nr);
+
+		File snapshot = File.createTempFile("numeric", ".snapshot");
+		File dictionary = File.createTempFile("numeric", ".ids");
+		try
+		{
+			nr.save(snapshot, dictionary);
+			check(sc, NumericReasoner.load(snapshot, dictionary));
+		}
+		finally
+		{
+			snapshot.delete();
+			dictionary.delete();
+		}
+	}
+
+	private static void check(SIMClassifier sc, NumericReasoner nr)
+	{
+		IOntology<String> t = sc.getReasoner().getClassifiedOntology();
+		assertTrue("Nothing defined", sc.getDefinedConcepts().size() > 0);
+		for (String defined : sc.getDefinedConcepts())
+		{
+			Node<String> node = t.getNode(defined);
+			Node<Long> numeric = nr.getNode(defined);
+			assertNotNull("No numeric node for " + defined, numeric);
+			assertEquals("Wrong equivalents of " + defined, node.getEquivalentConcepts(), nr.toIdentifiers(numeric));
+
+			Set<Set<Long>> numericParents = new HashSet<>();
+			for (Node<Long> p : numeric.getParents())
+			{
+				numericParents.add(p.getEquivalentConcepts());
+			}
+			assertEquals("Wrong number of parents of " + defined, node.getParents().size(), numericParents.size());
+			for (Node<String> p : node.getParents())
+			{
+				for (String id : p.getEquivalentConcepts())
+				{
+					// top has no identifier in the dictionary
+					if (nr.getIdDictionary().lookup(id) >= 0)
+					{
+						assertTrue("Missing parent " + id + " of " + defined, numericParents.contains(nr.getNode(id).getEquivalentConcepts()));
+					}
+				}
+			}
+		}
+	}
+}
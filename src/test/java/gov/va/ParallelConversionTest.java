@@ -0,0 +1,108 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gov.va.legoEdit.model.schemaModel.Lego;
+import gov.va.sim.lego.LegoBI;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.Test;
+import au.csiro.ontology.axioms.IAxiom;
+
+/**
+ * Checks that converting Legos in parallel produces the same axioms and defined concepts, in the same order, as converting them on one
+ * thread - and that a conversion leaves the scratch stacks empty.
+ *
+ * The Legos are copies of the test files with every UUID replaced, so each copy defines its own concepts - a chunk that was dropped,
+ * converted twice or merged out of order shows up as a difference.
+ */
+public class ParallelConversionTest
+{
+	private static final Pattern UUID_PATTERN = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+
+	@Test
+	public void testSameAsSequential() throws Exception
+	{
+		String[] files = new String[] {read("/Pressure ulcer observables.xml"), read("/Nested.xml")};
+		List<LegoBI> legos = new ArrayList<>();
+		// enough copies to split across several chunks
+		for (int i = 0; i < 64; i++)
+		{
+			String xml = copy(files[i % files.length], i);
+			for (Lego l : LegoXMLReader.read(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), "copy" + i).getLego())
+			{
+				legos.add(SIMClassifier.toSIM(l));
+			}
+		}
+		LegoBI[] all = legos.toArray(new LegoBI[legos.size()]);
+
+		InterningFactory factory = new InterningFactory();
+		// what each Lego produces on its own, in input order
+		Set<IAxiom> expectedAxioms = new HashSet<>();
+		LinkedHashSet<String> expectedDefined = new LinkedHashSet<>();
+		int defined = 0;
+		for (LegoBI l : all)
+		{
+			SIMClassifier single = new SIMClassifier(null, factory);
+			single.convertToAxioms(l);
+			defined += single.getDefinedConcepts().size();
+			expectedAxioms.addAll(single.getUnclassifiedAxioms());
+			expectedDefined.addAll(single.getDefinedConcepts());
+		}
+		assertTrue("No defined concepts", defined > 0);
+		assertEquals("The copies aren't distinct", defined, expectedDefined.size());
+
+		SIMClassifier sequential = new SIMClassifier(null, factory);
+		sequential.convertToAxioms(all);
+		assertEquals("Scratch concepts not released", 0, ConversionScratch.get().mark());
+		assertEquals("Scratch relations not released", 0, ConversionScratch.get().relationMark());
+		assertEquals("Sequential axioms incomplete", expectedAxioms, sequential.getUnclassifiedAxioms());
+		assertEquals("Sequential defined concepts out of order", new ArrayList<>(expectedDefined),
+				new ArrayList<>(sequential.getDefinedConcepts()));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			SIMClassifier parallel = new SIMClassifier(null, factory);
+			parallel.convertToAxioms(executor, all);
+			assertEquals("Different axioms", expectedAxioms, parallel.getUnclassifiedAxioms());
+			assertEquals("Different defined concepts", new ArrayList<>(expectedDefined), new ArrayList<>(parallel.getDefinedConcepts()));
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	private String read(String resource) throws Exception
+	{
+		return new String(Files.readAllBytes(new File(this.getClass().getResource(resource).toURI()).toPath()), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * The Lego file, with each UUID replaced by one derived from it and the copy number
+	 */
+	private static String copy(String xml, int copy)
+	{
+		Matcher m = UUID_PATTERN.matcher(xml);
+		StringBuffer sb = new StringBuffer(xml.length());
+		while (m.find())
+		{
+			m.appendReplacement(sb, UUID.nameUUIDFromBytes((copy + ":" + m.group()).getBytes(StandardCharsets.UTF_8)).toString());
+		}
+		m.appendTail(sb);
+		return sb.toString();
+	}
+}
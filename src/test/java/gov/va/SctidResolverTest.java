@@ -0,0 +1,42 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import java.util.UUID;
+import org.junit.Test;
+
+/**
+ * Checks that the resolver gives the same UUIDs as the original derivation, whether cached or not.
+ */
+public class SctidResolverTest
+{
+	@Test
+	public void testMatchesNameUUIDFromBytes() throws Exception
+	{
+		long[] sctids = new long[] {0, 9, 10, 138875005L, 22298006L, 900000000000207008L, Long.MAX_VALUE, -5, Long.MIN_VALUE};
+		// a tiny cache, so slots are overwritten
+		SctidResolver resolver = new SctidResolver(4);
+		for (int round = 0; round < 2; round++)
+		{
+			for (long sctid : sctids)
+			{
+				String expected = UUID.nameUUIDFromBytes(("org.snomed." + sctid).getBytes("8859_1")).toString();
+				assertEquals("Wrong UUID for " + sctid, expected, resolver.resolve(sctid));
+			}
+		}
+		assertEquals(2 * sctids.length, resolver.getHits() + resolver.getDerived());
+	}
+
+	@Test
+	public void testPreloaded() throws Exception
+	{
+		SctidResolver resolver = new SctidResolver(4);
+		resolver.preload(new long[] {22298006L, 138875005L, 22298006L});
+		for (long sctid : new long[] {138875005L, 22298006L, 404684003L})
+		{
+			String expected = UUID.nameUUIDFromBytes(("org.snomed." + sctid).getBytes("8859_1")).toString();
+			assertEquals("Wrong UUID for " + sctid, expected, resolver.resolve(sctid));
+		}
+		assertEquals("Wrong preloaded hits", 2, resolver.getPreloadedHits());
+		assertEquals("Wrong derivations", 1, resolver.getDerived());
+	}
+}
@@ -0,0 +1,90 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import au.csiro.ontology.IOntology;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checks that base axioms built from a small RF2 release classify as expected, in String mode and in numeric mode.
+ */
+public class SnomedBaseAxiomsTest
+{
+	private static final String CONCEPTS = "id\teffectiveTime\tactive\tmoduleId\tdefinitionStatusId\n"
+			+ "138875005\t20020131\t1\t900000000000207008\t900000000000074008\n"
+			+ "1\t20020131\t1\t900000000000207008\t900000000000074008\n"
+			+ "2\t20020131\t1\t900000000000207008\t900000000000074008\n"
+			+ "3\t20020131\t1\t900000000000207008\t900000000000073002\n"
+			+ "4\t20020131\t1\t900000000000207008\t900000000000074008\n"
+			+ "5\t20020131\t1\t900000000000207008\t900000000000074008\n"
+			+ "410662002\t20020131\t1\t900000000000207008\t900000000000074008\n"
+			+ "6\t20020131\t1\t900000000000207008\t900000000000074008\n"
+			+ "7\t20020131\t0\t900000000000207008\t900000000000074008\n";
+
+	// 1 and 2 under the root, 3 == 1 and RoleGroup(6 some 2), 4 < 1 and RoleGroup(6 some 2) - so 4 is under 3.  5 is only under an
+	// inactive relationship.  6 is an attribute.
+	private static final String RELATIONSHIPS = "id\teffectiveTime\tactive\tmoduleId\tsourceId\tdestinationId\trelationshipGroup\ttypeId"
+			+ "\tcharacteristicTypeId\tmodifierId\n"
+			+ "10\t20020131\t1\t900000000000207008\t1\t138875005\t0\t116680003\t900000000000010007\t900000000000451002\n"
+			+ "11\t20020131\t1\t900000000000207008\t2\t138875005\t0\t116680003\t900000000000010007\t900000000000451002\n"
+			+ "12\t20020131\t1\t900000000000207008\t3\t1\t0\t116680003\t900000000000010007\t900000000000451002\n"
+			+ "13\t20020131\t1\t900000000000207008\t3\t2\t1\t6\t900000000000010007\t900000000000451002\n"
+			+ "14\t20020131\t1\t900000000000207008\t4\t1\t0\t116680003\t900000000000010007\t900000000000451002\n"
+			+ "15\t20020131\t1\t900000000000207008\t4\t2\t2\t6\t900000000000010007\t900000000000451002\n"
+			+ "16\t20020131\t1\t900000000000207008\t5\t2\t0\t116680003\t900000000000010007\t900000000000451002\n"
+			+ "17\t20020131\t0\t900000000000207008\t5\t4\t0\t116680003\t900000000000010007\t900000000000451002\n"
+			+ "18\t20020131\t1\t900000000000207008\t410662002\t138875005\t0\t116680003\t900000000000010007\t900000000000451002\n"
+			+ "19\t20020131\t1\t900000000000207008\t6\t410662002\t0\t116680003\t900000000000010007\t900000000000451002\n";
+
+	@Test
+	public void testClassifiesBothModes() throws Exception
+	{
+		List<IAxiom> axioms = build();
+		SnorocketReasoner<String> reasoner = new SnorocketReasoner<>();
+		reasoner.classify(new HashSet<>(axioms));
+		IOntology<String> t = reasoner.getClassifiedOntology();
+		assertEquals("Wrong parents of 4", Collections.singleton(Collections.singleton(id(3))), parents(t.getNode(id(4))));
+		assertEquals("Wrong parents of 5", Collections.singleton(Collections.singleton(id(2))), parents(t.getNode(id(5))));
+
+		NumericReasoner nr = NumericReasoner.buildBaseState(build());
+		Node<Long> four = nr.getNode(id(4));
+		assertNotNull("No numeric node for 4", four);
+		assertEquals("Wrong numeric parents of 4", Collections.singletonList(Collections.singleton(id(3))),
+				nr.toIdentifiers(four.getParents()));
+	}
+
+	private static List<IAxiom> build() throws IOException
+	{
+		try (InputStream c = new ByteArrayInputStream(CONCEPTS.getBytes(StandardCharsets.UTF_8));
+				InputStream r = new ByteArrayInputStream(RELATIONSHIPS.getBytes(StandardCharsets.UTF_8)))
+		{
+			return SnomedBaseAxioms.build(c, r, new InterningFactory());
+		}
+	}
+
+	private static Set<Set<String>> parents(Node<String> node)
+	{
+		Set<Set<String>> result = new HashSet<>();
+		for (Node<String> p : node.getParents())
+		{
+			result.add(p.getEquivalentConcepts());
+		}
+		return result;
+	}
+
+	private static String id(long sctid)
+	{
+		return SctidResolver.getDefault().resolve(sctid);
+	}
+}
@@ -0,0 +1,58 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import org.junit.Test;
+
+/**
+ * Checks that lookups in a built dictionary give back what the text file said, and that rebuilding replaces an existing dictionary.
+ */
+public class SnomedDictionaryTest
+{
+	private static final UUID HEEL = UUID.fromString("eec0dbcd-b508-353c-ad82-4af8cab643fa");
+	private static final UUID LEFT = UUID.fromString("204c773e-2ba9-3374-80fb-104f78f4b98d");
+	private static final UUID ULCER = UUID.fromString("391616d4-bb39-3ebf-b19e-0d08653821f8");
+
+	@Test
+	public void testBuildAndLookup() throws Exception
+	{
+		String text = "-2147483001,84607009," + HEEL + ",Skin structure of heel (body structure)\n"
+				+ "-2147483002,7771000," + LEFT + "\n"
+				+ "-2147483003,NA,a5771bce-93e2-30c3-af7c-d9dfd0e5deaa,Inherent Location\n"
+				+ "-2147483004,418172001," + ULCER + ",Decubitus ulcer, stage 1 (morphologic abnormality)\n";
+		File dictionary = File.createTempFile("dictionary", ".dat");
+		try
+		{
+			// over an existing file
+			SnomedDictionary.build(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), dictionary);
+			SnomedDictionary d = SnomedDictionary.open(dictionary);
+
+			assertEquals("Wrong SCTID count", 3, d.getSctidCount());
+			assertEquals("Wrong UUID for 84607009", HEEL, d.getUuid(84607009L));
+			assertEquals("Wrong UUID for 418172001", ULCER, d.getUuid(418172001L));
+			assertEquals("Wrong description", "Skin structure of heel (body structure)", d.getDescription(HEEL));
+			assertEquals("Wrong description", "Decubitus ulcer, stage 1 (morphologic abnormality)", d.getDescription(ULCER.toString()));
+			assertEquals("Missing description", "", d.getDescription(LEFT));
+
+			assertNull("Unknown SCTID found", d.getUuid(404684003L));
+			assertNull("Unknown UUID found", d.getDescription(UUID.fromString("00000000-0000-0000-0000-000000000001")));
+			assertNull("NA line not skipped", d.getDescription("a5771bce-93e2-30c3-af7c-d9dfd0e5deaa"));
+			assertNull("Not a UUID", d.getDescription("84607009"));
+
+			// rebuilt in place
+			SnomedDictionary.build(new ByteArrayInputStream(("1,7771000," + LEFT + ",Left\n").getBytes(StandardCharsets.UTF_8)), dictionary);
+			d = SnomedDictionary.open(dictionary);
+			assertEquals("Not replaced", 1, d.getSctidCount());
+			assertEquals("Not replaced", "Left", d.getDescription(LEFT));
+			assertNull("Not replaced", d.getUuid(84607009L));
+		}
+		finally
+		{
+			dictionary.delete();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.axioms.IConceptInclusion;
+import au.csiro.ontology.model.INamedConcept;
+
+/**
+ * Checks that a definition is only passed on until it has been submitted, including across a save and load.
+ */
+public class SubmissionRegistryTest
+{
+	@Test
+	public void testUnchangedDefinitionsSkipped() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		SIMClassifier sc = new SIMClassifier(null);
+		LegoPipeline.forSIM(sc).run(legos);
+		Set<IAxiom> axioms = sc.getUnclassifiedAxioms();
+
+		SubmissionRegistry registry = new SubmissionRegistry();
+		assertEquals("Wrong number of Axioms passed", 2, registry.filter(axioms).size());
+		assertEquals(1, registry.getAdded().size());
+		registry.commit();
+
+		File saved = File.createTempFile("registry", ".bin");
+		saved.deleteOnExit();
+		registry.save(saved);
+		registry = SubmissionRegistry.load(saved);
+
+		assertEquals("Unchanged definitions passed", 0, registry.filter(axioms).size());
+		assertEquals(1, registry.getSkipped().size());
+		assertEquals(0, registry.getAdded().size());
+	}
+
+	@Test
+	public void testReversedDefinitionModified() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		SIMClassifier sc = new SIMClassifier(null);
+		LegoPipeline.forSIM(sc).run(legos);
+		Set<IAxiom> forward = new HashSet<>();
+		Set<IAxiom> reversed = new HashSet<>();
+		for (IAxiom a : sc.getUnclassifiedAxioms())
+		{
+			IConceptInclusion ci = (IConceptInclusion) a;
+			if (ci.lhs() instanceof INamedConcept)
+			{
+				forward.add(a);
+				reversed.add(sc.getFactory().createConceptInclusion(ci.rhs(), ci.lhs()));
+			}
+		}
+
+		SubmissionRegistry registry = new SubmissionRegistry();
+		registry.filter(forward);
+		registry.commit();
+		assertEquals("Reversed definition skipped", reversed.size(), registry.filter(reversed).size());
+		assertEquals(1, registry.getModified().size());
+	}
+}
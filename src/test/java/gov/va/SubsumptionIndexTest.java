@@ -0,0 +1,86 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import au.csiro.ontology.IOntology;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.axioms.IConceptInclusion;
+import au.csiro.ontology.model.INamedConcept;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checks the subsumption index against the classified ontology, for every pair of concepts - after it is built, and after an
+ * incremental classification.
+ */
+public class SubsumptionIndexTest
+{
+	@Test
+	public void testIndexMatchesTaxonomy() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+		LegoPipeline.forSIM(sc).run(legos);
+		Set<IAxiom> axioms = new HashSet<>(sc.getUnclassifiedAxioms());
+		sc.classifyAxioms();
+		sc.setSubsumptionIndexed(true);
+		check(sc);
+
+		// define the same concepts again under new names - only new nodes
+		InterningFactory f = sc.getFactory();
+		Map<String, String> renamed = new HashMap<>();
+		for (IAxiom a : axioms)
+		{
+			if (((IConceptInclusion) a).lhs() instanceof INamedConcept)
+			{
+				String id = (String) ((INamedConcept<?>) ((IConceptInclusion) a).lhs()).getId();
+				renamed.put(id, id + "#copy");
+			}
+		}
+		for (IAxiom a : axioms)
+		{
+			IConceptInclusion ci = (IConceptInclusion) a;
+			sc.getUnclassifiedAxioms().add(
+					f.createConceptInclusion(WhatIfClassifier.rename(ci.lhs(), renamed, f), WhatIfClassifier.rename(ci.rhs(), renamed, f)));
+		}
+		sc.classifyAxioms();
+		check(sc);
+		for (Map.Entry<String, String> e : renamed.entrySet())
+		{
+			assertTrue("Copy not equivalent", sc.getSubsumptionIndex().isSubsumedBy(e.getValue(), e.getKey()));
+		}
+	}
+
+	private static void check(SIMClassifier sc)
+	{
+		IOntology<String> t = sc.getReasoner().getClassifiedOntology();
+		SubsumptionIndex index = sc.getSubsumptionIndex();
+		for (String x : t.getNodeMap().keySet())
+		{
+			Set<String> ancestors = ancestors(t.getNode(x));
+			assertEquals("Wrong ancestors of " + x, ancestors, index.getAncestors(x));
+			for (String y : t.getNodeMap().keySet())
+			{
+				boolean expected = ancestors.contains(y) || t.getNode(x).getEquivalentConcepts().contains(y);
+				assertEquals(x + " subsumed by " + y, expected, index.isSubsumedBy(x, y));
+			}
+		}
+	}
+
+	private static Set<String> ancestors(Node<String> n)
+	{
+		Set<String> result = new HashSet<>();
+		for (Node<String> p : n.getParents())
+		{
+			result.addAll(p.getEquivalentConcepts());
+			result.addAll(ancestors(p));
+		}
+		return result;
+	}
+}
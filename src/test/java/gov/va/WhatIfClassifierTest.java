@@ -0,0 +1,191 @@
+package gov.va;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import au.csiro.ontology.Node;
+import au.csiro.ontology.axioms.IAxiom;
+import au.csiro.ontology.model.IConcept;
+import au.csiro.ontology.model.INamedRole;
+import au.csiro.snorocket.core.SnorocketReasoner;
+
+/**
+ * Checks that a preview classifies as expected, and that the shared classifier doesn't show it - before or after it is discarded, in
+ * its summary, or in a checkpoint.
+ */
+public class WhatIfClassifierTest
+{
+	@Test
+	public void testPreviewIsHidden() throws Exception
+	{
+		SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+		InterningFactory f = sc.getFactory();
+		INamedRole<String> r = f.createRole("r");
+		IConcept a = f.createConcept("A");
+		IConcept b = f.createConcept("B");
+		IConcept c = f.createConcept("C");
+		IConcept d = f.createConcept("D");
+
+		// B < A, C == B and r.D
+		IConcept bAndRD = f.createConjunction(b, f.createExistential(r, d));
+		sc.getUnclassifiedAxioms().add(f.createConceptInclusion(b, a));
+		sc.getUnclassifiedAxioms().add(f.createConceptInclusion(c, bAndRD));
+		sc.getUnclassifiedAxioms().add(f.createConceptInclusion(bAndRD, c));
+		sc.classifyAxioms();
+
+		// T == A and r.D sits between A and C
+		IConcept t = f.createConcept("T");
+		IConcept aAndRD = f.createConjunction(a, f.createExistential(r, d));
+		Set<IAxiom> draft = new HashSet<>();
+		draft.add(f.createConceptInclusion(t, aAndRD));
+		draft.add(f.createConceptInclusion(aAndRD, t));
+
+		WhatIfClassifier whatIf = new WhatIfClassifier(sc);
+		Node<String> cNode = whatIf.getNode("C");
+		try (WhatIfClassifier.Preview p = whatIf.preview(draft))
+		{
+			Node<String> tNode = p.getNode("T");
+			assertEquals("Wrong tentative equivalents", Collections.singleton("T"), whatIf.visibleEquivalents(tNode, p));
+			assertEquals("Wrong tentative parents", Collections.singleton("A"), ids(whatIf, whatIf.visibleParents(tNode, p), p));
+			assertEquals("Wrong parents seen by the preview", set("B", "T"), ids(whatIf, whatIf.visibleParents(p.getNode("C"), p), p));
+			assertEquals("Wrong parents seen outside the preview", Collections.singleton("B"), ids(whatIf, whatIf.visibleParents(cNode, null), null));
+		}
+		assertNull("Unexpected node for a tentative id", whatIf.getNode("T"));
+		assertEquals("Wrong parents after discarding", Collections.singleton("B"), ids(whatIf, whatIf.visibleParents(cNode, null), null));
+		assertEquals(1, whatIf.getRetainedConcepts());
+	}
+
+	@Test
+	public void testPreviewLeavesNoTrace() throws Exception
+	{
+		File legos = new File(this.getClass().getResource("/Pressure ulcer observables.xml").toURI());
+		SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+		sc.setSubmissionRegistry(new SubmissionRegistry());
+		LegoPipeline.forSIM(sc).run(legos);
+		Set<IAxiom> axioms = new HashSet<>(sc.getUnclassifiedAxioms());
+		sc.classifyAxioms();
+		String summary = sc.getClassificationSummary();
+
+		// the same definitions again - each tentative concept is equivalent to its original
+		WhatIfClassifier whatIf = new WhatIfClassifier(sc);
+		try (WhatIfClassifier.Preview p = whatIf.preview(axioms))
+		{
+			for (String id : p.getDefinedConcepts())
+			{
+				assertEquals("Wrong tentative equivalents", Collections.singleton(id), whatIf.visibleEquivalents(p.getNode(id), p));
+			}
+		}
+		assertEquals("Summary changed by a discarded preview", summary, sc.getClassificationSummary());
+		assertNoTentative(sc);
+
+		File dir = File.createTempFile("checkpoint", "");
+		dir.delete();
+		try
+		{
+			new ClassifierCheckpoint(dir, sc, 1).checkpoint();
+			SIMClassifier resumed = ClassifierCheckpoint.resume(dir);
+			assertNoTentative(resumed);
+
+			// previews of the resumed classifier work as before
+			whatIf = new WhatIfClassifier(resumed);
+			try (WhatIfClassifier.Preview p = whatIf.preview(axioms))
+			{
+				assertEquals(p.getDefinedConcepts().size(), whatIf.getRetainedConcepts());
+			}
+			assertNoTentative(resumed);
+		}
+		finally
+		{
+			delete(dir);
+		}
+	}
+
+	@Test
+	public void testNonConservativeRejected() throws Exception
+	{
+		SIMClassifier sc = new SIMClassifier(new SnorocketReasoner<String>());
+		InterningFactory f = sc.getFactory();
+		INamedRole<String> r = f.createRole("r");
+		IConcept a = f.createConcept("A");
+		IConcept b = f.createConcept("B");
+		IConcept x = f.createConcept("X");
+		IConcept rB = f.createExistential(r, b);
+		sc.getUnclassifiedAxioms().add(f.createConceptInclusion(b, a));
+		sc.classifyAxioms();
+		WhatIfClassifier whatIf = new WhatIfClassifier(sc);
+
+		// X < A and r.B < X would make r.B < A
+		assertRejected(whatIf, f.createConceptInclusion(x, a), f.createConceptInclusion(rB, x));
+		// X == r.B and X == r.A would make r.B == r.A
+		IConcept rA = f.createExistential(r, a);
+		assertRejected(whatIf, f.createConceptInclusion(x, rB), f.createConceptInclusion(rB, x), f.createConceptInclusion(x, rA),
+				f.createConceptInclusion(rA, x));
+		// a general inclusion between existing expressions
+		assertRejected(whatIf, f.createConceptInclusion(rB, a));
+
+		// an equivalence alone is fine
+		try (WhatIfClassifier.Preview p = whatIf.preview(set(f.createConceptInclusion(x, rB), f.createConceptInclusion(rB, x))))
+		{
+			assertEquals("Wrong preview", Collections.singleton("X"), p.getDefinedConcepts());
+		}
+		assertEquals("Wrong parents of B", Collections.singleton("A"), ids(whatIf, whatIf.visibleParents(whatIf.getNode("B"), null), null));
+	}
+
+	private static void assertRejected(WhatIfClassifier whatIf, IAxiom... axioms) throws Exception
+	{
+		try
+		{
+			whatIf.preview(set(axioms)).close();
+			fail("Preview of non-conservative axioms accepted: " + set(axioms));
+		}
+		catch (IllegalArgumentException e)
+		{
+			// expected
+		}
+	}
+
+	private static void assertNoTentative(SIMClassifier sc)
+	{
+		for (String id : sc.getReasoner().getClassifiedOntology().getNodeMap().keySet())
+		{
+			assertFalse("Tentative concept in the shared reasoner: " + id, WhatIfClassifier.isTentative(id));
+		}
+	}
+
+	private static void delete(File f)
+	{
+		File[] children = f.listFiles();
+		if (children != null)
+		{
+			for (File c : children)
+			{
+				delete(c);
+			}
+		}
+		f.delete();
+	}
+
+	private Set<String> ids(WhatIfClassifier whatIf, Set<Node<String>> nodes, WhatIfClassifier.Preview p)
+	{
+		Set<String> result = new HashSet<>();
+		for (Node<String> n : nodes)
+		{
+			result.addAll(whatIf.visibleEquivalents(n, p));
+		}
+		return result;
+	}
+
+	@SafeVarargs
+	private static <T> Set<T> set(T... items)
+	{
+		Set<T> result = new HashSet<>();
+		Collections.addAll(result, items);
+		return result;
+	}
+}